@@ -0,0 +1,135 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import java.lang.management.ManagementFactory;
+
+
+/**
+ * Comprova que la cerca no crea cap objecte un cop escalfada: fa cerques
+ * a profunditat fixa de les posicions de BenchPositions i mira el
+ * comptador de bytes reservats pel fil abans i després de cada cerca.
+ *
+ * Es comproven els dos algorismes, PVS amb ProbCut i memòria cau, les
+ * avaluacions TrainedEval i FeatureEval i el solucionador de finals. Si
+ * alguna cerca reserva memòria s'acaba amb codi 1.
+ *
+ * Ús: ant alloc, o java AllocationCheck [profunditat]
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public final class AllocationCheck {
+
+    /** Cerques de cada posició abans de començar a comptar. */
+    private static final int ESCALFAMENT = 3;
+
+    private final com.sun.management.ThreadMXBean mx;
+    private final long fil = Thread.currentThread().getId();
+    private boolean correcte = true;
+
+    private AllocationCheck() {
+        mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        mx.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private long reservats() {
+        return mx.getThreadAllocatedBytes(fil);
+    }
+
+    /**
+     * Escalfa i després compta els bytes reservats per les cerques de les
+     * posicions de mig joc.
+     */
+    private void comprova(String nom, Search s, TranspositionTable tt, int prof) {
+        long[][] posicions = BenchPositions.fitxes(BenchPositions.MIGJOC);
+        for (int i = 0; i < ESCALFAMENT; i++) {
+            for (long[] p : posicions) cerca(s, tt, p, prof);
+        }
+        long bytes = 0, nodes = 0;
+        for (long[] p : posicions) {
+            Bitboard b = new Bitboard(p[0], p[1], CellType.PLAYER1);
+            tt.clear();
+            s.preparaCerca();
+            long abans = reservats();
+            s.cerca(b, prof);
+            bytes += reservats() - abans;
+            nodes += s.getNodes();
+        }
+        informa(nom, bytes, nodes);
+    }
+
+    private static void cerca(Search s, TranspositionTable tt, long[] p, int prof) {
+        tt.clear();
+        s.preparaCerca();
+        s.cerca(new Bitboard(p[0], p[1], CellType.PLAYER1), prof);
+    }
+
+    /**
+     * Com comprova, amb el solucionador de finals i les posicions finals.
+     */
+    private void comprovaFinals() {
+        long[][] posicions = BenchPositions.fitxes(BenchPositions.FINAL);
+        EndgameSolver finals = new EndgameSolver(1 << 16);
+        for (int i = 0; i < ESCALFAMENT; i++) {
+            for (long[] p : posicions) {
+                finals.preparaCerca();
+                finals.resol(new Bitboard(p[0], p[1], CellType.PLAYER1));
+            }
+        }
+        long bytes = 0;
+        for (long[] p : posicions) {
+            Bitboard b = new Bitboard(p[0], p[1], CellType.PLAYER1);
+            finals.preparaCerca();
+            long abans = reservats();
+            finals.resol(b);
+            bytes += reservats() - abans;
+        }
+        informa("EndgameSolver", bytes, -1);
+    }
+
+    private void informa(String nom, long bytes, long nodes) {
+        if (nodes >= 0) System.out.printf("%-28s %10d nodes %8d bytes%n", nom, nodes, bytes);
+        else System.out.printf("%-28s %16s %8d bytes%n", nom, "", bytes);
+        if (bytes != 0) correcte = false;
+    }
+
+
+    /**
+     * @param args Profunditat de les cerques (7 per defecte).
+     */
+    public static void main(String[] args) {
+        int prof = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+        AllocationCheck c = new AllocationCheck();
+        if (!c.mx.isThreadAllocatedMemorySupported()) {
+            System.err.println("La JVM no compta la memòria reservada per fil");
+            System.exit(2);
+        }
+        TrainedEval entrenada = TrainedEval.perDefecte();
+        for (Search.Algorisme alg : Search.Algorisme.values()) {
+            TranspositionTable tt = new TranspositionTable(1 << 18, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+            Search s = new Search(tt);
+            s.setAlgorisme(alg);
+            c.comprova(alg.toString(), s, tt, prof);
+        }
+        TranspositionTable tt = new TranspositionTable(1 << 18, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+        Search s = new Search(tt);
+        s.setAlgorisme(Search.Algorisme.PVS);
+        s.setProbCut(ProbCut.perDefecte());
+        s.setEvalCache(new EvalCache(1 << 16));
+        c.comprova("PVS probcut cache", s, tt, prof);
+        if (entrenada != null) {
+            s.setEvaluator(entrenada);
+            s.setProbCut(ProbCut.perDefecte(entrenada));
+            c.comprova("PVS probcut cache entrenada", s, tt, prof);
+        }
+        s.setEvaluator(Evaluator.AMPLIADA);
+        s.setCanonica(true);
+        c.comprova("PVS ampliada canonica", s, tt, prof);
+        c.comprovaFinals();
+        if (!c.correcte) {
+            System.err.println("Alguna cerca ha reservat memòria");
+            System.exit(1);
+        }
+        System.out.println("Cap cerca ha reservat memòria");
+    }
+}
@@ -0,0 +1,81 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+
+/**
+ * Avaluació de moltes posicions en una sola crida, per a l'anàlisi i
+ * l'ajust de pesos fora de partida.
+ *
+ * Les posicions van empaquetades en dos arrays paral·lels amb les fitxes
+ * del jugador des del qual s'avalua i les del rival, i el resultat de cada
+ * posició és exactament PatternEval.heuristic(meves[i], enemic[i]).
+ *
+ * Si el mòdul jdk.incubator.vector és present (cal executar amb
+ * --add-modules jdk.incubator.vector) es fa servir PatternEvalVector, i si
+ * no, o si la propietat meruem.escalar és certa, es fa posició a posició.
+ * Amb la Vector API només la combinació dels comptadors (PatternEval.combina)
+ * és SIMD; la suma de les taules de patrons es continua fent posició a
+ * posició.
+ *
+ * És a bench i no a src perquè el mòdul d'incubació obliga a compilar amb
+ * --add-modules i en treu un avís a cada compilació; el jugador no el fa
+ * servir.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public final class BatchEval {
+
+    private static final boolean VECTORIAL =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !Boolean.getBoolean("meruem.escalar");
+
+    private BatchEval() {
+    }
+
+
+    /**
+     * Avalua totes les posicions.
+     *
+     * @param meves Fitxes del jugador des del qual s'avalua cada posició.
+     * @param enemic Fitxes del rival de cada posició.
+     * @param valors On s'escriu el valor de cada posició.
+     */
+    public static void avalua(long[] meves, long[] enemic, double[] valors) {
+        avalua(meves, enemic, valors, 0, meves.length);
+    }
+
+    /**
+     * Avalua les posicions de desde a desde + n - 1.
+     *
+     * @param meves Fitxes del jugador des del qual s'avalua cada posició.
+     * @param enemic Fitxes del rival de cada posició.
+     * @param valors On s'escriu el valor de cada posició, al mateix índex.
+     * @param desde Primera posició.
+     * @param n Nombre de posicions.
+     * @throws IndexOutOfBoundsException Si algun array és massa curt.
+     */
+    public static void avalua(long[] meves, long[] enemic, double[] valors, int desde, int n) {
+        int fi = desde + n;
+        if (desde < 0 || n < 0 || fi > meves.length || fi > enemic.length || fi > valors.length) {
+            throw new IndexOutOfBoundsException("Lot fora dels arrays: " + desde + " + " + n);
+        }
+        if (VECTORIAL) PatternEvalVector.avalua(meves, enemic, valors, desde, n);
+        else escalar(meves, enemic, valors, desde, n);
+    }
+
+    /**
+     * Avalua les posicions una a una amb PatternEval.
+     */
+    static void escalar(long[] meves, long[] enemic, double[] valors, int desde, int n) {
+        for (int i = desde; i < desde + n; i++) {
+            valors[i] = PatternEval.heuristic(meves[i], enemic[i]);
+        }
+    }
+
+    /**
+     * @return Cert si els lots es fan amb la Vector API.
+     */
+    public static boolean isVectorial() {
+        return VECTORIAL;
+    }
+}
@@ -0,0 +1,89 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+
+
+/**
+ * Posicions fixes dels bancs de proves, sorties de partides aleatòries amb
+ * llavor fixa: obertura (8 moviments jugats), mig joc (30) i final (48,
+ * és a dir 12 caselles buides). Cada posició són les fitxes del jugador
+ * que ha de moure i les del rival, i en totes el jugador que mou té algun
+ * moviment legal.
+ *
+ * Són literals perquè els resultats no canviïn si canvia el generador de
+ * moviments o l'ordre en què es recorren.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public final class BenchPositions {
+
+    /** Noms de les fases, per fer servir com a @Param. */
+    public static final String OBERTURA = "obertura";
+    public static final String MIGJOC = "migjoc";
+    public static final String FINAL = "final";
+
+    private static final long[][] OBERTURES = {
+        {0x000000001e180000L, 0x0000203c20000000L},
+        {0x0020603800000000L, 0x000000003c080400L},
+        {0x0000000850000000L, 0x0010103028302000L},
+        {0x0000102060100000L, 0x0000085818200000L},
+        {0x0000000810200000L, 0x0010101028142200L},
+        {0x0020100820600000L, 0x0010201018100000L},
+        {0x000020100c000000L, 0x00000408107c0000L},
+        {0x0000102840000000L, 0x001c201038000000L},
+    };
+
+    private static final long[][] MIGJOCS = {
+        {0x40c01b4381200000L, 0x3c3e243c78c00000L},
+        {0x00e0f8700e0c0201L, 0x901c050a30501c00L},
+        {0x043f3e0420302020L, 0x0300007ade888000L},
+        {0x1000070213e00010L, 0x0a1c387c2c10f080L},
+        {0x00fc7a3433420000L, 0x8000018a0c2c2a01L},
+        {0x10081c0e56210800L, 0x0470609008de1222L},
+        {0x000020001f074440L, 0x00f8d8f8e050a100L},
+        {0x30301088c8c04000L, 0x8a4f2c74340c0400L},
+    };
+
+    private static final long[][] FINALS = {
+        {0x81061ae0746a7400L, 0x3468e51f0a1403ffL},
+        {0x00f0ef502048f0c0L, 0x3c08102fdfb60e3aL},
+        {0x0080003400f07f7eL, 0x7e7cfa4bfe0e0000L},
+        {0x6a1be8c9c32d0804L, 0x80e017343c52b662L},
+        {0x1c8050a81e2a07eeL, 0x807c2f57e1953800L},
+        {0x08982f07a3c1c0e1L, 0x7020d0f85c3e3f00L},
+        {0x8000786365494140L, 0x60fe849898b69e3fL},
+        {0x726081944d337f82L, 0x818e7e2a328c0029L},
+    };
+
+    private BenchPositions() {
+    }
+
+
+    /**
+     * @param fase OBERTURA, MIGJOC o FINAL.
+     * @return Les fitxes {jugador, rival} de cada posició de la fase.
+     */
+    public static long[][] fitxes(String fase) {
+        switch (fase) {
+            case OBERTURA: return OBERTURES;
+            case MIGJOC: return MIGJOCS;
+            case FINAL: return FINALS;
+            default: throw new IllegalArgumentException("Fase desconeguda: " + fase);
+        }
+    }
+
+    /**
+     * @param fase OBERTURA, MIGJOC o FINAL.
+     * @return Una còpia nova de cada posició de la fase, amb PLAYER1 com a
+     *          jugador que ha de moure.
+     */
+    public static Bitboard[] taulers(String fase) {
+        long[][] f = fitxes(fase);
+        Bitboard[] b = new Bitboard[f.length];
+        for (int i = 0; i < f.length; i++) {
+            b[i] = new Bitboard(f[i][0], f[i][1], CellType.PLAYER1);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,220 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import edu.upc.epsevg.prop.othello.Move;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Prova de càrrega d'un Engine: moltes partides alhora, cadascuna amb el
+ * seu GameContext, contra un client que respon a l'instant amb moviments
+ * a l'atzar. Quan una partida s'acaba se'n comença una altra amb el
+ * mateix context, fins que passa el temps de la prova.
+ *
+ * Per a cada moviment es mesura la latència que veuria el client (des
+ * que el demana fins que el té) i quina part és cerca i quina espera a
+ * la cua, i se n'escriuen els percentils. També s'escriu quants
+ * moviments ha fet cada partida, per veure si el repartiment és just.
+ *
+ * El temps per moviment compta l'espera a la cua, de manera que cap
+ * latència hauria de passar del pressupost: la prova acaba amb error (codi
+ * de sortida 1) si algun moviment s'hi passa o si alguna cerca falla. Els
+ * moviments del primer segon, mentre s'escalfa la JVM, no es mesuren. Cal
+ * que hi hagi tants nuclis lliures com fils del motor: amb menys, el
+ * sistema pot aturar una cerca més enllà del seu límit.
+ *
+ * Ús: ant load -Dload.args="partides fils ms ...", o java EngineLoadTest
+ *     partides fils ms [segons] [alg] [llibre]
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class EngineLoadTest {
+
+    /** Nanosegons del començament de la prova que no es mesuren. */
+    private static final long ESCALFAMENT = 1_000_000_000L;
+
+    /** Una partida de la prova. */
+    private final class Partida {
+        final GameContext context;
+        final SplittableRandom atzar;
+        CellType color;
+        Bitboard tauler;
+        long moviments;
+
+        Partida(GameContext context, long llavor, CellType color) {
+            this.context = context;
+            this.atzar = new SplittableRandom(llavor);
+            this.color = color;
+            this.tauler = inici();
+        }
+    }
+
+    private final long mesura;
+    private final long fi;
+    private final CountDownLatch acabades;
+    private final AtomicLong partides = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private long[] latencies = new long[1 << 16];
+    private long[] cerques = new long[1 << 16];
+    private int n;
+
+
+    private EngineLoadTest(int partides, long mesura, long fi) {
+        this.mesura = mesura;
+        this.fi = fi;
+        this.acabades = new CountDownLatch(partides);
+    }
+
+    private static Bitboard inici() {
+        return new Bitboard(OpeningBookBuilder.INICI_JUGADOR, OpeningBookBuilder.INICI_RIVAL, CellType.PLAYER1);
+    }
+
+    /**
+     * Juga el client fins que torna a tocar al motor i li demana el
+     * moviment. Es torna a cridar quan el motor respon.
+     */
+    private void torn(Partida p) {
+        Bitboard b = p.tauler;
+        while (!b.isGameOver()) {
+            if (!b.currentPlayerCanMove()) {
+                b.passa();
+                continue;
+            }
+            if (b.getCurrentPlayer() == p.color) break;
+            int[] m = b.getMoves();
+            b.movePiece(m[p.atzar.nextInt(m.length)]);
+        }
+        if (System.nanoTime() >= fi) {
+            acabades.countDown();
+            return;
+        }
+        if (b.isGameOver()) {
+            partides.incrementAndGet();
+            p.context.novaPartida();
+            p.color = p.color == CellType.PLAYER1 ? CellType.PLAYER2 : CellType.PLAYER1;
+            p.tauler = inici();
+            torn(p);
+            return;
+        }
+        long demanat = System.nanoTime();
+        p.context.move(b).whenComplete((m, e) -> {
+            if (e != null || m.getTo() == null) {
+                errors.incrementAndGet();
+                acabades.countDown();
+                return;
+            }
+            long latencia = System.nanoTime() - demanat;
+            if (demanat >= mesura) {
+                registra(latencia, p.context.getEstadistiques().getTemps());
+                p.moviments++;
+            }
+            b.movePiece(Bitboard.toSquare(m.getTo()));
+            torn(p);
+        });
+    }
+
+    private synchronized void registra(long latencia, long cerca) {
+        if (n == latencies.length) {
+            latencies = Arrays.copyOf(latencies, 2 * n);
+            cerques = Arrays.copyOf(cerques, 2 * n);
+        }
+        latencies[n] = latencia;
+        cerques[n] = cerca;
+        n++;
+    }
+
+    /**
+     * @param ordenats Valors ordenats.
+     * @param p Percentil, de 0 a 100.
+     * @return El valor del percentil, en mil·lisegons.
+     */
+    private static double percentil(long[] ordenats, double p) {
+        if (ordenats.length == 0) return 0;
+        int i = (int) Math.ceil(p / 100 * ordenats.length) - 1;
+        return ordenats[Math.max(0, Math.min(i, ordenats.length - 1))] / 1e6;
+    }
+
+    private static void escriu(String nom, long[] v) {
+        Arrays.sort(v);
+        System.out.printf(Locale.ROOT, "%-8s p50 %7.1f  p90 %7.1f  p99 %7.1f  p99.9 %7.1f  màx %7.1f ms%n",
+                nom, percentil(v, 50), percentil(v, 90), percentil(v, 99), percentil(v, 99.9),
+                percentil(v, 100));
+    }
+
+
+    /**
+     * Fa la prova.
+     *
+     * @param args Partides simultànies, fils del motor, mil·lisegons per
+     *          moviment, segons de la prova sense l'escalfament (10 per
+     *          defecte), algorisme (PVS per defecte) i fitxer del llibre
+     *          d'obertures.
+     * @throws IOException Si no es pot obrir el llibre.
+     * @throws InterruptedException Si s'interromp l'espera.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Ús: EngineLoadTest partides fils ms [segons] [alg] [llibre]");
+            System.exit(1);
+        }
+        int nPartides = Integer.parseInt(args[0]);
+        int fils = Integer.parseInt(args[1]);
+        long ms = Long.parseLong(args[2]);
+        double segons = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+        Search.Algorisme alg = args.length > 4
+                ? Search.Algorisme.valueOf(args[4].toUpperCase(Locale.ROOT)) : Search.Algorisme.PVS;
+        OpeningBook llibre = args.length > 5 ? OpeningBook.obre(Paths.get(args[5])) : null;
+
+        TrainedEval pesos = TrainedEval.perDefecte();
+        Evaluator avaluacio = pesos != null ? pesos : Evaluator.PATRONS;
+        long inici = System.nanoTime();
+        EngineLoadTest prova = new EngineLoadTest(nPartides, inici + ESCALFAMENT,
+                inici + ESCALFAMENT + (long) (segons * 1e9));
+        Partida[] totes = new Partida[nPartides];
+        try (Engine engine = new Engine(avaluacio, llibre, ProbCut.perDefecte(avaluacio), new EvalCache(EvalCache.MIDA), fils)) {
+            for (int i = 0; i < nPartides; i++) {
+                GameContext c = engine.nouContext();
+                c.setAlgorisme(alg);
+                c.setTempsPerMoviment(ms);
+                totes[i] = prova.new Partida(c, i, i % 2 == 0 ? CellType.PLAYER1 : CellType.PLAYER2);
+            }
+            for (Partida p : totes) prova.torn(p);
+            prova.acabades.await();
+        }
+        double durada = (System.nanoTime() - prova.mesura) / 1e9;
+
+        long[] latencies, cerques, espera;
+        synchronized (prova) {
+            latencies = Arrays.copyOf(prova.latencies, prova.n);
+            cerques = Arrays.copyOf(prova.cerques, prova.n);
+        }
+        espera = new long[latencies.length];
+        for (int i = 0; i < espera.length; i++) espera[i] = Math.max(0, latencies[i] - cerques[i]);
+        long[] perPartida = new long[nPartides];
+        for (int i = 0; i < nPartides; i++) perPartida[i] = totes[i].moviments;
+        Arrays.sort(perPartida);
+        double mitjana = (double) latencies.length / nPartides;
+        long fora = 0;
+        for (long l : latencies) if (l > ms * 1_000_000L) fora++;
+
+        System.out.printf(Locale.ROOT, "%d partides simultànies, %d fils, %d ms per moviment, %.1f s%n",
+                nPartides, fils, ms, durada);
+        System.out.printf(Locale.ROOT, "Moviments: %d (%.1f/s), partides acabades: %d, errors: %d%n",
+                latencies.length, latencies.length / durada, prova.partides.get(), prova.errors.get());
+        escriu("Latència", latencies);
+        escriu("Cerca", cerques);
+        escriu("Cua", espera);
+        System.out.printf(Locale.ROOT, "Moviments per partida: mín %d, mitjana %.1f, màx %d%n",
+                perPartida.length == 0 ? 0 : perPartida[0], mitjana,
+                perPartida.length == 0 ? 0 : perPartida[perPartida.length - 1]);
+        System.out.printf(Locale.ROOT, "Fora del pressupost de %d ms: %d de %d%n", ms, fora, latencies.length);
+        if (fora > 0 || prova.errors.get() > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,156 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Latència de l'avaluació d'una fulla, d'una en una (PatternEval,
+ * TrainedEval o FeatureEval, i cada terme de FeatureEval per separat) o
+ * per lots amb BatchEval (escalar o amb la Vector API).
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class EvalBenchmark {
+
+    @Param({BenchPositions.OBERTURA, BenchPositions.MIGJOC, BenchPositions.FINAL})
+    public String fase;
+
+    /** Posicions de cada lot (les de la fase repetides). */
+    public static final int LOT = 4096;
+
+    private long[][] posicions;
+    private TrainedEval entrenada;
+    private final long[] meves = new long[LOT];
+    private final long[] enemic = new long[LOT];
+    private final double[] valors = new double[LOT];
+
+    @Setup
+    public void setup() {
+        posicions = BenchPositions.fitxes(fase);
+        entrenada = TrainedEval.perDefecte();
+        if (entrenada == null) entrenada = new TrainedEval();
+        for (int i = 0; i < LOT; i++) {
+            meves[i] = posicions[i % posicions.length][0];
+            enemic[i] = posicions[i % posicions.length][1];
+        }
+    }
+
+    /**
+     * Una avaluació per posició de la fase; el temps es dona per avaluació.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public double heuristic() {
+        double suma = 0;
+        for (long[] p : posicions) {
+            suma += PatternEval.heuristic(p[0], p[1]);
+        }
+        return suma;
+    }
+
+    /**
+     * Com heuristic, amb els pesos entrenats de TrainedEval.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public double entrenada() {
+        double suma = 0;
+        for (long[] p : posicions) {
+            suma += entrenada.heuristic(p[0], p[1]);
+        }
+        return suma;
+    }
+
+    /**
+     * Com heuristic, amb els termes de mobilitat, frontera i estabilitat.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public double ampliada() {
+        double suma = 0;
+        for (long[] p : posicions) {
+            suma += FeatureEval.heuristic(p[0], p[1]);
+        }
+        return suma;
+    }
+
+    /**
+     * Mobilitat dels dos jugadors.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public int mobilitat() {
+        int suma = 0;
+        for (long[] p : posicions) {
+            suma += FeatureEval.mobilitat(p[0], p[1]) - FeatureEval.mobilitat(p[1], p[0]);
+        }
+        return suma;
+    }
+
+    /**
+     * Fitxes de frontera dels dos jugadors.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public int frontera() {
+        int suma = 0;
+        for (long[] p : posicions) {
+            long buides = ~(p[0] | p[1]);
+            suma += FeatureEval.frontera(p[0], buides) - FeatureEval.frontera(p[1], buides);
+        }
+        return suma;
+    }
+
+    /**
+     * Fitxes estables dels dos jugadors.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public int estabilitat() {
+        int suma = 0;
+        for (long[] p : posicions) {
+            suma += Long.bitCount(FeatureEval.estables(p[0], p[1]))
+                    - Long.bitCount(FeatureEval.estables(p[1], p[0]));
+        }
+        return suma;
+    }
+
+    /**
+     * Un lot amb BatchEval; el temps es dona per posició.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LOT)
+    public double[] lot() {
+        BatchEval.avalua(meves, enemic, valors);
+        return valors;
+    }
+
+    /**
+     * El mateix lot posició a posició, sense la Vector API.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LOT)
+    public double[] lotEscalar() {
+        BatchEval.escalar(meves, enemic, valors, 0, LOT);
+        return valors;
+    }
+}
@@ -0,0 +1,91 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Rendiment del generador de moviments: moviments legals i fitxes girades
+ * de cada moviment, i fer i desfer cada moviment sobre el Bitboard.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGenBenchmark {
+
+    @Param({BenchPositions.OBERTURA, BenchPositions.MIGJOC, BenchPositions.FINAL})
+    public String fase;
+
+    private long[][] posicions;
+    private Bitboard[] taulers;
+
+    @Setup
+    public void setup() {
+        posicions = BenchPositions.fitxes(fase);
+        taulers = BenchPositions.taulers(fase);
+    }
+
+    /**
+     * Generació de la màscara de moviments legals.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public long moviments() {
+        long r = 0;
+        for (long[] p : posicions) {
+            r ^= Bitboard.moviments(p[0], p[1]);
+        }
+        return r;
+    }
+
+    /**
+     * Moviments legals més les fitxes girades de cadascun.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public long movimentsIGirs() {
+        long r = 0;
+        for (long[] p : posicions) {
+            for (long m = Bitboard.moviments(p[0], p[1]); m != 0; m &= m - 1) {
+                r ^= Bitboard.girs(p[0], p[1], Long.numberOfTrailingZeros(m));
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Fer i desfer tots els moviments legals, com fa la cerca a cada node.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public long fesIDesfes() {
+        long r = 0;
+        for (Bitboard b : taulers) {
+            for (long m = b.getMoviments(); m != 0; m &= m - 1) {
+                int sq = Long.numberOfTrailingZeros(m);
+                long hash = b.getHash();
+                long girades = b.fesMoviment(sq);
+                r ^= b.getHash();
+                b.desfesMoviment(sq, girades, hash);
+            }
+        }
+        return r;
+    }
+}
@@ -0,0 +1,89 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import java.util.SplittableRandom;
+
+
+/**
+ * Comprova que PatternEval dona exactament els mateixos valors que
+ * l'heurística original (ScanEval) en totes les posicions d'unes partides
+ * a l'atzar generades amb una llavor fixa, des del punt de vista dels dos
+ * colors. Els valors han de ser idèntics bit a bit; si algun no ho és
+ * s'escriu la posició i s'acaba amb codi 1.
+ *
+ * Ús: ant pattern-check, o java PatternEvalCheck [partides] [llavor]
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public final class PatternEvalCheck {
+
+    /** Partides per defecte. */
+    private static final int PARTIDES = 20000;
+
+    /** Llavor per defecte de les partides. */
+    private static final long LLAVOR = 1;
+
+    /**
+     * Caselles on l'heurística original té peculiaritats, que es comproven
+     * una a una a més de les partides: (0,6) compta dues vegades a
+     * preEsquines i (6,0) cap, i costats només mira les caselles 2 a 4 de
+     * cada vora, de manera que 1 i 5 (i les seves simètriques) no hi són.
+     */
+    private static final int[] PECULIARS = {
+        0 + 8 * 6, 6 + 8 * 0, 1, 5, 1 + 8 * 7, 5 + 8 * 7, 8 * 1, 8 * 5, 7 + 8 * 1, 7 + 8 * 5
+    };
+
+    private PatternEvalCheck() {
+    }
+
+    /**
+     * @return Cert si els dos valors de la posició coincideixen.
+     */
+    private static boolean comprova(Bitboard b, CellType me, ScanEval original) {
+        double esperat = original.heuristic(b);
+        double v = PatternEval.heuristic(b.getFitxes(me), b.getFitxes(me.opposite(me)));
+        if (Double.compare(v, esperat) == 0) return true;
+        System.err.printf("%016x %016x %s: PatternEval %s, original %s%n", b.getFitxes(CellType.PLAYER1),
+                b.getFitxes(CellType.PLAYER2), me, v, esperat);
+        return false;
+    }
+
+
+    /**
+     * @param args Nombre de partides (20000 per defecte) i llavor (1 per defecte).
+     */
+    public static void main(String[] args) {
+        int partides = args.length > 0 ? Integer.parseInt(args[0]) : PARTIDES;
+        long llavor = args.length > 1 ? Long.parseLong(args[1]) : LLAVOR;
+        SplittableRandom atzar = new SplittableRandom(llavor);
+        ScanEval negres = new ScanEval(CellType.PLAYER1);
+        ScanEval blanques = new ScanEval(CellType.PLAYER2);
+        long posicions = 0, errors = 0;
+        for (int sq : PECULIARS) {
+            for (CellType me : new CellType[]{CellType.PLAYER1, CellType.PLAYER2}) {
+                ScanEval original = me == CellType.PLAYER1 ? negres : blanques;
+                posicions += 2;
+                if (!comprova(new Bitboard(1L << sq, 0, me), me, original)) errors++;
+                if (!comprova(new Bitboard(0, 1L << sq, me), me, original)) errors++;
+            }
+        }
+        for (int p = 0; p < partides; p++) {
+            Bitboard b = new Bitboard(OpeningBookBuilder.INICI_JUGADOR, OpeningBookBuilder.INICI_RIVAL, CellType.PLAYER1);
+            while (true) {
+                posicions++;
+                if (!comprova(b, CellType.PLAYER1, negres)) errors++;
+                if (!comprova(b, CellType.PLAYER2, blanques)) errors++;
+                if (b.isGameOver()) break;
+                if (!b.currentPlayerCanMove()) {
+                    b.passa();
+                    continue;
+                }
+                int[] moves = b.getMoves();
+                b.movePiece(moves[atzar.nextInt(moves.length)]);
+            }
+        }
+        System.out.printf("%d partides, %d posicions, %d valors diferents%n", partides, posicions, errors);
+        if (errors > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,106 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Avaluació de PatternEval per lots amb instruccions SIMD (Vector API).
+ * Només la combinació dels comptadors (PatternEval.combina) és SIMD: la
+ * suma de les taules (PatternEval.patrons) és escalar.
+ *
+ * Les posicions es processen en blocs. Per a cada bloc primer se sumen les
+ * taules de patrons de cada posició (PatternEval.patrons) i després es
+ * desempaqueten els comptadors i es fan les operacions de
+ * PatternEval.combina per a diverses posicions alhora, que és la part
+ * cara: cinc divisions i les comparacions amb zero. Les operacions de
+ * coma flotant són les mateixes i en el mateix ordre que les de
+ * PatternEval, de manera que el resultat és idèntic bit a bit.
+ *
+ * Les taules no es llegeixen amb lectures disperses (gather) perquè
+ * calcular els índexs a part i llegir-les així és més lent que sumar-les
+ * directament.
+ *
+ * Només s'ha de carregar si el mòdul jdk.incubator.vector és present
+ * (vegeu BatchEval).
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+final class PatternEvalVector {
+
+    private static final VectorSpecies<Long> L = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+
+    /** Posicions de cada bloc, múltiple del nombre de lanes. */
+    private static final int BLOC = 256;
+
+    private PatternEvalVector() {
+    }
+
+
+    /**
+     * Avalua les posicions [desde, desde + n).
+     */
+    static void avalua(long[] meves, long[] enemic, double[] valors, int desde, int n) {
+        long[] sumes = new long[BLOC];
+        for (int inici = desde; inici < desde + n; inici += BLOC) {
+            int k = Math.min(BLOC, desde + n - inici);
+            for (int i = 0; i < k; i++) sumes[i] = PatternEval.patrons(meves[inici + i], enemic[inici + i]);
+            combina(sumes, valors, inici, k);
+        }
+    }
+
+    /**
+     * Fa PatternEval.combina de k sumes i escriu els valors a partir de desde.
+     */
+    private static void combina(long[] sumes, double[] valors, int desde, int k) {
+        DoubleVector zero = DoubleVector.zero(D);
+        int i = 0;
+        for (int limit = D.loopBound(k); i < limit; i += D.length()) {
+            LongVector v = LongVector.fromArray(L, sumes, i);
+
+            DoubleVector meEsquines = camp(v, PatternEval.ESQ_ME), enEsquines = camp(v, PatternEval.ESQ_EN);
+            DoubleVector suma = meEsquines.add(enEsquines);
+            DoubleVector esquines = zero.blend(
+                    meEsquines.sub(enEsquines).mul(100).div(suma), suma.compare(VectorOperators.NE, 0));
+
+            DoubleVector mePre = camp(v, PatternEval.PRE_ME), enPre = camp(v, PatternEval.PRE_EN);
+            suma = mePre.add(enPre);
+            DoubleVector preEsquines = zero.blend(
+                    enPre.sub(mePre).mul(100).div(suma), suma.compare(VectorOperators.NE, 0));
+
+            DoubleVector meParells = camp(v, PatternEval.PAR_ME), enParells = camp(v, PatternEval.PAR_EN);
+            DoubleVector dif = meParells.sub(enParells);
+            DoubleVector costatsParells = zero.blend(
+                    dif.div(meParells.add(enParells)), dif.compare(VectorOperators.NE, 0));
+
+            DoubleVector meCostats = camp(v, PatternEval.COS_ME), enCostats = camp(v, PatternEval.COS_EN);
+            dif = meCostats.sub(enCostats);
+            DoubleVector costats = zero.blend(
+                    dif.div(meCostats.add(enCostats)), dif.compare(VectorOperators.NE, 0));
+
+            DoubleVector meZona = camp(v, PatternEval.ZON_ME), enZona = camp(v, PatternEval.ZON_EN);
+            suma = enZona.add(meZona);
+            DoubleVector zonaPerill = zero.blend(
+                    enZona.sub(meZona).div(suma), suma.compare(VectorOperators.NE, 0));
+
+            // 10*esquines + 4*preEsquines + 4*costatsParells + 7*costats + 7*zonaPerill
+            esquines.mul(10)
+                    .add(preEsquines.mul(4))
+                    .add(costatsParells.mul(4))
+                    .add(costats.mul(7))
+                    .add(zonaPerill.mul(7))
+                    .intoArray(valors, desde + i);
+        }
+        for (; i < k; i++) valors[desde + i] = PatternEval.combina(sumes[i]);
+    }
+
+    private static DoubleVector camp(LongVector v, int desplacament) {
+        return (DoubleVector) v.lanewise(VectorOperators.LSHR, desplacament)
+                .and(0x3FL)
+                .convert(VectorOperators.L2D, 0);
+    }
+}
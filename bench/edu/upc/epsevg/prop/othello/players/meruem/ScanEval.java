@@ -0,0 +1,290 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+
+
+/**
+ * Implementació de referència de l'heurística original: les cinc funcions
+ * de recorregut (esquines, preEsquines, costatsParells, costats i
+ * zonaPerill) tal com eren a Search abans de PatternEval, sense cap canvi.
+ * Només serveix per comprovar que PatternEval dona els mateixos valors
+ * (PatternEvalCheck), peculiaritats incloses.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public final class ScanEval {
+
+    private final CellType me;
+
+
+    /**
+     * Constructora
+     *
+     * @param me Color del jugador des del qual s'avalua.
+     */
+    public ScanEval(CellType me) {
+        this.me = me;
+    }
+
+
+    /**
+     * Funció que s'encarrega de retornar el valor final de les heurístiques
+     * balancejades ja que cadascuna ha de tenir un valor.
+     * 
+     * @param s Tauler i estat actual de joc.
+     * @return retorna un valor que representa l'estat del joc en termes númerics
+     */
+    public double heuristic(Bitboard s)
+    {
+        return 10*esquines(s) + 4*preEsquines(s) + 
+               4*costatsParells(s)+ 7*costats(s) + 7*zonaPerill(s);
+    }
+    
+    
+    /**
+     * Funció que calcula la puntuació que te un tauler segons 
+     * el numero de fitxes que hi ha a la "zona de perill" del tauler
+     * depenent del color d'aquestes.
+     * 
+     * @param s Tauler i estat actual de joc.
+     * @return Retorna el valor de la zona de perill (positiu en cas
+     *          de guanyar a favor de Meruem, negatiu en cas contrari)
+     */
+    private double zonaPerill(Bitboard s) {
+        double meves = 0;
+        double enemy = 0;
+        double ValZonaPerill = 0;
+        int size = s.getSize()-1;
+        for (int i  = 1; i < size-1; i++) {
+            if (s.getPos(1,i) == me)
+                meves++;
+            else if (s.getPos(1,i) == me.opposite(me))
+                enemy++;
+            
+            if (s.getPos(size-1,i) == me)
+                meves++;
+            else if (s.getPos(size-1,i) == me.opposite(me))
+                enemy++;
+            
+            if (s.getPos(i,1) == me)
+                meves++;
+            else if (s.getPos(i,1) == me.opposite(me))
+                enemy++;
+            
+            if (s.getPos(i,size-1) == me)
+                meves++;
+            else if (s.getPos(i,size-1) == me.opposite(me))
+                enemy++;
+        }
+        
+        if (meves + enemy != 0)
+            ValZonaPerill = (enemy - meves)/(enemy + meves);
+        return ValZonaPerill;
+    }
+    
+    
+    /**
+     * Funció que s'encarrega de calcular la dominància que hi ha
+     * sobre els costats
+     * 
+     * @param s Tauler i estat actual de joc.
+     * @return Retorna un valor positiu en cas de que nosaltres dominem els costats
+     *          i un valor negatiu en cas contrari
+     */
+    private double costats(Bitboard s)
+    {
+        
+        double costatsMe = 0;
+        double costatsEn = 0;
+        double ValCostats = 0;
+        int size = s.getSize()-1;
+        //bucle que recorre els costats y compara a parells
+        for (int i = 2; i < size-2; i++) {
+            //costats verticals
+                if (s.getPos(i,0) == me){
+                    costatsMe+=1;
+                }
+                else if (s.getPos(i,0) == me.opposite(me)) {
+                    costatsEn+=1;
+                }
+                if (s.getPos(i,size) == me){
+                    costatsMe+=1;
+                }
+                else if (s.getPos(i,size) == me.opposite(me)) {
+                    costatsEn+=1;
+                }
+                
+            //Costats horitzontals
+                if (s.getPos(0,i) == me){
+                    costatsMe+=1;
+                }
+                else if (s.getPos(0,i) == me.opposite(me)) {
+                    costatsEn+=1;
+                }
+                if (s.getPos(size,i) == me){
+                    costatsMe+=1;
+                }
+                else if (s.getPos(size,i) == me.opposite(me)) {
+                    costatsEn+=1;
+                }
+        }
+        if (costatsMe - costatsEn != 0)
+            ValCostats = (costatsMe - costatsEn)/(costatsMe + costatsEn);
+        return ValCostats;
+    }
+    
+    
+    /**
+     * Funció que s'encarrega de calcular la dominància dels costats
+     * pero en aquesta es mira que els costats siguin simetrics.
+     * 
+     * @param s Tauler i estat actual de joc.
+     * @return Retorna un valor positiu en cas de tenir major dominància.
+     *  
+     * 
+     */
+    private double costatsParells(Bitboard s) 
+    {
+        double costatsMe = 0;
+        double costatsEn = 0;
+        double ValCostats = 0;
+        int size = s.getSize()-1;
+        //bucle que recorre els costats y compara a parells
+        for (int i = 1; i < size-1; i++) {
+            //costats verticals
+                if ((s.getPos(i,0) == me) && (s.getPos(i,size) == me)){
+                    costatsMe+=2;
+                }
+                else if ((s.getPos(i,0) == me.opposite(me)) &&
+                        (s.getPos(i,size) == me.opposite(me))) {
+                    costatsEn+=2;
+                }
+                
+            //Costats horitzontals
+                if ((s.getPos(0,i) == me) && (s.getPos(size,i) == me)){
+                    costatsMe+=2;
+                }
+                else if ((s.getPos(0,i) == me.opposite(me)) &&
+                        (s.getPos(size,i) == me.opposite(me))) {
+                    costatsEn+=2;
+                }
+                
+        }
+        if (costatsMe - costatsEn != 0)
+            ValCostats = (costatsMe - costatsEn)/(costatsMe + costatsEn);
+        return ValCostats;
+    }
+    
+    
+    /**
+    * Funció que calcula el número de cantonades sobre les que es
+    * té control, i sobre les que té control l'enemic.
+    * 
+    * @param s Tauler i estat actual de joc.
+    * @return Retorna un número positiu en cas de tenir major control
+    *          de les esquines que l'enemic, negatiu en cas contrari.
+    */
+    private double esquines(Bitboard s) 
+    {
+        double meEsquines = 0;
+        double enEsquines = 0;
+        if (s.getPos(0,0) == me)
+            meEsquines+=1;
+        else if (s.getPos(0,0) == me.opposite(me))
+            enEsquines+=1;
+        if (s.getPos(0,s.getSize()-1) == me)
+            meEsquines+=1;
+        else if (s.getPos(0,s.getSize()-1) == me.opposite(me))
+            enEsquines+=1;
+        if (s.getPos(s.getSize()-1,0) == me)
+            meEsquines+=1;
+        else if (s.getPos(s.getSize()-1,0) == me.opposite(me))
+            enEsquines+=1;
+        if (s.getPos(s.getSize()-1, s.getSize()-1) == me)
+            meEsquines+=1;
+        else if (s.getPos(s.getSize()-1, s.getSize()-1) == me.opposite(me))
+            enEsquines+=1;
+        
+        double valEsquines = 0;
+        if (meEsquines + enEsquines != 0)
+            valEsquines = 100 * (meEsquines - enEsquines)/(meEsquines + enEsquines);
+        
+        return valEsquines;
+    }
+    
+    
+    /**
+     * Funció que s'encarrega de calcular el valor de les fitxes
+     * que es troben a les posicions que embolten les esquines
+     * 
+     * @param s Tauler i estat actual de joc.
+     * @return Retorna un número positiu si no estem en aquestes posicions
+     *          negatiu altrament.
+     */
+    private double preEsquines(Bitboard s)
+    {
+        int gran = s.getSize()-2;
+        int gran2 = gran+1;
+        double mePreEsquines = 0;
+        double enPreEsquines = 0;
+        if (s.getPos(0,1) == me)
+            mePreEsquines++;
+        else if (s.getPos(0,1) == me.opposite(me))
+            enPreEsquines++;
+        if (s.getPos(1, 0) == me)
+            mePreEsquines++;
+        else if (s.getPos(1,0) == me.opposite(me))
+            enPreEsquines++;
+        if (s.getPos(1, 1) == me)
+            mePreEsquines++;
+        else if (s.getPos(1,1) == me.opposite(me))
+            enPreEsquines++;
+        
+        if (s.getPos(0, gran) == me)
+            mePreEsquines++;
+        else if (s.getPos(0,gran) == me.opposite(me))
+            enPreEsquines++;
+        if (s.getPos(gran2, 1) == me)
+            mePreEsquines++;
+        else if (s.getPos(gran2,1) == me.opposite(me))
+            enPreEsquines++;
+        if (s.getPos(gran, 1) == me)
+            mePreEsquines++;
+        else if (s.getPos(gran,1) == me.opposite(me))
+            enPreEsquines++;
+        
+        if (s.getPos(0,gran) == me)
+            mePreEsquines++;
+        else if (s.getPos(0,gran) == me.opposite(me))
+            enPreEsquines++;
+        if (s.getPos(1, gran2) == me)
+            mePreEsquines++;
+        else if (s.getPos(1,gran2) == me.opposite(me))
+            enPreEsquines++;
+        if (s.getPos(1, gran) == me)
+            mePreEsquines++;
+        else if (s.getPos(1,gran) == me.opposite(me))
+            enPreEsquines++;
+        
+        if (s.getPos(gran2,gran) == me)
+            mePreEsquines++;
+        else if (s.getPos(gran2,gran) == me.opposite(me))
+            enPreEsquines++;
+        if (s.getPos(gran, gran2) == me)
+            mePreEsquines++;
+        else if (s.getPos(gran,gran2) == me.opposite(me))
+            enPreEsquines++;
+        if (s.getPos(gran, gran) == me)
+            mePreEsquines++;
+        else if (s.getPos(gran,gran) == me.opposite(me))
+            enPreEsquines++;
+        
+        double valPreEsquines = 0;
+        
+        if (mePreEsquines + enPreEsquines != 0)
+            valPreEsquines = 100 * (enPreEsquines - mePreEsquines)/(mePreEsquines + enPreEsquines);
+        
+        return valPreEsquines;
+    }
+}
@@ -0,0 +1,127 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Cerca completa dels dos jugadors a profunditat fixa: temps fins a
+ * arribar a la profunditat i nodes per segon.
+ *
+ * Cada invocació fa servir un jugador nou, de manera que la taula de
+ * transposicions comença buida i no aprofita la invocació anterior.
+ *
+ * El paràmetre algorisme permet comparar el minimax original amb PVS: a
+ * la mateixa profunditat, el temps de nodesPerSegon i de playerID baixa
+ * en la mateixa proporció que els nodes explorats.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({BenchPositions.OBERTURA, BenchPositions.MIGJOC, BenchPositions.FINAL})
+    public String fase;
+
+    /** Profunditat de la cerca (N). */
+    @Param({"6"})
+    public int profunditat;
+
+    @Param({"MINIMAX", "PVS"})
+    public Search.Algorisme algorisme;
+
+    private Bitboard[] taulers;
+    private TranspositionTable tt;
+    private Search search;
+    private PlayerID id;
+    private PlayerMinMax minmax;
+
+    /**
+     * Nodes explorats, que JMH mostra com a nodes per segon.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Nodes {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        taulers = BenchPositions.taulers(fase);
+        tt = new TranspositionTable(PlayerID.MIDA_TT, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+        search = new Search(tt);
+        search.setAlgorisme(algorisme);
+    }
+
+    @Setup(Level.Invocation)
+    public void buida() {
+        tt.clear();
+        // l'última iteració de PlayerID és deepth = max_deepth - 1, més la
+        // jugada de l'arrel: N plies en total, igual que PlayerMinMax
+        id = new PlayerID("bench", profunditat, false);
+        id.setAlgorisme(algorisme);
+        minmax = new PlayerMinMax("bench", profunditat);
+    }
+
+    /**
+     * Nucli de cerca de PlayerID fins a la profunditat N en totes les
+     * posicions de la fase. El comptador nodes dona els nodes per segon.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long nodesPerSegon(Nodes n) {
+        long r = 0;
+        for (Bitboard b : taulers) {
+            search.preparaCerca();
+            r += search.cerca(b, profunditat);
+            n.nodes += search.getNodes();
+        }
+        return r;
+    }
+
+    /**
+     * Temps de PlayerID fins a la profunditat N en totes les posicions de
+     * la fase.
+     */
+    @Benchmark
+    public void playerID(Blackhole bh) {
+        for (Bitboard b : taulers) {
+            bh.consume(id.move(b));
+        }
+    }
+
+    /**
+     * Temps de PlayerMinMax a profunditat N en totes les posicions de la fase.
+     */
+    @Benchmark
+    public void playerMinMax(Blackhole bh) {
+        for (Bitboard b : taulers) {
+            bh.consume(minmax.move(b));
+        }
+    }
+}
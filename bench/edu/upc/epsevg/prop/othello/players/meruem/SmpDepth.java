@@ -0,0 +1,79 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.Move;
+import java.util.Locale;
+
+
+/**
+ * Mesura què guanya Lazy SMP: la profunditat acabada i els nodes per segon
+ * de PlayerID amb un temps fix per moviment, amb un sol fil i amb ajudants.
+ * Es cerquen les posicions d'obertura i de mig joc de BenchPositions amb
+ * PVS, sense llibre ni final exacte i amb la taula buida a cada posició.
+ *
+ * Abans de mesurar es fa una passada sencera per escalfar la JVM. El
+ * resultat només té sentit amb tants nuclis lliures com fils: amb menys,
+ * els ajudants prenen temps al fil principal.
+ *
+ * Ús: ant smp, o java SmpDepth [ms] [fils...]
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public final class SmpDepth {
+
+    /** Mil·lisegons per moviment per defecte. */
+    private static final long MS = 500;
+
+    private SmpDepth() {
+    }
+
+    /**
+     * Cerca totes les posicions amb el jugador.
+     *
+     * @return {suma de profunditats, nodes, nanosegons, posicions}.
+     */
+    private static long[] cerca(PlayerID j) {
+        long prof = 0, nodes = 0, n = 0;
+        long inici = System.nanoTime();
+        for (String fase : new String[]{BenchPositions.OBERTURA, BenchPositions.MIGJOC}) {
+            for (Bitboard b : BenchPositions.taulers(fase)) {
+                // setAlgorisme buida la taula de transposicions
+                j.setAlgorisme(Search.Algorisme.PVS);
+                Move m = j.move(b);
+                prof += m.getMaxDepthReached();
+                nodes += m.getNumerOfNodesExplored();
+                n++;
+            }
+        }
+        return new long[]{prof, nodes, System.nanoTime() - inici, n};
+    }
+
+
+    /**
+     * @param args Mil·lisegons per moviment (500 per defecte) i els nombres
+     *          de fils que es comparen (per defecte 1 i els processadors
+     *          de la màquina, o 2 si només n'hi ha un).
+     */
+    public static void main(String[] args) {
+        long ms = args.length > 0 ? Long.parseLong(args[0]) : MS;
+        int[] fils;
+        if (args.length > 1) {
+            fils = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) fils[i - 1] = Integer.parseInt(args[i]);
+        } else {
+            fils = new int[]{1, Math.max(2, Runtime.getRuntime().availableProcessors())};
+        }
+        System.out.printf(Locale.ROOT, "%d processadors, %d ms per moviment%n",
+                Runtime.getRuntime().availableProcessors(), ms);
+        for (int f : fils) {
+            PlayerID j = new PlayerID("smp" + f, 0, true, PlayerID.MIDA_TT,
+                    TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED, f);
+            j.setTempsPerMoviment(ms);
+            j.setBuidesFinal(0);
+            cerca(j);
+            long[] r = cerca(j);
+            System.out.printf(Locale.ROOT, "%2d fils: profunditat mitjana %5.2f, %8.0f knodes/s (%d posicions)%n",
+                    f, (double) r[0] / r[3], r[1] / (r[2] / 1e6), r[3]);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Cost del hash canònic per simetria comparat amb el de Zobrist calculat
+ * de zero: la simetria canònica sola i el hash sencer.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SymmetryBenchmark {
+
+    @Param({BenchPositions.OBERTURA, BenchPositions.MIGJOC, BenchPositions.FINAL})
+    public String fase;
+
+    private long[][] posicions;
+
+    @Setup
+    public void setup() {
+        posicions = BenchPositions.fitxes(fase);
+    }
+
+    /**
+     * Simetria que porta a la forma canònica.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public int canonica() {
+        int r = 0;
+        for (long[] p : posicions) {
+            r += Symmetry.canonica(p[0], p[1]);
+        }
+        return r;
+    }
+
+    /**
+     * Hash canònic, el que fan servir les taules amb canonica.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public long hashCanonic() {
+        long r = 0;
+        for (long[] p : posicions) {
+            r ^= Symmetry.hash(p[0], p[1], CellType.PLAYER1);
+        }
+        return r;
+    }
+
+    /**
+     * Hash de Zobrist calculat de zero. La cerca l'actualitza de manera
+     * incremental a cada moviment, que és molt més barat.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public long hashZobrist() {
+        long r = 0;
+        for (long[] p : posicions) {
+            r ^= Zobrist.hash(p[0], p[1], CellType.PLAYER1);
+        }
+        return r;
+    }
+}
@@ -0,0 +1,124 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Resultat d'una anàlisi multi-PV (Search.analitza): els millors moviments
+ * de l'arrel ordenats de millor a pitjor, cadascun amb el seu valor exacte
+ * i la variant principal, a la profunditat de l'última iteració acabada.
+ *
+ * Els valors són els de PVS, des del punt de vista del jugador que mou a
+ * l'arrel: l'heurística arrodonida a enter o, si la partida s'acaba dins
+ * de la variant, la diferència de fitxes per Search.VICTORIA.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public final class Analysis {
+
+    /**
+     * Un moviment de l'arrel amb el seu valor i la seva variant principal.
+     */
+    public static final class Linia {
+        private final int moviment;
+        private final double valor;
+        private final int[] variant;
+
+        Linia(int moviment, double valor, int[] variant) {
+            this.moviment = moviment;
+            this.valor = valor;
+            this.variant = variant;
+        }
+
+        /**
+         * @return Casella del moviment de l'arrel.
+         */
+        public int getMoviment() {
+            return moviment;
+        }
+
+        /**
+         * @return Valor exacte del moviment per al jugador que mou.
+         */
+        public double getValor() {
+            return valor;
+        }
+
+        /**
+         * @return Variant principal: les caselles jugades a partir de
+         *          l'arrel, començant pel moviment de l'arrel. Les
+         *          passades no hi són, es dedueixen com a GameRecord.
+         */
+        public int[] getVariant() {
+            return variant.clone();
+        }
+
+        /**
+         * @return La línia en text, per exemple "+12 d3 c5 f6".
+         */
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder(String.format(Locale.ROOT, "%+.0f", valor));
+            for (int sq : variant) s.append(' ').append(GameRecord.casella(sq));
+            return s.toString();
+        }
+    }
+
+    private final int profunditat;
+    private final long nodes;
+    private final long temps;
+    private final List<Linia> linies;
+
+
+    Analysis(int profunditat, long nodes, long temps, Linia[] linies) {
+        this.profunditat = profunditat;
+        this.nodes = nodes;
+        this.temps = temps;
+        this.linies = Collections.unmodifiableList(Arrays.asList(linies));
+    }
+
+
+    /**
+     * @return Profunditat de la iteració de què són les línies, 0 si no
+     *          se n'ha acabat cap.
+     */
+    public int getProfunditat() {
+        return profunditat;
+    }
+
+    /**
+     * @return Nodes explorats per tota l'anàlisi.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return Durada de l'anàlisi en nanosegons.
+     */
+    public long getTemps() {
+        return temps;
+    }
+
+    /**
+     * @return Les línies, de millor a pitjor. Buida si el jugador no pot
+     *          moure o no s'ha acabat cap iteració.
+     */
+    public List<Linia> getLinies() {
+        return linies;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(String.format(Locale.ROOT, "profunditat %d, %d nodes, %.1f ms",
+                profunditat, nodes, temps / 1e6));
+        for (int i = 0; i < linies.size(); i++) {
+            s.append(System.lineSeparator()).append(i + 1).append(". ").append(linies.get(i));
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,355 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import edu.upc.epsevg.prop.othello.GameStatus;
+import java.awt.Point;
+
+
+/**
+ * Representació del tauler amb dos enters de 64 bits (un per cada jugador)
+ * i el color del jugador que ha de moure.
+ *
+ * La casella (x, y) es guarda al bit x + 8*y, de manera que els moviments
+ * i les fitxes girades es calculen amb desplaçaments de bits en lloc de
+ * recórrer el tauler casella a casella com fa GameStatus.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class Bitboard {
+
+    /** Mida del costat del tauler. */
+    public static final int SIZE = 8;
+
+    /** Totes les caselles excepte la columna x = 0. */
+    static final long NOT_A = 0xfefefefefefefefeL;
+
+    /** Totes les caselles excepte la columna x = 7. */
+    static final long NOT_H = 0x7f7f7f7f7f7f7f7fL;
+
+    /** Desplaçaments de les 8 direccions del tauler. */
+    private static final int[] DIRECCIONS = {1, -1, 8, -8, 9, 7, -7, -9};
+
+    /** Màscara que evita que cada direcció doni la volta pel costat del tauler. */
+    private static final long[] MASCARES = {NOT_A, NOT_H, -1L, -1L, NOT_A, NOT_H, NOT_A, NOT_H};
+
+    private long jugador;
+    private long rival;
+    private CellType torn;
+    private long hash;
+
+
+    /**
+     * Constructora a partir d'un GameStatus. Només s'hauria de fer servir a l'arrel.
+     *
+     * @param s Tauler i estat actual de joc.
+     */
+    public Bitboard(GameStatus s) {
+        this.torn = s.getCurrentPlayer();
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                CellType c = s.getPos(x, y);
+                if (c == torn) jugador |= bit(x, y);
+                else if (c == torn.opposite(torn)) rival |= bit(x, y);
+            }
+        }
+        this.hash = Zobrist.hash(jugador, rival, torn);
+    }
+
+    /**
+     * Constructora de còpia.
+     *
+     * @param b Tauler a copiar.
+     */
+    public Bitboard(Bitboard b) {
+        this.jugador = b.jugador;
+        this.rival = b.rival;
+        this.torn = b.torn;
+        this.hash = b.hash;
+    }
+
+    /**
+     * Constructora a partir de les fitxes de cada jugador.
+     *
+     * @param jugador Fitxes del jugador que ha de moure.
+     * @param rival Fitxes del rival.
+     * @param torn Color del jugador que ha de moure.
+     */
+    public Bitboard(long jugador, long rival, CellType torn) {
+        this.jugador = jugador;
+        this.rival = rival;
+        this.torn = torn;
+        this.hash = Zobrist.hash(jugador, rival, torn);
+    }
+
+
+    /**
+     * Calcula totes les caselles on pot tirar el jugador p.
+     *
+     * @param p Fitxes del jugador que mou.
+     * @param o Fitxes del rival.
+     * @return Màscara amb els moviments legals.
+     */
+    public static long moviments(long p, long o) {
+        long buides = ~(p | o);
+        long m = o & 0x7e7e7e7e7e7e7e7eL;
+        long t, r;
+
+        // horitzontals
+        t = m & (p << 1); t |= m & (t << 1); t |= m & (t << 1);
+        t |= m & (t << 1); t |= m & (t << 1); t |= m & (t << 1);
+        r = t << 1;
+        t = m & (p >>> 1); t |= m & (t >>> 1); t |= m & (t >>> 1);
+        t |= m & (t >>> 1); t |= m & (t >>> 1); t |= m & (t >>> 1);
+        r |= t >>> 1;
+
+        // verticals
+        t = o & (p << 8); t |= o & (t << 8); t |= o & (t << 8);
+        t |= o & (t << 8); t |= o & (t << 8); t |= o & (t << 8);
+        r |= t << 8;
+        t = o & (p >>> 8); t |= o & (t >>> 8); t |= o & (t >>> 8);
+        t |= o & (t >>> 8); t |= o & (t >>> 8); t |= o & (t >>> 8);
+        r |= t >>> 8;
+
+        // diagonals
+        t = m & (p << 9); t |= m & (t << 9); t |= m & (t << 9);
+        t |= m & (t << 9); t |= m & (t << 9); t |= m & (t << 9);
+        r |= t << 9;
+        t = m & (p >>> 9); t |= m & (t >>> 9); t |= m & (t >>> 9);
+        t |= m & (t >>> 9); t |= m & (t >>> 9); t |= m & (t >>> 9);
+        r |= t >>> 9;
+        t = m & (p << 7); t |= m & (t << 7); t |= m & (t << 7);
+        t |= m & (t << 7); t |= m & (t << 7); t |= m & (t << 7);
+        r |= t << 7;
+        t = m & (p >>> 7); t |= m & (t >>> 7); t |= m & (t >>> 7);
+        t |= m & (t >>> 7); t |= m & (t >>> 7); t |= m & (t >>> 7);
+        r |= t >>> 7;
+
+        return r & buides;
+    }
+
+    /**
+     * Calcula les fitxes que gira el jugador p si tira a la casella sq.
+     *
+     * @param p Fitxes del jugador que mou.
+     * @param o Fitxes del rival.
+     * @param sq Casella on es tira.
+     * @return Màscara amb les fitxes del rival que passen a ser de p.
+     */
+    public static long girs(long p, long o, int sq) {
+        long girades = 0;
+        long inici = 1L << sq;
+        for (int d = 0; d < 8; d++) {
+            long linia = 0;
+            long c = desplaca(inici, d);
+            while ((c & o) != 0) {
+                linia |= c;
+                c = desplaca(c, d);
+            }
+            if ((c & p) != 0) girades |= linia;
+        }
+        return girades;
+    }
+
+    /**
+     * Desplaça totes les fitxes una casella en la direcció d.
+     *
+     * @param b Màscara de caselles.
+     * @param d Índex de la direcció a DIRECCIONS.
+     * @return Màscara desplaçada, sense caselles que donin la volta al tauler.
+     */
+    private static long desplaca(long b, int d) {
+        int n = DIRECCIONS[d];
+        if (n > 0) return (b << n) & MASCARES[d];
+        else return (b >>> -n) & MASCARES[d];
+    }
+
+
+    /**
+     * @return Màscara amb els moviments legals del jugador que ha de moure.
+     */
+    public long getMoviments() {
+        return moviments(jugador, rival);
+    }
+
+    /**
+     * @return Llista de caselles on pot tirar el jugador que ha de moure.
+     */
+    public int[] getMoves() {
+        long m = getMoviments();
+        int[] moves = new int[Long.bitCount(m)];
+        for (int i = 0; m != 0; i++, m &= m - 1) {
+            moves[i] = Long.numberOfTrailingZeros(m);
+        }
+        return moves;
+    }
+
+    /**
+     * Tira a la casella sq amb el jugador que ha de moure i passa el torn.
+     * No comprova que el moviment sigui legal.
+     *
+     * @param sq Casella on es tira.
+     */
+    public void movePiece(int sq) {
+        fesMoviment(sq);
+    }
+
+    /**
+     * Tira a la casella sq igual que movePiece, però retorna les fitxes
+     * girades perquè el moviment es pugui desfer amb desfesMoviment.
+     *
+     * @param sq Casella on es tira.
+     * @return Màscara amb les fitxes girades.
+     */
+    public long fesMoviment(int sq) {
+        long girades = girs(jugador, rival, sq);
+        long nou = jugador | girades | (1L << sq);
+        hash ^= Zobrist.CLAUS[Zobrist.index(torn)][sq] ^ Zobrist.TORN;
+        for (long g = girades; g != 0; g &= g - 1) {
+            hash ^= Zobrist.GIR[Long.numberOfTrailingZeros(g)];
+        }
+        jugador = rival & ~girades;
+        rival = nou;
+        torn = torn.opposite(torn);
+        return girades;
+    }
+
+    /**
+     * Desfà l'últim moviment fet amb fesMoviment.
+     *
+     * @param sq Casella on es va tirar.
+     * @param girades Fitxes que va girar el moviment.
+     * @param hashAnterior Hash de la posició abans del moviment.
+     */
+    public void desfesMoviment(int sq, long girades, long hashAnterior) {
+        long mogut = rival & ~(girades | (1L << sq));
+        rival = jugador | girades;
+        jugador = mogut;
+        torn = torn.opposite(torn);
+        hash = hashAnterior;
+    }
+
+    /**
+     * Passa el torn sense tirar.
+     */
+    public void passa() {
+        long aux = jugador;
+        jugador = rival;
+        rival = aux;
+        torn = torn.opposite(torn);
+        hash ^= Zobrist.TORN;
+    }
+
+    /**
+     * @return Cert si el jugador que ha de moure té algun moviment.
+     */
+    public boolean currentPlayerCanMove() {
+        return getMoviments() != 0;
+    }
+
+    /**
+     * @return Cert si cap dels dos jugadors pot moure.
+     */
+    public boolean isGameOver() {
+        return moviments(jugador, rival) == 0 && moviments(rival, jugador) == 0;
+    }
+
+    /**
+     * @return El color amb més fitxes, o EMPTY en cas d'empat.
+     */
+    public CellType getWinner() {
+        int p = Long.bitCount(jugador);
+        int o = Long.bitCount(rival);
+        if (p > o) return torn;
+        if (o > p) return torn.opposite(torn);
+        return CellType.EMPTY;
+    }
+
+    /**
+     * @param x Columna.
+     * @param y Fila.
+     * @return El contingut de la casella (x, y).
+     */
+    public CellType getPos(int x, int y) {
+        long b = bit(x, y);
+        if ((jugador & b) != 0) return torn;
+        if ((rival & b) != 0) return torn.opposite(torn);
+        return CellType.EMPTY;
+    }
+
+    /**
+     * @param color Color del jugador.
+     * @return Màscara amb les fitxes del color indicat.
+     */
+    public long getFitxes(CellType color) {
+        return color == torn ? jugador : rival;
+    }
+
+    /**
+     * @return Fitxes del jugador que ha de moure.
+     */
+    public long getJugador() {
+        return jugador;
+    }
+
+    /**
+     * @return Fitxes del rival del jugador que ha de moure.
+     */
+    public long getRival() {
+        return rival;
+    }
+
+    /**
+     * @return Color del jugador que ha de moure.
+     */
+    public CellType getCurrentPlayer() {
+        return torn;
+    }
+
+    /**
+     * @return Hash de Zobrist de la posició.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * @return Mida del costat del tauler.
+     */
+    public int getSize() {
+        return SIZE;
+    }
+
+    /**
+     * @return Nombre de caselles buides.
+     */
+    public int getBuides() {
+        return 64 - Long.bitCount(jugador | rival);
+    }
+
+
+    /**
+     * @param x Columna.
+     * @param y Fila.
+     * @return Màscara amb només la casella (x, y).
+     */
+    public static long bit(int x, int y) {
+        return 1L << (x + SIZE * y);
+    }
+
+    /**
+     * @param sq Casella del bitboard.
+     * @return El Point equivalent per al GameStatus.
+     */
+    public static Point toPoint(int sq) {
+        return new Point(sq % SIZE, sq / SIZE);
+    }
+
+    /**
+     * @param p Casella del GameStatus.
+     * @return La casella equivalent del bitboard.
+     */
+    public static int toSquare(Point p) {
+        return p.x + SIZE * p.y;
+    }
+}
@@ -0,0 +1,425 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.Move;
+import edu.upc.epsevg.prop.othello.SearchType;
+
+
+/**
+ * Resolució exacta dels finals de partida.
+ *
+ * Quan queden poques caselles buides es pot cercar fins al final de la
+ * partida i conèixer el resultat exacte (diferència de fitxes) en lloc
+ * d'estimar-lo amb l'heurística. La cerca és un negamax amb poda alfa-beta
+ * directament sobre els dos longs del tauler, sense cap objecte per node.
+ *
+ * Primer es resol si la posició és guanyada, perduda o taules amb una
+ * finestra mínima (-1, 1), que és molt més ràpid, i després es busca la
+ * diferència exacta amb la finestra que ja se sap que conté el resultat.
+ *
+ * Ordenació dels moviments:
+ * - amb moltes caselles buides, primer el que deixa menys moviments al
+ *   rival (fastest-first) i, a igualtat, els dels quadrants amb un nombre
+ *   senar de caselles buides (paritat); el moviment de la taula de
+ *   transposicions va sempre davant;
+ * - amb poques caselles buides ordenar costa més del que estalvia i només
+ *   es miren primer els quadrants senars.
+ *
+ * El resultat d'una partida acabada és la diferència de fitxes del jugador
+ * que mou menys les del rival, i les caselles buides se les queda qui guanya.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class EndgameSolver {
+
+    /** Nombre de caselles buides per defecte a partir del qual es resol el final. */
+    public static final int BUIDES_FINAL = 16;
+
+    /** Valor més gran que qualsevol resultat possible. */
+    private static final int INF = 65;
+
+    /** Per sota d'aquest nombre de buides només s'ordena per paritat. */
+    private static final int ORDENA_MIN = 7;
+
+    /** Per sota d'aquest nombre de buides no es fa servir la taula. */
+    private static final int TAULA_MIN = 10;
+
+    /** Cada quants nodes es mira el rellotge (ha de ser 2^k - 1). */
+    private static final long COMPROVA_TEMPS = 1023;
+
+    /** Els quatre quadrants de 4x4 del tauler. */
+    private static final long[] QUADRANTS = {
+        0x000000000F0F0F0FL, 0x00000000F0F0F0F0L,
+        0x0F0F0F0F00000000L, 0xF0F0F0F000000000L
+    };
+
+    private final TranspositionTable tt;
+    private final int[][] ordre = new int[MoveOrdering.MAX_PLY][64];
+    private final int[][] claus = new int[MoveOrdering.MAX_PLY][64];
+    private volatile boolean TIMEOUT;
+    private TimeManager temps;
+    private long n_nodes;
+    private boolean acabat;
+    private boolean guanyador;
+    private int millor;
+    private int valor;
+
+
+    /**
+     * Constructora
+     *
+     * @param mida_tt Nombre d'entrades de la taula de transposicions pròpia del final.
+     */
+    public EndgameSolver(int mida_tt) {
+        this.tt = new TranspositionTable(mida_tt, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+    }
+
+
+    /**
+     * Atura la resolució en curs. Es pot cridar des d'un altre fil.
+     */
+    public void timeout() {
+        this.TIMEOUT = true;
+    }
+
+    /**
+     * Deixa el solucionador a punt per començar. S'ha de cridar abans de
+     * resol perquè un timeout anterior no l'aturi.
+     */
+    public void preparaCerca() {
+        this.TIMEOUT = false;
+    }
+
+    /**
+     * @param temps Control del temps, o null perquè només s'aturi per
+     *          timeout. S'atura a TimeManager.superatFinal, de manera que
+     *          si no resol el final encara queda temps per a la cerca.
+     */
+    public void setTimeManager(TimeManager temps) {
+        this.temps = temps;
+    }
+
+
+    /**
+     * Resol la posició exactament.
+     *
+     * @param arrel Tauler i estat actual de joc, no es modifica.
+     * @return Cert si s'ha pogut resoldre abans que s'acabés el temps. En
+     *          aquest cas getValor i getMillorMoviment tenen el resultat.
+     */
+    public boolean resol(Bitboard arrel) {
+        return resol(arrel, true);
+    }
+
+    /**
+     * Resol només si la posició és guanyada, perduda o taules. Llavors
+     * getValor val 1, -1 o 0 i getMillorMoviment és un moviment que ho
+     * aconsegueix.
+     *
+     * @param arrel Tauler i estat actual de joc, no es modifica.
+     * @return Cert si s'ha pogut resoldre abans que s'acabés el temps.
+     */
+    public boolean resolGuanyador(Bitboard arrel) {
+        return resol(arrel, false);
+    }
+
+    private boolean resol(Bitboard arrel, boolean exacte) {
+        n_nodes = 0;
+        acabat = false;
+        guanyador = false;
+        millor = -1;
+        valor = 0;
+        tt.novaCerca();
+        long p = arrel.getJugador();
+        long o = arrel.getRival();
+        int buides = arrel.getBuides();
+
+        // guanyada, perduda o taules
+        int wld = arrel(p, o, -1, 1, buides);
+        if (TIMEOUT) return false;
+        guanyador = true;
+        valor = Integer.signum(wld);
+        int moviment = millor;
+        if (exacte && wld != 0) {
+            if (wld > 0) valor = arrel(p, o, 0, INF, buides);
+            else valor = arrel(p, o, -INF, 0, buides);
+            if (TIMEOUT) {
+                // ens quedem el resultat de la primera passada
+                millor = moviment;
+                valor = Integer.signum(wld);
+                return false;
+            }
+        }
+        acabat = true;
+        return true;
+    }
+
+    /**
+     * Decideix el moviment resolent el final. Si s'acaba el temps després
+     * de saber si la posició és guanyada però abans de tenir el resultat
+     * exacte, es juga el moviment que guanya (o empata).
+     *
+     * @param arrel Tauler i estat actual de joc, no es modifica.
+     * @return El moviment o null si no s'ha pogut resoldre a temps (i s'ha
+     *          de fer servir la cerca normal) o no es pot moure.
+     */
+    public Move move(Bitboard arrel) {
+        resol(arrel);
+        if (!guanyador || millor < 0) return null;
+        return new Move(Bitboard.toPoint(millor), n_nodes, arrel.getBuides(), SearchType.MINIMAX);
+    }
+
+
+    /**
+     * Cerca de l'arrel: igual que negamax però guarda el millor moviment.
+     */
+    private int arrel(long p, long o, int alpha, int beta, int buides) {
+        long moves = Bitboard.moviments(p, o);
+        if (moves == 0) {
+            millor = -1;
+            if (Bitboard.moviments(o, p) == 0) return resultat(p, o);
+            return -negamax(o, p, -beta, -alpha, buides, 0);
+        }
+        int n = ordena(p, o, moves, buides, 0, TranspositionTable.SENSE_MOVIMENT);
+        int[] llista = ordre[0];
+        int v = -INF;
+        millor = llista[0];
+        for (int i = 0; i < n && !TIMEOUT; i++) {
+            int sq = llista[i];
+            long g = Bitboard.girs(p, o, sq);
+            int w = -negamax(o & ~g, p | g | (1L << sq), -beta, -Math.max(alpha, v), buides - 1, 1);
+            if (w > v) {
+                v = w;
+                millor = sq;
+                if (v >= beta) break;
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Negamax amb poda alfa-beta fins al final de la partida.
+     *
+     * @param p Fitxes del jugador que mou.
+     * @param o Fitxes del rival.
+     * @param alpha Valor de alfa.
+     * @param beta Valor de beta.
+     * @param buides Nombre de caselles buides.
+     * @param ply Distància a l'arrel.
+     * @return Resultat de la partida per al jugador que mou (o una cota si
+     *          surt de la finestra).
+     */
+    private int negamax(long p, long o, int alpha, int beta, int buides, int ply) {
+        nouNode();
+        if (buides == 1) return ultima(p, o);
+        if (buides < ORDENA_MIN) return negamaxParitat(p, o, alpha, beta, buides);
+        long moves = Bitboard.moviments(p, o);
+        if (moves == 0) {
+            if (Bitboard.moviments(o, p) == 0) return resultat(p, o);
+            return -negamax(o, p, -beta, -alpha, buides, ply);
+        }
+        if (TIMEOUT) return 0;
+
+        int preferit = TranspositionTable.SENSE_MOVIMENT;
+        long hash = 0;
+        if (buides >= TAULA_MIN) {
+            hash = hash(p, o);
+            long entrada = tt.probe(hash);
+            if (entrada != TranspositionTable.BUIDA) {
+                preferit = TranspositionTable.moviment(entrada);
+                int v = (int) TranspositionTable.valor(entrada);
+                int cota = TranspositionTable.cota(entrada);
+                if (cota == TranspositionTable.EXACTA) return v;
+                if (cota == TranspositionTable.INFERIOR && v >= beta) return v;
+                if (cota == TranspositionTable.SUPERIOR && v <= alpha) return v;
+            }
+        }
+
+        int alphaInicial = alpha;
+        int n = ordena(p, o, moves, buides, ply, preferit);
+        int[] llista = ordre[ply];
+        int v = -INF;
+        int millorSq = TranspositionTable.SENSE_MOVIMENT;
+        for (int i = 0; i < n; i++) {
+            int sq = llista[i];
+            long g = Bitboard.girs(p, o, sq);
+            int w = -negamax(o & ~g, p | g | (1L << sq), -beta, -alpha, buides - 1, ply + 1);
+            if (w > v) {
+                v = w;
+                millorSq = sq;
+                if (v > alpha) {
+                    if (v >= beta) break;
+                    alpha = v;
+                }
+            }
+        }
+        if (buides >= TAULA_MIN && !TIMEOUT) {
+            int cota;
+            if (v <= alphaInicial) cota = TranspositionTable.SUPERIOR;
+            else if (v >= beta) cota = TranspositionTable.INFERIOR;
+            else cota = TranspositionTable.EXACTA;
+            tt.store(hash, buides, cota, v, millorSq);
+        }
+        return v;
+    }
+
+    /**
+     * Negamax per a les últimes caselles: només prova primer els moviments
+     * dels quadrants amb un nombre senar de caselles buides.
+     */
+    private int negamaxParitat(long p, long o, int alpha, int beta, int buides) {
+        long moves = Bitboard.moviments(p, o);
+        if (moves == 0) {
+            if (Bitboard.moviments(o, p) == 0) return resultat(p, o);
+            nouNode();
+            return -negamaxParitat(o, p, -beta, -alpha, buides);
+        }
+        long senars = senars(~(p | o));
+        int v = -INF;
+        // dues passades: primer els quadrants senars i després la resta
+        for (int k = 0; k < 2; k++) {
+            long m = k == 0 ? moves & senars : moves & ~senars;
+            for (; m != 0; m &= m - 1) {
+                int sq = Long.numberOfTrailingZeros(m);
+                long g = Bitboard.girs(p, o, sq);
+                int w = -negamaxFill(o & ~g, p | g | (1L << sq), -beta, -alpha, buides - 1);
+                if (w > v) {
+                    v = w;
+                    if (v > alpha) {
+                        if (v >= beta) return v;
+                        alpha = v;
+                    }
+                }
+            }
+        }
+        return v;
+    }
+
+    private int negamaxFill(long p, long o, int alpha, int beta, int buides) {
+        nouNode();
+        if (buides == 1) return ultima(p, o);
+        return negamaxParitat(p, o, alpha, beta, buides);
+    }
+
+    /**
+     * Resultat quan només queda una casella buida, sense generar moviments.
+     */
+    private static int ultima(long p, long o) {
+        int sq = Long.numberOfTrailingZeros(~(p | o));
+        long g = Bitboard.girs(p, o, sq);
+        if (g != 0) return 2 * (Long.bitCount(p | g) + 1) - 64;
+        g = Bitboard.girs(o, p, sq);
+        if (g != 0) return 64 - 2 * (Long.bitCount(o | g) + 1);
+        // ningú pot tirar: la casella buida és per a qui guanya
+        int d = Long.bitCount(p) - Long.bitCount(o);
+        return d > 0 ? d + 1 : d - 1;
+    }
+
+    /**
+     * @return Resultat d'una partida acabada per al jugador de les fitxes p.
+     */
+    private static int resultat(long p, long o) {
+        int np = Long.bitCount(p);
+        int no = Long.bitCount(o);
+        int buides = 64 - np - no;
+        if (np > no) return np - no + buides;
+        if (np < no) return np - no - buides;
+        return 0;
+    }
+
+    /**
+     * Ordena els moviments d'un node: el preferit primer i la resta segons
+     * la mobilitat que deixen al rival i la paritat del quadrant.
+     *
+     * @return Nombre de moviments, que queden a ordre[ply].
+     */
+    private int ordena(long p, long o, long moves, int buides, int ply, int preferit) {
+        int[] llista = ordre[ply];
+        int[] c = claus[ply];
+        long senars = senars(~(p | o));
+        int n = 0;
+        for (; moves != 0; moves &= moves - 1) {
+            int sq = Long.numberOfTrailingZeros(moves);
+            long bit = 1L << sq;
+            int clau;
+            if (sq == preferit) {
+                clau = -1;
+            } else {
+                long g = Bitboard.girs(p, o, sq);
+                clau = 2 * Long.bitCount(Bitboard.moviments(o & ~g, p | g | bit));
+                if ((senars & bit) == 0) clau++;
+            }
+            // inserció ordenada de menor a major
+            int i = n++;
+            while (i > 0 && c[i - 1] > clau) {
+                c[i] = c[i - 1];
+                llista[i] = llista[i - 1];
+                i--;
+            }
+            c[i] = clau;
+            llista[i] = sq;
+        }
+        return n;
+    }
+
+    /**
+     * @param buides Màscara de caselles buides.
+     * @return Unió dels quadrants amb un nombre senar de caselles buides.
+     */
+    private static long senars(long buides) {
+        long r = 0;
+        for (long q : QUADRANTS) {
+            if ((Long.bitCount(buides & q) & 1) != 0) r |= q;
+        }
+        return r;
+    }
+
+    /**
+     * Hash de la posició per a la taula pròpia. No cal el color del torn
+     * perquè el resultat només depèn de les fitxes de qui mou i del rival.
+     */
+    private static long hash(long p, long o) {
+        long h = p * 0x9E3779B97F4A7C15L ^ Long.rotateLeft(o * 0xC2B2AE3D27D4EB4FL, 31);
+        return h ^ (h >>> 29);
+    }
+
+    private void nouNode() {
+        n_nodes += 1;
+        if ((n_nodes & COMPROVA_TEMPS) == 0 && temps != null && temps.superatFinal()) {
+            TIMEOUT = true;
+        }
+    }
+
+
+    /**
+     * @return Cert si l'última crida a resol ha acabat.
+     */
+    public boolean haAcabat() {
+        return acabat;
+    }
+
+    /**
+     * @return Diferència de fitxes final per al jugador que mou amb joc
+     *          perfecte (o 1, 0, -1 després de resolGuanyador).
+     */
+    public int getValor() {
+        return valor;
+    }
+
+    /**
+     * @return Casella del millor moviment, o -1 si el jugador no pot moure.
+     *          Si la resolució s'ha aturat abans d'acabar la primera
+     *          passada, és el millor moviment d'aquesta passada fins
+     *          llavors (o el primer en l'ordre del solucionador).
+     */
+    public int getMillorMoviment() {
+        return millor;
+    }
+
+    /**
+     * @return Nombre de nodes explorats a l'última resolució.
+     */
+    public long getNodes() {
+        return n_nodes;
+    }
+}
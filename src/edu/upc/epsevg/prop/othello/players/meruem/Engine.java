@@ -0,0 +1,144 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+
+/**
+ * Motor compartit per jugar moltes partides alhora en una sola JVM.
+ *
+ * El motor només té el que no canvia d'una partida a una altra i es pot
+ * llegir des de diversos fils: l'avaluació, el llibre d'obertures, la
+ * calibració de ProbCut i, opcionalment, una memòria cau de l'heurística
+ * compartida (que ja és segura entre fils). Tot el que una cerca modifica
+ * (taules de transposicions, ordenació, rellotge, estadístiques) és de
+ * cada partida, a un GameContext creat amb nouContext.
+ *
+ * Les cerques es fan en un nombre fix de fils. Cada partida només pot
+ * tenir un moviment pendent i la cua és FIFO, de manera que els fils es
+ * reparteixen per torns entre les partides que esperen, i el temps per
+ * moviment de cada context limita quant ocupa un fil.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public final class Engine implements AutoCloseable {
+
+    /** Entrades per defecte de la taula de transposicions de cada partida (1 MB). */
+    public static final int MIDA_TT = 1 << 16;
+
+    /** Entrades de la taula del final de cada partida (256 KB). */
+    public static final int MIDA_TT_FINAL = 1 << 14;
+
+    private final Evaluator avaluacio;
+    private final OpeningBook llibre;
+    private final ProbCut probcut;
+    private final EvalCache cache;
+    private final ThreadPoolExecutor fils;
+
+
+    /**
+     * Constructora
+     *
+     * @param avaluacio Avaluació de les fulles (per exemple
+     *          TrainedEval.perDefecte() o Evaluator.PATRONS).
+     * @param llibre Llibre d'obertures, o null.
+     * @param probcut Calibració de ProbCut per a les partides amb PVS
+     *          (ProbCut.perDefecte(avaluacio)), o null.
+     * @param cache Memòria cau de l'heurística compartida per totes les
+     *          partides, o null.
+     * @param nFils Nombre de fils que fan les cerques.
+     */
+    public Engine(Evaluator avaluacio, OpeningBook llibre, ProbCut probcut, EvalCache cache, int nFils) {
+        if (nFils < 1) throw new IllegalArgumentException("Nombre de fils incorrecte: " + nFils);
+        this.avaluacio = avaluacio;
+        this.llibre = llibre;
+        this.probcut = probcut;
+        this.cache = cache;
+        AtomicInteger n = new AtomicInteger();
+        this.fils = new ThreadPoolExecutor(nFils, nFils, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "motor-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    /**
+     * @return Un context per a una partida nova, amb la taula de
+     *          transposicions de mida MIDA_TT.
+     */
+    public GameContext nouContext() {
+        return nouContext(MIDA_TT);
+    }
+
+    /**
+     * @param midaTt Entrades de la taula de transposicions de la partida.
+     * @return Un context per a una partida nova.
+     */
+    public GameContext nouContext(int midaTt) {
+        return new GameContext(this, midaTt);
+    }
+
+    /**
+     * Posa una cerca a la cua dels fils del motor.
+     */
+    <T> CompletableFuture<T> executa(Supplier<T> tasca) {
+        return CompletableFuture.supplyAsync(tasca, fils);
+    }
+
+    /**
+     * @return Avaluació de les fulles.
+     */
+    public Evaluator getAvaluacio() {
+        return avaluacio;
+    }
+
+    /**
+     * @return Llibre d'obertures, o null.
+     */
+    public OpeningBook getLlibre() {
+        return llibre;
+    }
+
+    /**
+     * @return Calibració de ProbCut, o null.
+     */
+    public ProbCut getProbCut() {
+        return probcut;
+    }
+
+    /**
+     * @return Memòria cau compartida, o null.
+     */
+    public EvalCache getEvalCache() {
+        return cache;
+    }
+
+    /**
+     * @return Nombre de fils de cerca.
+     */
+    public int getFils() {
+        return fils.getMaximumPoolSize();
+    }
+
+    /**
+     * @return Moviments a la cua que encara no ha començat cap fil.
+     */
+    public int getPendents() {
+        return fils.getQueue().size();
+    }
+
+    /**
+     * Deixa d'acceptar moviments. Els que ja són a la cua s'acaben.
+     */
+    @Override
+    public void close() {
+        fils.shutdown();
+    }
+}
@@ -0,0 +1,168 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Memòria cau de l'heurística de les fulles, de mida fixa.
+ *
+ * Cada entrada és un sol long: la part alta són 32 bits de la clau de
+ * Zobrist i la part baixa el valor (com a float) des del punt de vista del
+ * jugador que mou. Com que el hash inclou el torn, una mateixa posició
+ * amb torns diferents són dues entrades. Una posició nova sempre
+ * reemplaça la que hi havia.
+ *
+ * La memòria cau es pot compartir entre diversos fils sense bloquejos. Per
+ * si una escriptura d'un long no fos atòmica, la part alta es guarda fent
+ * la xor de la clau amb una barreja del valor: si les dues meitats són de
+ * posicions diferents la comprovació falla i es torna a calcular.
+ *
+ * Opcionalment la clau pot ser el hash canònic (Symmetry.hash), de manera
+ * que les 8 posicions simètriques comparteixen entrada. Llavors el valor
+ * es calcula sempre sobre la forma canònica, i una posició té el mateix
+ * valor amb memòria cau o sense encara que l'avaluació no sigui
+ * exactament simètrica.
+ *
+ * Ocupa 8 bytes per entrada.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class EvalCache {
+
+    /** Nombre d'entrades per defecte (2 MB). */
+    public static final int MIDA = 1 << 18;
+
+    private final long[] entrades;
+    private final int mascara;
+    private final boolean canonica;
+    private final LongAdder consultes = new LongAdder();
+    private final LongAdder encerts = new LongAdder();
+
+
+    /**
+     * Constructora
+     *
+     * @param mida Nombre d'entrades, s'arrodoneix a la potència de dos inferior.
+     */
+    public EvalCache(int mida) {
+        this(mida, false);
+    }
+
+    /**
+     * Constructora
+     *
+     * @param mida Nombre d'entrades, s'arrodoneix a la potència de dos inferior.
+     * @param canonica Cert per fer servir el hash canònic com a clau.
+     */
+    public EvalCache(int mida, boolean canonica) {
+        int n = Integer.highestOneBit(Math.max(mida, 1));
+        this.entrades = new long[n];
+        this.mascara = n - 1;
+        this.canonica = canonica;
+    }
+
+
+    /**
+     * Valor de l'heurística per al jugador que mou, de la memòria cau si
+     * hi és o calculat amb PatternEval si no.
+     *
+     * @param s Tauler i estat actual de joc.
+     * @return Valor de PatternEval.heuristic(jugador, rival).
+     */
+    public double avalua(Bitboard s) {
+        return avalua(s, Evaluator.PATRONS);
+    }
+
+    /**
+     * Valor de l'heurística per al jugador que mou, de la memòria cau si
+     * hi és o calculat amb l'avaluació donada si no. Les entrades no
+     * recorden amb quina avaluació es van calcular: una memòria cau només
+     * s'ha de fer servir amb una avaluació (o buidar-la en canviar-la).
+     *
+     * @param s Tauler i estat actual de joc.
+     * @param avaluacio Avaluació de les posicions que no hi són.
+     * @return Valor de avaluacio.heuristic(jugador, rival).
+     */
+    public double avalua(Bitboard s, Evaluator avaluacio) {
+        long jugador = s.getJugador();
+        long rival = s.getRival();
+        long hash;
+        if (canonica) {
+            int sim = Symmetry.canonica(jugador, rival);
+            hash = Symmetry.hash(jugador, rival, s.getCurrentPlayer(), sim);
+            jugador = Symmetry.transforma(jugador, sim);
+            rival = Symmetry.transforma(rival, sim);
+        } else {
+            hash = s.getHash();
+        }
+        int i = (int) hash & mascara;
+        int clau = (int) (hash >>> 32);
+        long e = entrades[i];
+        int bits = (int) e;
+        consultes.increment();
+        if (((int) (e >>> 32) ^ barreja(bits)) == clau) {
+            encerts.increment();
+            return Float.intBitsToFloat(bits);
+        }
+        double v = avaluacio.heuristic(jugador, rival);
+        bits = Float.floatToRawIntBits((float) v);
+        entrades[i] = ((long) (clau ^ barreja(bits)) << 32) | (bits & 0xFFFFFFFFL);
+        return (float) v;
+    }
+
+    /**
+     * Barreja els bits del valor. No dona 0 per al valor 0, perquè una
+     * entrada buida no coincideixi amb les claus que tenen la part alta a 0.
+     */
+    private static int barreja(int bits) {
+        return (bits ^ 0x5BD1E995) * 0x9E3779B1;
+    }
+
+    /**
+     * @return Cert si les claus són el hash canònic i les posicions
+     *          s'avaluen en la forma canònica.
+     */
+    public boolean isCanonica() {
+        return canonica;
+    }
+
+    /**
+     * Buida la memòria cau i posa els comptadors a zero.
+     */
+    public void clear() {
+        Arrays.fill(entrades, 0L);
+        consultes.reset();
+        encerts.reset();
+    }
+
+    /**
+     * @return Nombre d'entrades.
+     */
+    public int mida() {
+        return entrades.length;
+    }
+
+    /**
+     * @return Consultes des de l'última vegada que es va buidar.
+     */
+    public long getConsultes() {
+        return consultes.sum();
+    }
+
+    /**
+     * @return Consultes que han trobat el valor a la memòria cau.
+     */
+    public long getEncerts() {
+        return encerts.sum();
+    }
+
+    /**
+     * @return Percentatge de consultes que han trobat el valor.
+     */
+    public double getPercentatgeEncerts() {
+        long c = consultes.sum();
+        return c == 0 ? 0 : 100.0 * encerts.sum() / c;
+    }
+}
@@ -0,0 +1,360 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Eina per entrenar els pesos de TrainedEval.
+ *
+ * Té dues parts:
+ *
+ * - genera: juga partides del programa contra ell mateix (primeres plies
+ *   i alguns moviments a l'atzar, i el final amb EndgameSolver) i escriu
+ *   cada posició amb el resultat final de la partida per al jugador que
+ *   mou. El fitxer és una capçalera (MAGIC) i registres de 20 bytes:
+ *   jugador (8), rival (8) i resultat en fitxes (float).
+ *
+ * - posicions: fa el mateix fitxer a partir de partides ja jugades (un
+ *   fitxer de GameRecordWriter, per exemple de Tournament), amb el
+ *   resultat de cada partida.
+ *
+ * - entrena: llegeix el fitxer en blocs sense carregar-lo sencer a
+ *   memòria i ajusta els pesos per mínims quadrats amb descens de
+ *   gradient estocàstic. Diversos fils actualitzen els mateixos pesos sense
+ *   bloquejos (com Hogwild): com que cada posició toca només 47 pesos, les
+ *   col·lisions són poc freqüents i no afecten la convergència. Un de cada
+ *   VALIDACIO blocs no s'entrena i serveix per mesurar l'error. Cada
+ *   època cada posició s'entrena amb una de les 8 simetries del tauler,
+ *   perquè els patrons llegits en un sentit i en l'altre aprenguin el
+ *   mateix valor.
+ *
+ * Ús: java EvalTrainer genera dades.bin partides [profunditat] [llavor]
+ *     java EvalTrainer posicions partides.mgr dades.bin
+ *     java EvalTrainer entrena dades.bin pesos.bin [epoques] [fils] [ritme]
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class EvalTrainer {
+
+    /** Identificador del fitxer de posicions ("MDT1"). */
+    public static final int MAGIC = 0x4D445431;
+
+    /** Caselles buides a partir de les quals les partides es juguen perfectes. */
+    public static final int BUIDES_EXACTE = 14;
+
+    /** Posicions per bloc de lectura. */
+    private static final int BLOC = 4096;
+
+    /** Un de cada VALIDACIO blocs es fa servir per validar. */
+    private static final int VALIDACIO = 20;
+
+    private static final int PLIES_ATZAR = 8;
+    private static final double ATZAR = 0.1;
+
+    private final float[] pesos = new float[TrainedEval.FASES * TrainedEval.MIDA];
+    private int epoques;
+
+
+    /**
+     * Genera posicions etiquetades.
+     *
+     * @param sortida On s'escriuen.
+     * @param partides Nombre de partides.
+     * @param profunditat Profunditat de la cerca que tria els moviments.
+     * @param llavor Llavor dels moviments a l'atzar.
+     * @return Nombre de posicions escrites.
+     * @throws IOException Si no es pot escriure.
+     */
+    public static long genera(OutputStream sortida, int partides, int profunditat, long llavor) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sortida));
+        out.writeInt(MAGIC);
+        SplittableRandom atzar = new SplittableRandom(llavor);
+        Search search = new Search(new TranspositionTable(1 << 20, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED));
+        search.setAlgorisme(Search.Algorisme.PVS);
+        EndgameSolver finals = new EndgameSolver(PlayerID.MIDA_TT_FINAL);
+        long n = 0;
+        List<long[]> posicions = new ArrayList<>();
+        for (int g = 0; g < partides; g++) {
+            Bitboard b = new Bitboard(OpeningBookBuilder.INICI_JUGADOR, OpeningBookBuilder.INICI_RIVAL, CellType.PLAYER1);
+            posicions.clear();
+            int ply = 0;
+            while (!b.isGameOver()) {
+                int[] moves = b.getMoves();
+                if (moves.length == 0) {
+                    b.passa();
+                    continue;
+                }
+                posicions.add(new long[]{b.getJugador(), b.getRival(), b.getCurrentPlayer() == CellType.PLAYER1 ? 1 : -1});
+                int sq;
+                if (ply < PLIES_ATZAR || (b.getBuides() > BUIDES_EXACTE && atzar.nextDouble() < ATZAR)) {
+                    sq = moves[atzar.nextInt(moves.length)];
+                } else if (b.getBuides() <= BUIDES_EXACTE) {
+                    finals.preparaCerca();
+                    finals.resol(b);
+                    sq = finals.getMillorMoviment();
+                } else {
+                    search.preparaCerca();
+                    sq = search.cerca(b, profunditat);
+                }
+                b.movePiece(sq);
+                ply++;
+            }
+            // resultat per a PLAYER1, les buides per al guanyador
+            int negres = Long.bitCount(b.getFitxes(CellType.PLAYER1));
+            int blanques = Long.bitCount(b.getFitxes(CellType.PLAYER2));
+            int buides = 64 - negres - blanques;
+            int resultat = negres - blanques;
+            if (resultat > 0) resultat += buides;
+            else if (resultat < 0) resultat -= buides;
+            for (long[] p : posicions) {
+                out.writeLong(p[0]);
+                out.writeLong(p[1]);
+                out.writeFloat(resultat * p[2]);
+            }
+            n += posicions.size();
+        }
+        out.flush();
+        return n;
+    }
+
+
+    /**
+     * Escriu les posicions de totes les partides d'un fitxer de partides,
+     * cadascuna amb el resultat de la seva partida.
+     *
+     * @param partides Fitxer de partides.
+     * @param sortida On s'escriuen.
+     * @return Nombre de posicions escrites.
+     * @throws IOException Si no es pot llegir o escriure.
+     * @throws IllegalArgumentException Si alguna partida té un moviment il·legal.
+     */
+    public static long posicions(GameRecordReader partides, OutputStream sortida) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sortida));
+        out.writeInt(MAGIC);
+        byte[] caselles = new byte[GameRecord.MAX_MOVIMENTS];
+        long n = 0;
+        while (partides.seguent()) {
+            int moviments = partides.copiaMoviments(caselles);
+            float resultat = partides.getResultat();
+            long p = OpeningBookBuilder.INICI_JUGADOR;
+            long o = OpeningBookBuilder.INICI_RIVAL;
+            boolean negres = true;
+            for (int i = 0; i < moviments; i++) {
+                int sq = caselles[i];
+                if (Bitboard.moviments(p, o) == 0) {
+                    long aux = p;
+                    p = o;
+                    o = aux;
+                    negres = !negres;
+                }
+                if ((Bitboard.moviments(p, o) & (1L << sq)) == 0) {
+                    throw new IllegalArgumentException("Moviment il·legal a la partida "
+                            + partides.getPartidesLlegides() + ": " + GameRecord.casella(sq));
+                }
+                out.writeLong(p);
+                out.writeLong(o);
+                out.writeFloat(negres ? resultat : -resultat);
+                long g = Bitboard.girs(p, o, sq);
+                long nou = p | g | (1L << sq);
+                p = o & ~g;
+                o = nou;
+                negres = !negres;
+            }
+            n += moviments;
+        }
+        out.flush();
+        return n;
+    }
+
+
+    /**
+     * Fa una passada per totes les posicions del fitxer.
+     *
+     * @param dades Fitxer generat per genera.
+     * @param fils Fils que entrenen alhora.
+     * @param ritme Ritme d'aprenentatge.
+     * @return Error quadràtic mitjà d'entrenament i de validació, en fitxes².
+     * @throws IOException Si no es pot llegir el fitxer.
+     * @throws InterruptedException Si s'interromp l'entrenament.
+     */
+    public double[] epoca(Path dades, int fils, float ritme) throws IOException, InterruptedException {
+        int simetria = epoques++;
+        BlockingQueue<float[]> cua = new ArrayBlockingQueue<>(2 * fils);
+        // cada bloc: n, validació, i després p (2 floats per long), o i resultat
+        float[] fi = new float[0];
+        DoubleAdder errEntrena = new DoubleAdder(), errValida = new DoubleAdder();
+        LongAdder nEntrena = new LongAdder(), nValida = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(fils);
+        try {
+            List<Future<?>> tasques = new ArrayList<>();
+            for (int i = 0; i < fils; i++) {
+                tasques.add(executor.submit(() -> {
+                    int[] idx = new int[TrainedEval.INSTANCIES + 1];
+                    for (float[] bloc = cua.take(); bloc != fi; bloc = cua.take()) {
+                        processa(bloc, idx, simetria, ritme, errEntrena, nEntrena, errValida, nValida);
+                    }
+                    return null;
+                }));
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dades), 1 << 16))) {
+                if (in.readInt() != MAGIC) throw new IOException("No és un fitxer de posicions");
+                boolean acabat = false;
+                for (int b = 0; !acabat; b++) {
+                    float[] bloc = new float[2 + BLOC * 5];
+                    int n = 0;
+                    try {
+                        for (; n < BLOC; n++) {
+                            long p = in.readLong();
+                            long o = in.readLong();
+                            float r = in.readFloat();
+                            int k = 2 + n * 5;
+                            bloc[k] = Float.intBitsToFloat((int) (p >>> 32));
+                            bloc[k + 1] = Float.intBitsToFloat((int) p);
+                            bloc[k + 2] = Float.intBitsToFloat((int) (o >>> 32));
+                            bloc[k + 3] = Float.intBitsToFloat((int) o);
+                            bloc[k + 4] = r;
+                        }
+                    } catch (EOFException e) {
+                        acabat = true;
+                    }
+                    bloc[0] = n;
+                    bloc[1] = b % VALIDACIO == VALIDACIO - 1 ? 1 : 0;
+                    if (n > 0) cua.put(bloc);
+                }
+            } finally {
+                for (int i = 0; i < fils; i++) cua.put(fi);
+            }
+            for (Future<?> t : tasques) {
+                try {
+                    t.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return new double[]{
+            errEntrena.sum() / Math.max(nEntrena.sum(), 1),
+            errValida.sum() / Math.max(nValida.sum(), 1)
+        };
+    }
+
+    /**
+     * Entrena (o només valida) les posicions d'un bloc.
+     */
+    private void processa(float[] bloc, int[] idx, int simetria, float ritme,
+                          DoubleAdder errEntrena, LongAdder nEntrena,
+                          DoubleAdder errValida, LongAdder nValida) {
+        int n = (int) bloc[0];
+        boolean valida = bloc[1] != 0;
+        double suma = 0;
+        for (int i = 0; i < n; i++) {
+            int k = 2 + i * 5;
+            long p = ((long) Float.floatToRawIntBits(bloc[k]) << 32) | (Float.floatToRawIntBits(bloc[k + 1]) & 0xFFFFFFFFL);
+            long o = ((long) Float.floatToRawIntBits(bloc[k + 2]) << 32) | (Float.floatToRawIntBits(bloc[k + 3]) & 0xFFFFFFFFL);
+            if (!valida) {
+                int t = (simetria + i) & 7;
+                p = Symmetry.transforma(p, t);
+                o = Symmetry.transforma(o, t);
+            }
+            int base = TrainedEval.fase(64 - Long.bitCount(p | o)) * TrainedEval.MIDA;
+            TrainedEval.indexs(p, o, idx);
+            float v = 0;
+            for (int j : idx) v += pesos[base + j];
+            float err = bloc[k + 4] - v;
+            suma += err * err;
+            if (!valida) {
+                float d = ritme * err;
+                for (int j : idx) pesos[base + j] += d;
+            }
+        }
+        if (valida) {
+            errValida.add(suma);
+            nValida.add(n);
+        } else {
+            errEntrena.add(suma);
+            nEntrena.add(n);
+        }
+    }
+
+    /**
+     * @return L'avaluació amb els pesos entrenats fins ara.
+     */
+    public TrainedEval avaluacio() {
+        TrainedEval e = new TrainedEval();
+        e.setPesos(pesos);
+        return e;
+    }
+
+
+    /**
+     * Genera posicions o entrena els pesos.
+     *
+     * @param args Vegeu la documentació de la classe.
+     * @throws IOException Si no es pot llegir o escriure algun fitxer.
+     * @throws InterruptedException Si s'interromp l'entrenament.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 3 && args[0].equals("genera")) {
+            int partides = Integer.parseInt(args[2]);
+            int profunditat = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+            long llavor = args.length > 4 ? Long.parseLong(args[4]) : 1;
+            long n;
+            try (OutputStream out = Files.newOutputStream(Paths.get(args[1]))) {
+                n = genera(out, partides, profunditat, llavor);
+            }
+            System.out.println(partides + " partides, " + n + " posicions a " + args[1]);
+        } else if (args.length >= 3 && args[0].equals("posicions")) {
+            long n;
+            try (GameRecordReader in = new GameRecordReader(Paths.get(args[1]));
+                 OutputStream out = Files.newOutputStream(Paths.get(args[2]))) {
+                n = posicions(in, out);
+            }
+            System.out.println(n + " posicions a " + args[2]);
+        } else if (args.length >= 3 && args[0].equals("entrena")) {
+            int epoques = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            int fils = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+            float ritme = args.length > 5 ? Float.parseFloat(args[5]) : 0.002f;
+            EvalTrainer entrenador = new EvalTrainer();
+            for (int e = 0; e < epoques; e++) {
+                long inici = System.nanoTime();
+                double[] err = entrenador.epoca(Paths.get(args[1]), fils, ritme);
+                System.out.printf(Locale.ROOT, "època %d: error entrenament %.2f, validació %.2f (fitxes²), %.1f s%n",
+                        e + 1, err[0], err[1], (System.nanoTime() - inici) / 1e9);
+                ritme *= 0.8f;
+            }
+            try (OutputStream out = Files.newOutputStream(Paths.get(args[2]))) {
+                entrenador.avaluacio().escriu(out);
+            }
+        } else {
+            System.err.println("Ús: EvalTrainer genera dades.bin partides [profunditat] [llavor]");
+            System.err.println("    EvalTrainer posicions partides.mgr dades.bin");
+            System.err.println("    EvalTrainer entrena dades.bin pesos.bin [epoques] [fils] [ritme]");
+            System.exit(1);
+        }
+    }
+}
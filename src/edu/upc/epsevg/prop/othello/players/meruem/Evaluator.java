@@ -0,0 +1,29 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+
+/**
+ * Funció d'avaluació de les fulles de la cerca.
+ *
+ * El valor és des del punt de vista del jugador de les fitxes meves, que
+ * és el que ha de moure. La cerca el canvia de signe quan cal, de manera
+ * que l'avaluació no ha de ser necessàriament antisimètrica.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+@FunctionalInterface
+public interface Evaluator {
+
+    /** L'heurística original de cinc termes (PatternEval). */
+    Evaluator PATRONS = PatternEval::heuristic;
+
+    /** PatternEval més mobilitat, frontera i estabilitat (FeatureEval). */
+    Evaluator AMPLIADA = FeatureEval::heuristic;
+
+    /**
+     * @param meves Fitxes del jugador que mou.
+     * @param enemic Fitxes del rival.
+     * @return Valor del tauler per al jugador que mou.
+     */
+    double heuristic(long meves, long enemic);
+}
@@ -0,0 +1,159 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+
+/**
+ * Termes de mobilitat, frontera i estabilitat calculats directament sobre
+ * els bitboards, i l'heurística de PatternEval ampliada amb aquests termes.
+ *
+ * Cap dels termes recorre el tauler casella a casella: la mobilitat és el
+ * popcount de Bitboard.moviments, la frontera (fitxes amb alguna casella
+ * buida al costat, la mobilitat potencial del rival) és una dilatació de
+ * les caselles buides amb vuit desplaçaments, i l'estabilitat fa servir
+ * omplerts de Kogge-Stone per trobar les línies plenes. Una fitxa és
+ * estable si en cadascuna de les quatre direccions la línia és plena, o
+ * bé al costat té la vora o una fitxa seva estable; se'n troben més
+ * repetint el pas fins que no n'hi ha cap de nova (normalment un parell
+ * de vegades). És una cota inferior: totes les que troba són estables
+ * però potser no les troba totes.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public final class FeatureEval {
+
+    // columnes on es pot desplaçar cap a x + k (COL_k) i cap a x - k (COL_Mk)
+    private static final long COL_1 = 0x7f7f7f7f7f7f7f7fL;
+    private static final long COL_2 = 0x3f3f3f3f3f3f3f3fL;
+    private static final long COL_4 = 0x0f0f0f0f0f0f0f0fL;
+    private static final long COL_M1 = 0xfefefefefefefefeL;
+    private static final long COL_M2 = 0xfcfcfcfcfcfcfcfcL;
+    private static final long COL_M4 = 0xf0f0f0f0f0f0f0f0L;
+
+    // vores del tauler
+    private static final long VORA_X = 0x8181818181818181L;
+    private static final long VORA_Y = 0xff000000000000ffL;
+    private static final long VORA = VORA_X | VORA_Y;
+
+    // pesos de cada terme respecte de PatternEval, d'una regressió lineal
+    // sobre posicions etiquetades d'EvalTrainer
+    static final double PES_MOBILITAT = 20;
+    static final double PES_FRONTERA = 7;
+    static final double PES_ESTABILITAT = 10;
+
+    private FeatureEval() {
+    }
+
+
+    /**
+     * @param meves Fitxes del jugador que mou.
+     * @param enemic Fitxes del rival.
+     * @return Nombre de moviments legals de meves.
+     */
+    public static int mobilitat(long meves, long enemic) {
+        return Long.bitCount(Bitboard.moviments(meves, enemic));
+    }
+
+    /**
+     * @param b Màscara de caselles.
+     * @return Caselles veïnes de b en alguna de les vuit direccions.
+     */
+    static long veins(long b) {
+        long e = (b << 1) & COL_M1;
+        long w = (b >>> 1) & COL_1;
+        long h = b | e | w;
+        return (h | (h << 8) | (h >>> 8)) & ~b;
+    }
+
+    /**
+     * @param fitxes Fitxes d'un jugador.
+     * @param buides Caselles buides.
+     * @return Nombre de fitxes amb alguna casella buida al costat.
+     */
+    public static int frontera(long fitxes, long buides) {
+        return Long.bitCount(fitxes & veins(buides));
+    }
+
+    /**
+     * Estén b en la direcció d (desplaçament a l'esquerra si d &gt; 0), amb
+     * les màscares de columnes des d'on es pot avançar 1, 2 i 4 caselles.
+     */
+    private static long estenEsquerra(long b, int d, long m1, long m2, long m4) {
+        b |= (b & m1) << d;
+        b |= (b & m2) << (2 * d);
+        b |= (b & m4) << (4 * d);
+        return b;
+    }
+
+    private static long estenDreta(long b, int d, long m1, long m2, long m4) {
+        b |= (b & m1) >>> d;
+        b |= (b & m2) >>> (2 * d);
+        b |= (b & m4) >>> (4 * d);
+        return b;
+    }
+
+    /**
+     * Fitxes estables de meves (cota inferior).
+     *
+     * @param meves Fitxes del jugador.
+     * @param enemic Fitxes del rival.
+     * @return Màscara de fitxes de meves que ja no es poden girar.
+     */
+    public static long estables(long meves, long enemic) {
+        long buides = ~(meves | enemic);
+
+        // línies plenes de cada direcció: les que no arriba cap casella buida
+        long h = estenEsquerra(buides, 1, COL_1, COL_2, COL_4) | estenDreta(buides, 1, COL_M1, COL_M2, COL_M4);
+        long pleH = ~h;
+        long v = buides | (buides << 8) | (buides >>> 8);
+        v |= (v << 16) | (v >>> 16);
+        v |= (v << 32) | (v >>> 32);
+        long pleV = ~v;
+        long d9 = estenEsquerra(buides, 9, COL_1, COL_2, COL_4) | estenDreta(buides, 9, COL_M1, COL_M2, COL_M4);
+        long pleD9 = ~d9;
+        long d7 = estenEsquerra(buides, 7, COL_M1, COL_M2, COL_M4) | estenDreta(buides, 7, COL_1, COL_2, COL_4);
+        long pleD7 = ~d7;
+
+        long fixH = pleH | VORA_X;
+        long fixV = pleV | VORA_Y;
+        long fixD9 = pleD9 | VORA;
+        long fixD7 = pleD7 | VORA;
+        long estables = meves & fixH & fixV & fixD9 & fixD7;
+        long abans = 0;
+        while (estables != abans) {
+            abans = estables;
+            long eh = ((estables << 1) & COL_M1) | ((estables >>> 1) & COL_1);
+            long ev = (estables << 8) | (estables >>> 8);
+            long e9 = ((estables << 9) & COL_M1) | ((estables >>> 9) & COL_1);
+            long e7 = ((estables << 7) & COL_1) | ((estables >>> 7) & COL_M1);
+            estables |= meves & (fixH | eh) & (fixV | ev) & (fixD9 | e9) & (fixD7 | e7);
+        }
+        return estables;
+    }
+
+    /**
+     * Diferència relativa entre dos comptadors, de -100 a 100, com les
+     * heurístiques de PatternEval.
+     */
+    private static double relatiu(int meu, int seu) {
+        if (meu + seu == 0) return 0;
+        return 100.0 * (meu - seu) / (meu + seu);
+    }
+
+    /**
+     * Valor de PatternEval més els termes de mobilitat, frontera i
+     * estabilitat.
+     *
+     * @param meves Fitxes del jugador que mou.
+     * @param enemic Fitxes del rival.
+     * @return Valor del tauler.
+     */
+    public static double heuristic(long meves, long enemic) {
+        long buides = ~(meves | enemic);
+        double mobilitat = relatiu(mobilitat(meves, enemic), mobilitat(enemic, meves));
+        double frontera = relatiu(frontera(enemic, buides), frontera(meves, buides));
+        double estabilitat = relatiu(Long.bitCount(estables(meves, enemic)),
+                                     Long.bitCount(estables(enemic, meves)));
+        return PatternEval.heuristic(meves, enemic) + PES_MOBILITAT * mobilitat
+               + PES_FRONTERA * frontera + PES_ESTABILITAT * estabilitat;
+    }
+}
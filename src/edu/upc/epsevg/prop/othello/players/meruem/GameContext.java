@@ -0,0 +1,189 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.Move;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+
+/**
+ * L'estat de cerca d'una partida d'un Engine: taules de transposicions,
+ * cerca, solucionador de finals i rellotge. Decideix els moviments amb el
+ * mateix MoveDecider que PlayerID (llibre, final exacte o cerca), però
+ * sense fils propis: cada moviment es cerca en un dels fils del motor.
+ *
+ * Un context és d'una sola partida i només pot tenir un moviment (o una
+ * anàlisi) pendent alhora. Entre partides es pot reaprofitar amb
+ * novaPartida. El temps per moviment es compta des que es demana el
+ * moviment, no des que un fil el comença a cercar: l'espera a la cua del
+ * motor forma part del pressupost.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class GameContext {
+
+    private final Engine engine;
+    private final TranspositionTable tt;
+    private final Search search;
+    private final EndgameSolver finals;
+    private final TimeManager temps;
+    private final MoveDecider decisio;
+    private final AtomicBoolean pendent = new AtomicBoolean();
+    private Search.Algorisme algorisme = Search.Algorisme.MINIMAX;
+    private int maxProfunditat = 100;
+    private int buidesFinal = EndgameSolver.BUIDES_FINAL;
+    private SearchStats darreres;
+
+
+    /**
+     * Constructora
+     *
+     * @param engine Motor de la partida.
+     * @param midaTt Entrades de la taula de transposicions.
+     */
+    GameContext(Engine engine, int midaTt) {
+        this.engine = engine;
+        this.tt = new TranspositionTable(midaTt, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+        this.temps = new TimeManager(0);
+        this.search = new Search(tt);
+        this.search.setTimeManager(temps);
+        this.search.setEvaluator(engine.getAvaluacio());
+        this.search.setEvalCache(engine.getEvalCache());
+        this.finals = new EndgameSolver(Engine.MIDA_TT_FINAL);
+        this.finals.setTimeManager(temps);
+        this.decisio = new MoveDecider(tt, search, finals, temps);
+    }
+
+
+    /**
+     * @param algorisme Algorisme de cerca. Amb PVS es fa servir el ProbCut
+     *          del motor, si en té.
+     */
+    public void setAlgorisme(Search.Algorisme algorisme) {
+        comprovaLliure();
+        this.algorisme = algorisme;
+        search.setAlgorisme(algorisme);
+        search.setProbCut(algorisme == Search.Algorisme.PVS ? engine.getProbCut() : null);
+        tt.clear();
+    }
+
+    /**
+     * @param prof Profunditat màxima de la cerca, 0 per no limitar-la.
+     */
+    public void setProfunditat(int prof) {
+        comprovaLliure();
+        this.maxProfunditat = prof == 0 ? 100 : prof;
+    }
+
+    /**
+     * @param ms Mil·lisegons per moviment, 0 per no limitar el temps.
+     */
+    public void setTempsPerMoviment(long ms) {
+        comprovaLliure();
+        temps.setPressupost(ms);
+    }
+
+    /**
+     * @param buides Caselles buides a partir de les quals es resol el
+     *          final exactament, 0 per no resoldre'l mai.
+     */
+    public void setBuidesFinal(int buides) {
+        comprovaLliure();
+        this.buidesFinal = buides;
+    }
+
+    /**
+     * Prepara el context per a una altra partida: buida les taules.
+     */
+    public void novaPartida() {
+        comprovaLliure();
+        tt.clear();
+        decisio.setColor(null);
+    }
+
+    private void comprovaLliure() {
+        if (pendent.get()) throw new IllegalStateException("La partida té un moviment pendent");
+    }
+
+
+    /**
+     * Demana el moviment per a una posició. La cerca es fa en un fil del
+     * motor quan li toca el torn.
+     *
+     * @param arrel Tauler i estat actual de joc, no es modifica.
+     * @return El moviment, quan s'acabi la cerca.
+     * @throws IllegalStateException Si la partida ja té un moviment pendent.
+     */
+    public CompletableFuture<Move> move(Bitboard arrel) {
+        long demanat = System.nanoTime();
+        Bitboard copia = new Bitboard(arrel);
+        return encua(() -> decideix(copia, demanat));
+    }
+
+    /**
+     * Demana una anàlisi multi-PV d'una posició (vegeu Search.analitza),
+     * amb el temps per moviment i la profunditat màxima del context. No
+     * es fa servir el llibre ni el solucionador de finals. Cal que
+     * l'algorisme sigui PVS. Si el motor té ProbCut es buida la taula de
+     * transposicions, perquè les entrades de les cerques amb ProbCut no
+     * són exactes.
+     *
+     * @param arrel Tauler i estat actual de joc, no es modifica.
+     * @param k Nombre de moviments que es volen.
+     * @param maxNodes Nodes màxims de l'anàlisi, 0 sense límit.
+     * @return L'anàlisi, quan s'acabi la cerca.
+     * @throws IllegalStateException Si l'algorisme no és PVS o la
+     *          partida ja té un moviment pendent.
+     */
+    public CompletableFuture<Analysis> analitza(Bitboard arrel, int k, long maxNodes) {
+        if (algorisme != Search.Algorisme.PVS) throw new IllegalStateException("L'anàlisi multi-PV necessita PVS");
+        long demanat = System.nanoTime();
+        Bitboard copia = new Bitboard(arrel);
+        return encua(() -> {
+            if (engine.getProbCut() != null) tt.clear();
+            tt.novaCerca();
+            temps.inicia(demanat);
+            search.preparaCerca();
+            Analysis a = search.analitza(copia, k, maxProfunditat, maxNodes);
+            darreres = search.getEstadistiques();
+            return a;
+        });
+    }
+
+    /**
+     * Posa una cerca de la partida a la cua del motor, si no n'hi ha cap
+     * de pendent.
+     */
+    private <T> CompletableFuture<T> encua(Supplier<T> cerca) {
+        if (!pendent.compareAndSet(false, true)) {
+            throw new IllegalStateException("La partida té un moviment pendent");
+        }
+        return engine.executa(() -> {
+            try {
+                return cerca.get();
+            } finally {
+                pendent.set(false);
+            }
+        });
+    }
+
+    /**
+     * Decideix el moviment amb el llibre, el final exacte o la cerca, com
+     * PlayerID però amb un sol fil.
+     */
+    private Move decideix(Bitboard arrel, long demanat) {
+        Move m = decisio.decideix(arrel, demanat, engine.getLlibre(), buidesFinal, maxProfunditat, null);
+        darreres = decisio.getEstadistiques();
+        return m;
+    }
+
+    /**
+     * @return Estadístiques de l'últim moviment, o null si encara no n'hi
+     *          ha cap. Només s'han de consultar quan no hi ha cap
+     *          moviment pendent.
+     */
+    public SearchStats getEstadistiques() {
+        return darreres;
+    }
+}
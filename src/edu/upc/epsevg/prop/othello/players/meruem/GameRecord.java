@@ -0,0 +1,253 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import edu.upc.epsevg.prop.othello.Move;
+import java.util.Arrays;
+
+
+/**
+ * Una partida des de la posició inicial: la seqüència de caselles on s'ha
+ * tirat (un byte per moviment), el resultat i una etiqueta lliure.
+ *
+ * Les passades no es guarden, es dedueixen quan el jugador no pot moure,
+ * com al format de text de OpeningBookBuilder ("f5d6c3..."). El resultat
+ * és la diferència de fitxes per a PLAYER1 al final, amb les caselles
+ * buides per al guanyador. L'etiqueta és per a qui escriu les partides
+ * (per exemple, quina configuració portava les negres).
+ *
+ * Els fitxers de partides els escriu GameRecordWriter i els llegeix
+ * GameRecordReader.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class GameRecord {
+
+    /** Moviments màxims d'una partida. */
+    public static final int MAX_MOVIMENTS = 60;
+
+    private final byte[] moviments = new byte[MAX_MOVIMENTS];
+    private int n;
+    private int resultat;
+    private int etiqueta;
+
+
+    /**
+     * Constructora d'una partida sense moviments.
+     */
+    public GameRecord() {
+    }
+
+    /**
+     * Constructora
+     *
+     * @param caselles Caselles dels moviments, en ordre.
+     * @param n Nombre de moviments.
+     * @param resultat Diferència de fitxes final per a PLAYER1.
+     * @param etiqueta Etiqueta de la partida (de 0 a 65535).
+     */
+    public GameRecord(byte[] caselles, int n, int resultat, int etiqueta) {
+        if (n > MAX_MOVIMENTS) throw new IllegalArgumentException("Massa moviments: " + n);
+        System.arraycopy(caselles, 0, moviments, 0, n);
+        this.n = n;
+        setResultat(resultat);
+        setEtiqueta(etiqueta);
+    }
+
+    /**
+     * Constructora d'una còpia.
+     *
+     * @param r Partida a copiar.
+     */
+    public GameRecord(GameRecord r) {
+        this(r.moviments, r.n, r.resultat, r.etiqueta);
+    }
+
+    /**
+     * Llegeix una partida en format de text, per exemple "f5d6c3d3".
+     * Només es comprova el format de les caselles, no que siguin legals.
+     *
+     * @param text Seqüència de caselles (els espais s'ignoren).
+     * @return La partida, amb resultat i etiqueta 0.
+     * @throws IllegalArgumentException Si alguna casella no és correcta,
+     *          en sobra un caràcter al final o hi ha més de MAX_MOVIMENTS.
+     */
+    public static GameRecord llegeix(String text) {
+        String m = text.replaceAll("\\s", "").toLowerCase();
+        if (m.length() % 2 != 0) {
+            throw new IllegalArgumentException("Moviment incomplet: " + m.substring(m.length() - 1));
+        }
+        GameRecord r = new GameRecord();
+        for (int i = 0; i < m.length(); i += 2) {
+            int x = m.charAt(i) - 'a';
+            int y = m.charAt(i + 1) - '1';
+            if (x < 0 || x > 7 || y < 0 || y > 7) {
+                throw new IllegalArgumentException("Moviment incorrecte: " + m.substring(i, i + 2));
+            }
+            if (r.n == MAX_MOVIMENTS) throw new IllegalArgumentException("Massa moviments");
+            r.afegeix(x + Bitboard.SIZE * y);
+        }
+        return r;
+    }
+
+
+    /**
+     * Afegeix un moviment al final de la partida.
+     *
+     * @param sq Casella del moviment.
+     * @throws IllegalArgumentException Si la casella no existeix.
+     * @throws IllegalStateException Si la partida ja té MAX_MOVIMENTS.
+     */
+    public void afegeix(int sq) {
+        if (sq < 0 || sq >= 64) throw new IllegalArgumentException("Casella incorrecta: " + sq);
+        if (n == MAX_MOVIMENTS) throw new IllegalStateException("Massa moviments");
+        moviments[n++] = (byte) sq;
+    }
+
+    /**
+     * Afegeix un moviment retornat per un jugador. Els moviments sense
+     * casella (passar) no s'afegeixen.
+     *
+     * @param m Moviment.
+     */
+    public void afegeix(Move m) {
+        if (m.getTo() != null) afegeix(Bitboard.toSquare(m.getTo()));
+    }
+
+    /**
+     * Fixa el resultat a partir de la posició final.
+     *
+     * @param fi Tauler al final de la partida.
+     */
+    public void setResultat(Bitboard fi) {
+        int negres = Long.bitCount(fi.getFitxes(CellType.PLAYER1));
+        int blanques = Long.bitCount(fi.getFitxes(CellType.PLAYER2));
+        int buides = 64 - negres - blanques;
+        int r = negres - blanques;
+        if (r > 0) r += buides;
+        else if (r < 0) r -= buides;
+        setResultat(r);
+    }
+
+    /**
+     * @param resultat Diferència de fitxes final per a PLAYER1, de -64 a 64.
+     */
+    public void setResultat(int resultat) {
+        if (resultat < -64 || resultat > 64) throw new IllegalArgumentException("Resultat incorrecte: " + resultat);
+        this.resultat = resultat;
+    }
+
+    /**
+     * @param etiqueta Etiqueta de la partida, de 0 a 65535.
+     */
+    public void setEtiqueta(int etiqueta) {
+        if (etiqueta < 0 || etiqueta > 0xFFFF) throw new IllegalArgumentException("Etiqueta incorrecta: " + etiqueta);
+        this.etiqueta = etiqueta;
+    }
+
+
+    /**
+     * Torna a jugar la partida des de la posició inicial.
+     *
+     * @return El tauler després de l'últim moviment.
+     * @throws IllegalArgumentException Si algun moviment és il·legal.
+     */
+    public Bitboard tauler() {
+        return tauler(n);
+    }
+
+    /**
+     * Torna a jugar els primers moviments de la partida.
+     *
+     * @param plies Moviments a jugar.
+     * @return El tauler després dels moviments (si el jugador que ha de
+     *          moure no pot, ja ha passat).
+     * @throws IllegalArgumentException Si algun moviment és il·legal.
+     */
+    public Bitboard tauler(int plies) {
+        Bitboard b = new Bitboard(OpeningBookBuilder.INICI_JUGADOR, OpeningBookBuilder.INICI_RIVAL, CellType.PLAYER1);
+        for (int i = 0; i < plies; i++) {
+            if (!b.currentPlayerCanMove()) b.passa();
+            int sq = moviments[i];
+            if ((b.getMoviments() & (1L << sq)) == 0) {
+                throw new IllegalArgumentException("Moviment il·legal: " + casella(sq));
+            }
+            b.movePiece(sq);
+        }
+        if (!b.isGameOver() && !b.currentPlayerCanMove()) b.passa();
+        return b;
+    }
+
+    /**
+     * @return Nombre de moviments.
+     */
+    public int getMoviments() {
+        return n;
+    }
+
+    /**
+     * @param i Índex del moviment, des de 0.
+     * @return Casella del moviment.
+     */
+    public int getMoviment(int i) {
+        if (i >= n) throw new IndexOutOfBoundsException(i);
+        return moviments[i];
+    }
+
+    /**
+     * @return Diferència de fitxes final per a PLAYER1.
+     */
+    public int getResultat() {
+        return resultat;
+    }
+
+    /**
+     * @return Etiqueta de la partida.
+     */
+    public int getEtiqueta() {
+        return etiqueta;
+    }
+
+    /**
+     * Copia els moviments.
+     *
+     * @param desti On es copien.
+     * @param desde Índex de desti on va el primer moviment.
+     * @return Nombre de moviments.
+     */
+    public int copiaMoviments(byte[] desti, int desde) {
+        System.arraycopy(moviments, 0, desti, desde, n);
+        return n;
+    }
+
+    /**
+     * @param sq Casella.
+     * @return Nom de la casella, per exemple "f5".
+     */
+    public static String casella(int sq) {
+        return "" + (char) ('a' + sq % Bitboard.SIZE) + (char) ('1' + sq / Bitboard.SIZE);
+    }
+
+    /**
+     * @return La partida en format de text, per exemple "f5d6c3d3".
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(2 * n);
+        for (int i = 0; i < n; i++) s.append(casella(moviments[i]));
+        return s.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GameRecord)) return false;
+        GameRecord r = (GameRecord) o;
+        return n == r.n && resultat == r.resultat && etiqueta == r.etiqueta
+                && Arrays.equals(moviments, 0, n, r.moviments, 0, n);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Arrays.hashCode(Arrays.copyOf(moviments, n)) + resultat) + etiqueta;
+    }
+}
@@ -0,0 +1,274 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * Llegeix un fitxer de partides de GameRecordWriter partida a partida.
+ *
+ * El fitxer es llegeix mapat a memòria per finestres i cada bloc es
+ * descomprimeix en un buffer que es reutilitza, de manera que es poden
+ * recórrer milions de partides sense crear cap objecte per partida: es
+ * crida seguent() i es consulta la partida actual amb els getters. Si cal
+ * guardar-ne alguna, getPartida() en fa una còpia.
+ *
+ * Un bloc incomplet al final del fitxer (d'una escriptura interrompuda)
+ * s'ignora. Un bloc que no es pot descomprimir o que no passa la
+ * comprovació de CRC és un error.
+ *
+ * Ús: java GameRecordReader partides.mgr [text]
+ * escriu estadístiques de les partides, o amb "text" les partides en el
+ * format de text de OpeningBookBuilder.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class GameRecordReader implements Closeable {
+
+    /** Mida màxima de cada finestra mapada. */
+    private static final long FINESTRA = 1L << 30;
+
+    private final FileChannel canal;
+    private final long mida;
+    private MappedByteBuffer finestra;
+    private long iniciFinestra;
+    private long pos = GameRecordWriter.CAPCALERA;
+
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+    private final byte[] bloc = new byte[GameRecordWriter.MIDA_BLOC];
+    private int midaBloc;
+    private int posBloc;
+
+    // partida actual
+    private int inici;
+    private int n = -1;
+    private long llegides;
+
+
+    /**
+     * Obre un fitxer de partides.
+     *
+     * @param fitxer Fitxer escrit per GameRecordWriter.
+     * @throws IOException Si no es pot llegir o no és un fitxer de partides.
+     */
+    public GameRecordReader(Path fitxer) throws IOException {
+        this.canal = FileChannel.open(fitxer, StandardOpenOption.READ);
+        try {
+            this.mida = canal.size();
+            if (mida < GameRecordWriter.CAPCALERA) throw new IOException("No és un fitxer de partides");
+            mapa(0);
+            if (finestra.getInt(0) != GameRecordWriter.MAGIC) throw new IOException("No és un fitxer de partides");
+            int versio = finestra.getInt(4);
+            if (versio != GameRecordWriter.VERSIO) {
+                throw new IOException("Versió de fitxer de partides incompatible: " + versio);
+            }
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param fitxer Fitxer qualsevol.
+     * @return Cert si comença com un fitxer de partides.
+     * @throws IOException Si no es pot llegir.
+     */
+    public static boolean esFitxerDePartides(Path fitxer) throws IOException {
+        try (FileChannel c = FileChannel.open(fitxer, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(4);
+            while (b.hasRemaining() && c.read(b) > 0) { }
+            return !b.hasRemaining() && b.getInt(0) == GameRecordWriter.MAGIC;
+        }
+    }
+
+    private void mapa(long desde) throws IOException {
+        iniciFinestra = desde;
+        finestra = canal.map(FileChannel.MapMode.READ_ONLY, desde, Math.min(FINESTRA, mida - desde));
+    }
+
+
+    /**
+     * Passa a la partida següent.
+     *
+     * @return Cert si n'hi ha una, fals si s'ha acabat el fitxer.
+     * @throws IOException Si algun bloc està malmès.
+     */
+    public boolean seguent() throws IOException {
+        if (posBloc == midaBloc && !llegeixBloc()) {
+            n = -1;
+            return false;
+        }
+        n = bloc[posBloc] & 0xFF;
+        inici = posBloc + GameRecordWriter.PARTIDA_CAPCALERA;
+        posBloc = inici + n;
+        if (n > GameRecord.MAX_MOVIMENTS || posBloc > midaBloc) throw new IOException("Partida malmesa");
+        llegides++;
+        return true;
+    }
+
+    /**
+     * Descomprimeix el bloc següent.
+     *
+     * @return Fals si no n'hi ha cap més de sencer.
+     */
+    private boolean llegeixBloc() throws IOException {
+        while (pos + GameRecordWriter.BLOC_CAPCALERA <= mida) {
+            long fi = pos + GameRecordWriter.BLOC_CAPCALERA;
+            if (fi > iniciFinestra + finestra.capacity()) mapa(pos);
+            int p = (int) (pos - iniciFinestra);
+            long comprimit = finestra.getInt(p) & 0xFFFFFFFFL;
+            int original = finestra.getInt(p + 4);
+            int crcBloc = finestra.getInt(p + 12);
+            if (fi + comprimit > mida) return false;
+            if (original < 0 || original > bloc.length || comprimit > FINESTRA) {
+                throw new IOException("Bloc malmès a la posició " + pos);
+            }
+            if (fi + comprimit > iniciFinestra + finestra.capacity()) {
+                mapa(pos);
+                p = 0;
+            }
+            inflater.reset();
+            inflater.setInput(finestra.slice(p + GameRecordWriter.BLOC_CAPCALERA, (int) comprimit));
+            int llegits = 0;
+            try {
+                while (llegits < original && !inflater.finished()) {
+                    int k = inflater.inflate(bloc, llegits, original - llegits);
+                    if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    llegits += k;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Bloc malmès a la posició " + pos, e);
+            }
+            crc.reset();
+            crc.update(bloc, 0, llegits);
+            if (llegits != original || (int) crc.getValue() != crcBloc) {
+                throw new IOException("Bloc malmès a la posició " + pos);
+            }
+            pos = fi + comprimit;
+            midaBloc = original;
+            posBloc = 0;
+            if (original > 0) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * @return Nombre de moviments de la partida actual.
+     */
+    public int getMoviments() {
+        return n;
+    }
+
+    /**
+     * @param i Índex del moviment, des de 0.
+     * @return Casella del moviment i de la partida actual.
+     */
+    public int getMoviment(int i) {
+        if (i < 0 || i >= n) throw new IndexOutOfBoundsException(i);
+        return bloc[inici + i];
+    }
+
+    /**
+     * @return Diferència de fitxes final per a PLAYER1 de la partida actual.
+     */
+    public int getResultat() {
+        return bloc[inici - 3];
+    }
+
+    /**
+     * @return Etiqueta de la partida actual.
+     */
+    public int getEtiqueta() {
+        return ((bloc[inici - 2] & 0xFF) << 8) | (bloc[inici - 1] & 0xFF);
+    }
+
+    /**
+     * Copia els moviments de la partida actual.
+     *
+     * @param desti On es copien, a partir de l'índex 0.
+     * @return Nombre de moviments.
+     */
+    public int copiaMoviments(byte[] desti) {
+        System.arraycopy(bloc, inici, desti, 0, n);
+        return n;
+    }
+
+    /**
+     * @return Una còpia de la partida actual.
+     */
+    public GameRecord getPartida() {
+        if (n < 0) throw new IllegalStateException("No hi ha partida actual");
+        byte[] m = new byte[n];
+        copiaMoviments(m);
+        return new GameRecord(m, n, getResultat(), getEtiqueta());
+    }
+
+    /**
+     * @return Partides llegides fins ara.
+     */
+    public long getPartidesLlegides() {
+        return llegides;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        finestra = null;
+        canal.close();
+    }
+
+
+    /**
+     * Escriu estadístiques o les partides d'un fitxer.
+     *
+     * @param args Fitxer de partides i, opcionalment, "text".
+     * @throws IOException Si no es pot llegir el fitxer.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Ús: GameRecordReader partides.mgr [text]");
+            System.exit(1);
+        }
+        boolean text = args.length > 1 && args[1].equals("text");
+        long inici = System.nanoTime();
+        long moviments = 0, guanyaNegres = 0, empats = 0, resultats = 0;
+        StringBuilder s = new StringBuilder();
+        try (GameRecordReader r = new GameRecordReader(Paths.get(args[0]))) {
+            while (r.seguent()) {
+                if (text) {
+                    s.setLength(0);
+                    for (int i = 0; i < r.getMoviments(); i++) s.append(GameRecord.casella(r.getMoviment(i)));
+                    System.out.println(s);
+                    continue;
+                }
+                moviments += r.getMoviments();
+                int res = r.getResultat();
+                resultats += res;
+                if (res > 0) guanyaNegres++;
+                else if (res == 0) empats++;
+            }
+            if (text) return;
+            long n = r.getPartidesLlegides();
+            double segons = (System.nanoTime() - inici) / 1e9;
+            System.out.printf(Locale.ROOT, "Partides: %d, moviments per partida %.1f%n",
+                    n, n == 0 ? 0.0 : (double) moviments / n);
+            System.out.printf(Locale.ROOT, "Negres: %.1f%% guanyades, %.1f%% empatades, diferència mitjana %+.2f%n",
+                    n == 0 ? 0.0 : 100.0 * guanyaNegres / n, n == 0 ? 0.0 : 100.0 * empats / n,
+                    n == 0 ? 0.0 : (double) resultats / n);
+            System.out.printf(Locale.ROOT, "Lectura: %.0f partides/s%n", segons == 0 ? 0.0 : n / segons);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.BufferedReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Escriu partides en un fitxer binari compacte, afegint-les al final.
+ *
+ * El fitxer comença amb una capçalera (MAGIC i VERSIO) i després hi ha
+ * blocs comprimits amb Deflate. Cada bloc té una capçalera de BLOC_CAPCALERA
+ * bytes:
+ *
+ *   | mida comprimida (4) | mida original (4) | partides (4) | CRC32 (4) |
+ *
+ * i les dades comprimides. Dins d'un bloc, cada partida és
+ *
+ *   | moviments (1) | resultat (1, amb signe) | etiqueta (2) | caselles (1 per moviment) |
+ *
+ * Les partides es guarden en memòria fins a omplir un bloc de
+ * MIDA_BLOC bytes i s'escriuen en blocs sencers, de manera que un fitxer
+ * es pot continuar en una altra execució. Si una execució s'interromp a
+ * mitja escriptura d'un bloc, en tornar a obrir el fitxer es treu el
+ * bloc incomplet.
+ *
+ * Es pot compartir entre fils: els mètodes estan sincronitzats.
+ *
+ * Ús: java GameRecordWriter partides.txt partides.mgr
+ * afegeix les partides d'un fitxer de text (el format de
+ * OpeningBookBuilder) a un fitxer de partides. El resultat es calcula
+ * amb la posició final.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class GameRecordWriter implements Closeable {
+
+    /** Identificador del format del fitxer ("MGR1"). */
+    public static final int MAGIC = 0x4D475231;
+
+    /** Versió del format. */
+    public static final int VERSIO = 1;
+
+    /** Mida de la capçalera del fitxer en bytes. */
+    public static final int CAPCALERA = 8;
+
+    /** Mida de la capçalera de cada bloc en bytes. */
+    public static final int BLOC_CAPCALERA = 16;
+
+    /** Mida màxima d'un bloc sense comprimir. */
+    public static final int MIDA_BLOC = 1 << 16;
+
+    /** Bytes de cada partida a més de les caselles. */
+    static final int PARTIDA_CAPCALERA = 4;
+
+    private final FileChannel canal;
+    private final byte[] bloc = new byte[MIDA_BLOC];
+    private byte[] comprimit = new byte[MIDA_BLOC + 1024];
+    private final Deflater deflater = new Deflater();
+    private final CRC32 crc = new CRC32();
+    private int mida;
+    private int partides;
+    private long total;
+
+
+    /**
+     * Obre un fitxer de partides per afegir-n'hi. Si no existeix es crea.
+     *
+     * @param fitxer Fitxer de partides.
+     * @throws IOException Si no es pot obrir o no és un fitxer de partides.
+     */
+    public GameRecordWriter(Path fitxer) throws IOException {
+        this.canal = FileChannel.open(fitxer, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (canal.size() == 0) {
+                ByteBuffer c = ByteBuffer.allocate(CAPCALERA);
+                c.putInt(MAGIC).putInt(VERSIO).flip();
+                escriu(c, 0);
+            } else {
+                canal.truncate(fiBlocs());
+            }
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Comprova la capçalera i troba on acaba l'últim bloc sencer.
+     */
+    private long fiBlocs() throws IOException {
+        ByteBuffer c = ByteBuffer.allocate(BLOC_CAPCALERA);
+        c.limit(CAPCALERA);
+        if (canal.read(c, 0) < CAPCALERA || c.getInt(0) != MAGIC) {
+            throw new IOException("No és un fitxer de partides");
+        }
+        if (c.getInt(4) != VERSIO) throw new IOException("Versió de fitxer de partides incompatible: " + c.getInt(4));
+        long pos = CAPCALERA;
+        long mida = canal.size();
+        while (pos + BLOC_CAPCALERA <= mida) {
+            c.clear();
+            if (canal.read(c, pos) < BLOC_CAPCALERA) break;
+            long seguent = pos + BLOC_CAPCALERA + (c.getInt(0) & 0xFFFFFFFFL);
+            if (seguent > mida) break;
+            total += c.getInt(8);
+            pos = seguent;
+        }
+        return pos;
+    }
+
+
+    /**
+     * Afegeix una partida.
+     *
+     * @param r Partida.
+     * @throws IOException Si no es pot escriure el bloc anterior.
+     */
+    public synchronized void escriu(GameRecord r) throws IOException {
+        int n = r.getMoviments();
+        if (mida + PARTIDA_CAPCALERA + n > MIDA_BLOC) buida();
+        bloc[mida] = (byte) n;
+        bloc[mida + 1] = (byte) r.getResultat();
+        bloc[mida + 2] = (byte) (r.getEtiqueta() >>> 8);
+        bloc[mida + 3] = (byte) r.getEtiqueta();
+        mida += PARTIDA_CAPCALERA;
+        mida += r.copiaMoviments(bloc, mida);
+        partides++;
+    }
+
+    /**
+     * Escriu les partides pendents com un bloc.
+     *
+     * @throws IOException Si no es pot escriure.
+     */
+    public synchronized void buida() throws IOException {
+        if (partides == 0) return;
+        deflater.reset();
+        deflater.setInput(bloc, 0, mida);
+        deflater.finish();
+        int c = 0;
+        while (!deflater.finished()) {
+            if (c == comprimit.length) comprimit = Arrays.copyOf(comprimit, 2 * comprimit.length);
+            c += deflater.deflate(comprimit, c, comprimit.length - c);
+        }
+        crc.reset();
+        crc.update(bloc, 0, mida);
+        ByteBuffer b = ByteBuffer.allocate(BLOC_CAPCALERA + c);
+        b.putInt(c).putInt(mida).putInt(partides).putInt((int) crc.getValue());
+        b.put(comprimit, 0, c).flip();
+        escriu(b, canal.size());
+        total += partides;
+        mida = 0;
+        partides = 0;
+    }
+
+    private void escriu(ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) pos += canal.write(b, pos);
+    }
+
+    /**
+     * @return Partides del fitxer, comptant les que encara no s'han escrit.
+     */
+    public synchronized long getPartides() {
+        return total + partides;
+    }
+
+    /**
+     * Escriu les partides pendents i tanca el fitxer.
+     *
+     * @throws IOException Si no es pot escriure.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            buida();
+        } finally {
+            deflater.end();
+            canal.close();
+        }
+    }
+
+
+    /**
+     * Passa partides de text a un fitxer de partides.
+     *
+     * @param args Fitxer de text i fitxer de partides.
+     * @throws IOException Si no es poden llegir o escriure els fitxers.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Ús: GameRecordWriter partides.txt partides.mgr");
+            System.exit(1);
+        }
+        int linia = 0, n = 0;
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8);
+             GameRecordWriter out = new GameRecordWriter(Paths.get(args[1]))) {
+            String s;
+            while ((s = in.readLine()) != null) {
+                linia++;
+                s = s.trim();
+                if (s.isEmpty() || s.startsWith("#")) continue;
+                try {
+                    GameRecord r = GameRecord.llegeix(s);
+                    r.setResultat(r.tauler());
+                    out.escriu(r);
+                    n++;
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Línia " + linia + ": " + e.getMessage());
+                }
+            }
+            System.out.println(n + " partides afegides, " + out.getPartides() + " a " + args[1]);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import edu.upc.epsevg.prop.othello.Move;
+import edu.upc.epsevg.prop.othello.SearchType;
+
+
+/**
+ * Decisió d'un moviment amb el llibre d'obertures, el final exacte o la
+ * cerca, compartida per PlayerID i GameContext.
+ *
+ * El solucionador de finals només pot fer servir part del temps
+ * (TimeManager.superatFinal), de manera que si no acaba queda temps per a
+ * la cerca. Si no n'hi ha (el joc ha demanat el timeout, o la cerca no
+ * acaba cap iteració) es juga el millor moviment de la primera passada del
+ * solucionador, que sempre és millor que un de no cercat.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+final class MoveDecider {
+
+    /**
+     * Fils que ajuden la cerca principal (Lazy SMP) amb la mateixa taula
+     * de transposicions.
+     */
+    interface Ajudants {
+
+        /**
+         * Comença a cercar la posició als fils d'ajuda.
+         *
+         * @param arrel Posició que es cerca, no es pot modificar.
+         */
+        void inicia(Bitboard arrel);
+
+        /**
+         * Atura els fils d'ajuda i espera que acabin.
+         *
+         * @return Nodes de tots els fils, el de la cerca principal inclòs.
+         */
+        long atura();
+    }
+
+    private final TranspositionTable tt;
+    private final Search search;
+    private final EndgameSolver finals;
+    private final TimeManager temps;
+    private final SearchStats altres = new SearchStats();
+    private CellType me;
+    private int moviment = -1;
+    private SearchStats darreres;
+
+
+    /**
+     * Constructora
+     *
+     * @param tt Taula de transposicions de la cerca.
+     * @param search Cerca principal.
+     * @param finals Solucionador de finals.
+     * @param temps Rellotge de la cerca i del solucionador.
+     */
+    MoveDecider(TranspositionTable tt, Search search, EndgameSolver finals, TimeManager temps) {
+        this.tt = tt;
+        this.search = search;
+        this.finals = finals;
+        this.temps = temps;
+    }
+
+
+    /**
+     * Decideix el moviment amb el llibre, el final exacte o la cerca.
+     *
+     * @param arrel Tauler i estat actual de joc.
+     * @param demanat Instant (System.nanoTime) en què s'ha demanat el
+     *          moviment: el temps per moviment es compta des d'aquí.
+     * @param llibre Llibre d'obertures, o null.
+     * @param buidesFinal Caselles buides a partir de les quals es resol el
+     *          final exactament.
+     * @param maxProfunditat Profunditat màxima de la cerca.
+     * @param ajudants Fils d'ajuda de la cerca, o null per cercar només amb
+     *          el fil que crida.
+     * @return El moviment, amb el punt a null si el jugador ha de passar.
+     */
+    Move decideix(Bitboard arrel, long demanat, OpeningBook llibre, int buidesFinal, int maxProfunditat,
+                  Ajudants ajudants) {
+        // amb el minimax els valors de la taula són des del punt de vista de me
+        if (search.getAlgorisme() == Search.Algorisme.MINIMAX && me != arrel.getCurrentPlayer()) tt.clear();
+        tt.novaCerca();
+        this.me = arrel.getCurrentPlayer();
+        this.moviment = -1;
+        temps.inicia(demanat);
+        // un timeout del joc a partir d'ara atura el final i la cerca
+        search.preparaCerca();
+        finals.preparaCerca();
+        long inici = System.nanoTime();
+        if (llibre != null) {
+            int sq = llibre.moviment(arrel);
+            if (sq >= 0 && (arrel.getMoviments() & (1L << sq)) != 0) {
+                moviment = sq;
+                altres.inicia(arrel.getBuides());
+                altres.acaba(SearchStats.MotiuAturada.LLIBRE, sq, 0, System.nanoTime() - inici);
+                darreres = altres;
+                return new Move(Bitboard.toPoint(sq), 0L, 0, SearchType.MINIMAX);
+            }
+        }
+        if (arrel.getBuides() <= buidesFinal) {
+            Move m = finals.move(arrel);
+            if (m != null) {
+                moviment = finals.getMillorMoviment();
+                altres.inicia(arrel.getBuides());
+                altres.acaba(SearchStats.MotiuAturada.FINAL_EXACTE, moviment, finals.getNodes(), System.nanoTime() - inici);
+                darreres = altres;
+                return m;
+            }
+            // amb el timeout del joc ja no hi ha temps de cercar: el millor
+            // moviment de la primera passada és millor que un sense cercar
+            if (search.isAturada() && finals.getMillorMoviment() >= 0) {
+                return movimentFinal(arrel, SearchStats.MotiuAturada.TIMEOUT, inici);
+            }
+        }
+        if (ajudants != null) ajudants.inicia(arrel);
+        int sq = search.cerca(arrel, maxProfunditat);
+        long nodes = ajudants != null ? ajudants.atura() : search.getNodes();
+        darreres = search.getEstadistiques();
+        if (sq < 0) {
+            // no podem moure, el moviment (de tipus Point) es passa null.
+            return new Move(null, 0L, 0, SearchType.RANDOM);
+        }
+        if (search.getDeepth() == 0 && arrel.getBuides() <= buidesFinal && finals.getMillorMoviment() >= 0) {
+            // la cerca no ha acabat cap iteració
+            return movimentFinal(arrel, darreres.getMotiu(), inici);
+        }
+        moviment = sq;
+        return new Move(Bitboard.toPoint(sq), nodes, search.getDeepth(), SearchType.MINIMAX);
+    }
+
+    /**
+     * Moviment del solucionador de finals quan no ha pogut acabar la
+     * primera passada ni hi ha cap iteració de la cerca acabada.
+     */
+    private Move movimentFinal(Bitboard arrel, SearchStats.MotiuAturada motiu, long inici) {
+        moviment = finals.getMillorMoviment();
+        altres.inicia(arrel.getBuides());
+        altres.acaba(motiu, moviment, finals.getNodes(), System.nanoTime() - inici);
+        darreres = altres;
+        return new Move(Bitboard.toPoint(moviment), finals.getNodes(), 0, SearchType.MINIMAX);
+    }
+
+    /**
+     * @return Casella de l'últim moviment decidit, -1 si s'ha passat o
+     *          encara no se n'ha decidit cap.
+     */
+    int getMoviment() {
+        return moviment;
+    }
+
+    /**
+     * @return Color del jugador de l'últim moviment, o null si encara no
+     *          se n'ha decidit cap. Amb el minimax els valors de la taula
+     *          són des del seu punt de vista.
+     */
+    CellType getColor() {
+        return me;
+    }
+
+    /**
+     * @param me Color del jugador de qui són els valors de la taula (per
+     *          exemple en carregar-ne una de desada), o null per buidar-la
+     *          al pròxim moviment amb el minimax.
+     */
+    void setColor(CellType me) {
+        this.me = me;
+    }
+
+    /**
+     * @return Estadístiques de l'últim moviment, o null si encara no se
+     *          n'ha decidit cap.
+     */
+    SearchStats getEstadistiques() {
+        return darreres;
+    }
+}
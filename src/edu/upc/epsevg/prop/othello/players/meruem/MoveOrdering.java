@@ -0,0 +1,197 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+
+
+/**
+ * Ordenació dels moviments per a la poda alfa-beta.
+ *
+ * Els moviments es proven en aquest ordre: primer el de la variant
+ * principal (el que ha donat la taula de transposicions o la iteració
+ * anterior), després els dos moviments killer de la profunditat, després
+ * segons la taula d'història i finalment segons la prioritat estàtica de
+ * la casella (esquines primer, caselles X i C al final).
+ *
+ * També porta els comptadors de talls beta per poder comparar quant
+ * millora la poda.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class MoveOrdering {
+
+    /** Profunditat màxima (en plies des de l'arrel) que es pot ordenar. */
+    public static final int MAX_PLY = 64;
+
+    /** Prioritat estàtica de cada casella. */
+    private static final int[] PRIORITAT = {
+        100, -20,  10,   5,   5,  10, -20, 100,
+        -20, -50,  -2,  -2,  -2,  -2, -50, -20,
+         10,  -2,   1,   1,   1,   1,  -2,  10,
+          5,  -2,   1,   0,   0,   1,  -2,   5,
+          5,  -2,   1,   0,   0,   1,  -2,   5,
+         10,  -2,   1,   1,   1,   1,  -2,  10,
+        -20, -50,  -2,  -2,  -2,  -2, -50, -20,
+        100, -20,  10,   5,   5,  10, -20, 100
+    };
+
+    private static final int PV = Integer.MAX_VALUE;
+    private static final int KILLER1 = 1 << 30;
+    private static final int KILLER2 = 1 << 29;
+    private static final int MAX_HISTORIA = 1 << 20;
+
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[][] historia = new int[2][64];
+    private final int[][] ordre = new int[MAX_PLY][64];
+    private final int[] puntuacions = new int[64];
+    private boolean activa = true;
+
+    private long nodes;
+    private long talls;
+    private long tallsPrimer;
+
+
+    /**
+     * Constructora
+     */
+    public MoveOrdering() {
+        esborraKillers();
+    }
+
+
+    /**
+     * Ordena els moviments d'un node.
+     *
+     * @param moves Màscara amb els moviments legals.
+     * @param pv Moviment de la variant principal o TranspositionTable.SENSE_MOVIMENT.
+     * @param ply Distància a l'arrel.
+     * @param torn Color del jugador que mou.
+     * @return Array amb les caselles ordenades; només són vàlides les
+     *          primeres Long.bitCount(moves). L'array es reutilitza a cada
+     *          crida amb el mateix ply.
+     */
+    public int[] ordena(long moves, int pv, int ply, CellType torn) {
+        nodes++;
+        int[] llista = ordre[ply];
+        int n = 0;
+        if (!activa) {
+            for (; moves != 0; moves &= moves - 1) {
+                llista[n++] = Long.numberOfTrailingZeros(moves);
+            }
+            return llista;
+        }
+        int[] h = historia[Zobrist.index(torn)];
+        int k1 = killers[ply][0];
+        int k2 = killers[ply][1];
+        for (; moves != 0; moves &= moves - 1) {
+            int sq = Long.numberOfTrailingZeros(moves);
+            int p;
+            if (sq == pv) p = PV;
+            else if (sq == k1) p = KILLER1;
+            else if (sq == k2) p = KILLER2;
+            else p = (h[sq] << 8) + PRIORITAT[sq] + 128;
+            // inserció ordenada de major a menor
+            int i = n++;
+            while (i > 0 && puntuacions[i - 1] < p) {
+                puntuacions[i] = puntuacions[i - 1];
+                llista[i] = llista[i - 1];
+                i--;
+            }
+            puntuacions[i] = p;
+            llista[i] = sq;
+        }
+        return llista;
+    }
+
+    /**
+     * Registra que un moviment ha provocat un tall beta.
+     *
+     * @param sq Moviment que ha tallat.
+     * @param ply Distància a l'arrel.
+     * @param torn Color del jugador que ha mogut.
+     * @param mdp Profunditat restant del node.
+     * @param index Posició del moviment dins l'ordre en què s'ha cercat.
+     */
+    public void tall(int sq, int ply, CellType torn, int mdp, int index) {
+        talls++;
+        if (index == 0) tallsPrimer++;
+        if (killers[ply][0] != sq) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = sq;
+        }
+        int[] h = historia[Zobrist.index(torn)];
+        h[sq] += mdp * mdp;
+        if (h[sq] > MAX_HISTORIA) envelleix();
+    }
+
+    /**
+     * Prepara una nova cerca: els killers deixen de ser vàlids, la
+     * història es redueix a la meitat i es posen els comptadors a zero.
+     */
+    public void novaCerca() {
+        esborraKillers();
+        envelleix();
+        nodes = 0;
+        talls = 0;
+        tallsPrimer = 0;
+    }
+
+    private void esborraKillers() {
+        for (int[] k : killers) {
+            k[0] = TranspositionTable.SENSE_MOVIMENT;
+            k[1] = TranspositionTable.SENSE_MOVIMENT;
+        }
+    }
+
+    private void envelleix() {
+        for (int[] h : historia) {
+            for (int i = 0; i < h.length; i++) h[i] >>= 1;
+        }
+    }
+
+    /**
+     * Activa o desactiva l'ordenació (per comparar-ne el guany). Desactivada
+     * els moviments es cerquen en l'ordre del generador.
+     *
+     * @param activa Cert per ordenar els moviments.
+     */
+    public void setActiva(boolean activa) {
+        this.activa = activa;
+    }
+
+
+    /**
+     * @return Nombre de nodes interiors ordenats des de l'última nova cerca.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return Nombre de talls beta des de l'última nova cerca.
+     */
+    public long getTalls() {
+        return talls;
+    }
+
+    /**
+     * @return Nombre de talls beta provocats pel primer moviment provat.
+     */
+    public long getTallsPrimer() {
+        return tallsPrimer;
+    }
+
+    /**
+     * @return Talls beta per node interior.
+     */
+    public double getTallsPerNode() {
+        return nodes == 0 ? 0 : (double) talls / nodes;
+    }
+
+    /**
+     * @return Percentatge de talls beta fets pel primer moviment provat.
+     */
+    public double getPercentatgePrimer() {
+        return talls == 0 ? 0 : 100.0 * tallsPrimer / talls;
+    }
+}
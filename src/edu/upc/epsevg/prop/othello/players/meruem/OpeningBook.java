@@ -0,0 +1,180 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.Move;
+import edu.upc.epsevg.prop.othello.SearchType;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Llibre d'obertures binari llegit amb un fitxer mapat a memòria.
+ *
+ * El fitxer el genera OpeningBookBuilder. Comença amb una capçalera
+ * (MAGIC i el nombre d'entrades) i després hi ha les entrades ordenades
+ * per posició. Cada entrada té ENTRADA bytes:
+ *
+ *   | jugador (8) | rival (8) | moviment (4) | pes (4) |
+ *
+ * on jugador i rival són la forma canònica de la posició (vegeu Symmetry)
+ * i el moviment és la casella en la mateixa orientació. Una posició amb
+ * diversos moviments té una entrada per moviment, una darrere l'altra.
+ *
+ * La cerca és binària sobre el fitxer mapat, de manera que no cal
+ * carregar res a memòria i cada consulta són uns quants accessos.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class OpeningBook {
+
+    /** Identificador del format del fitxer ("MBK1"). */
+    public static final int MAGIC = 0x4D424B31;
+
+    /** Mida de la capçalera en bytes. */
+    public static final int CAPCALERA = 8;
+
+    /** Mida de cada entrada en bytes. */
+    public static final int ENTRADA = 24;
+
+    private final MappedByteBuffer dades;
+    private final int n;
+
+
+    /**
+     * Constructora
+     *
+     * @param dades Contingut del fitxer del llibre.
+     */
+    private OpeningBook(MappedByteBuffer dades) {
+        if (dades.capacity() < CAPCALERA || dades.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("No és un llibre d'obertures");
+        }
+        this.dades = dades;
+        this.n = dades.getInt(4);
+        if ((long) CAPCALERA + (long) n * ENTRADA > dades.capacity()) {
+            throw new IllegalArgumentException("Llibre d'obertures truncat");
+        }
+    }
+
+    /**
+     * Obre un llibre d'obertures.
+     *
+     * @param fitxer Fitxer generat per OpeningBookBuilder.
+     * @return El llibre.
+     * @throws IOException Si no es pot llegir el fitxer.
+     */
+    public static OpeningBook obre(Path fitxer) throws IOException {
+        try (FileChannel canal = FileChannel.open(fitxer, StandardOpenOption.READ)) {
+            // el mapatge continua sent vàlid després de tancar el canal
+            return new OpeningBook(canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()));
+        }
+    }
+
+
+    /**
+     * Decideix el moviment amb el llibre, sense cercar.
+     *
+     * @param b Tauler i estat actual de joc.
+     * @return El moviment del llibre, o null si la posició no hi és (o el
+     *          moviment del llibre no és legal, per si el fitxer és d'un
+     *          altre joc).
+     */
+    public Move move(Bitboard b) {
+        int sq = moviment(b);
+        if (sq < 0 || (b.getMoviments() & (1L << sq)) == 0) return null;
+        return new Move(Bitboard.toPoint(sq), 0L, 0, SearchType.MINIMAX);
+    }
+
+    /**
+     * Tria un moviment del llibre a l'atzar, amb probabilitat proporcional
+     * al pes de cada moviment.
+     *
+     * @param b Tauler i estat actual de joc.
+     * @return Casella del moviment o -1 si la posició no és al llibre.
+     */
+    public int moviment(Bitboard b) {
+        return moviment(b, true);
+    }
+
+    /**
+     * Busca un moviment per a la posició.
+     *
+     * @param b Tauler i estat actual de joc.
+     * @param pesat Cert per triar a l'atzar segons els pesos, fals per
+     *          triar sempre el moviment amb més pes.
+     * @return Casella del moviment o -1 si la posició no és al llibre.
+     */
+    public int moviment(Bitboard b, boolean pesat) {
+        long j = b.getJugador();
+        long r = b.getRival();
+        int s = Symmetry.canonica(j, r);
+        j = Symmetry.transforma(j, s);
+        r = Symmetry.transforma(r, s);
+
+        int primera = primera(j, r);
+        if (primera >= n || jugador(primera) != j || rival(primera) != r) return -1;
+        int ultima = primera;
+        long total = 0;
+        while (ultima < n && jugador(ultima) == j && rival(ultima) == r) {
+            total += pes(ultima);
+            ultima++;
+        }
+
+        int triada = primera;
+        if (pesat && total > 0) {
+            long x = ThreadLocalRandom.current().nextLong(total);
+            while (x >= pes(triada)) {
+                x -= pes(triada);
+                triada++;
+            }
+        } else {
+            for (int i = primera + 1; i < ultima; i++) {
+                if (pes(i) > pes(triada)) triada = i;
+            }
+        }
+        return Symmetry.casella(moviment(triada), Symmetry.inversa(s));
+    }
+
+    /**
+     * @return Primera entrada amb posició més gran o igual que (j, r).
+     */
+    private int primera(long j, long r) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mig = (lo + hi) >>> 1;
+            long mj = jugador(mig);
+            if (mj < j || (mj == j && rival(mig) < r)) lo = mig + 1;
+            else hi = mig;
+        }
+        return lo;
+    }
+
+    private long jugador(int i) {
+        return dades.getLong(CAPCALERA + i * ENTRADA);
+    }
+
+    private long rival(int i) {
+        return dades.getLong(CAPCALERA + i * ENTRADA + 8);
+    }
+
+    private int moviment(int i) {
+        return dades.getInt(CAPCALERA + i * ENTRADA + 16);
+    }
+
+    private int pes(int i) {
+        return dades.getInt(CAPCALERA + i * ENTRADA + 20);
+    }
+
+
+    /**
+     * @return Nombre d'entrades (parells posició i moviment) del llibre.
+     */
+    public int mida() {
+        return n;
+    }
+}
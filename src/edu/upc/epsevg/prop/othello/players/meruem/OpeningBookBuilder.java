@@ -0,0 +1,268 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Eina per generar el llibre d'obertures a partir de partides.
+ *
+ * Cada línia del fitxer d'entrada és una partida escrita com la seqüència
+ * de caselles on s'ha tirat, per exemple "f5d6c3d3c4f4". Les columnes són
+ * les lletres a-h (x de 0 a 7) i les files els números 1-8 (y de 0 a 7).
+ * Les passades no s'escriuen, es dedueixen quan el jugador no pot moure.
+ * Les línies buides o que comencen per # s'ignoren. També pot ser un
+ * fitxer binari de partides de GameRecordWriter, que es llegeix sense
+ * passar per text.
+ *
+ * Per cada posició de les primeres plies de cada partida es compta
+ * quantes vegades s'hi ha jugat cada moviment, i aquest recompte és el pes
+ * del moviment al llibre.
+ *
+ * Ús: java OpeningBookBuilder partides.txt llibre.bin [plies] [minim]
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class OpeningBookBuilder {
+
+    /** Plies de cada partida que es posen al llibre per defecte. */
+    public static final int PLIES = 20;
+
+    /** Vegades que s'ha de jugar un moviment per entrar al llibre per defecte. */
+    public static final int MINIM = 2;
+
+    /** Posició inicial: fitxes del jugador que comença. */
+    static final long INICI_JUGADOR = Bitboard.bit(3, 4) | Bitboard.bit(4, 3);
+
+    /** Posició inicial: fitxes del rival. */
+    static final long INICI_RIVAL = Bitboard.bit(3, 3) | Bitboard.bit(4, 4);
+
+    private final int plies;
+    private final Map<Posicio, Map<Integer, Integer>> recomptes = new HashMap<>();
+    private int partides;
+    private final byte[] caselles = new byte[GameRecord.MAX_MOVIMENTS];
+    private final long[][] vistes = new long[GameRecord.MAX_MOVIMENTS][2];
+
+
+    /**
+     * Constructora
+     *
+     * @param plies Plies de cada partida que es posen al llibre.
+     */
+    public OpeningBookBuilder(int plies) {
+        this.plies = plies;
+    }
+
+
+    /**
+     * Afegeix una partida al llibre.
+     *
+     * @param partida Seqüència de moviments, per exemple "f5d6c3".
+     * @throws IllegalArgumentException Si la partida té algun moviment il·legal.
+     */
+    public void afegeix(String partida) {
+        afegeix(GameRecord.llegeix(partida));
+    }
+
+    /**
+     * Afegeix una partida al llibre.
+     *
+     * @param partida Partida.
+     * @throws IllegalArgumentException Si la partida té algun moviment il·legal.
+     */
+    public void afegeix(GameRecord partida) {
+        int n = partida.copiaMoviments(caselles, 0);
+        afegeix(n);
+    }
+
+    /**
+     * Afegeix la partida actual d'un fitxer de partides, sense copiar-la.
+     *
+     * @param partides Fitxer de partides posat a la partida que s'afegeix.
+     * @throws IllegalArgumentException Si la partida té algun moviment il·legal.
+     */
+    public void afegeix(GameRecordReader partides) {
+        int n = partides.copiaMoviments(caselles);
+        afegeix(n);
+    }
+
+    /**
+     * Afegeix les primeres plies dels n moviments de caselles.
+     */
+    private void afegeix(int n) {
+        long p = INICI_JUGADOR;
+        long o = INICI_RIVAL;
+        // primer es comprova tota la partida i després es compta
+        int k = Math.min(n, plies);
+        for (int i = 0; i < k; i++) {
+            int sq = caselles[i];
+            if (Bitboard.moviments(p, o) == 0) {
+                // el jugador passa
+                long aux = p;
+                p = o;
+                o = aux;
+            }
+            if ((Bitboard.moviments(p, o) & (1L << sq)) == 0) {
+                throw new IllegalArgumentException("Moviment il·legal: " + GameRecord.casella(sq));
+            }
+            vistes[i][0] = p;
+            vistes[i][1] = o;
+            long g = Bitboard.girs(p, o, sq);
+            long nou = p | g | (1L << sq);
+            p = o & ~g;
+            o = nou;
+        }
+        for (int i = 0; i < k; i++) compta(vistes[i][0], vistes[i][1], caselles[i]);
+        partides++;
+    }
+
+    /**
+     * Suma una aparició del moviment sq a la posició (p, o) en forma canònica.
+     */
+    private void compta(long p, long o, int sq) {
+        int s = Symmetry.canonica(p, o);
+        long j = Symmetry.transforma(p, s);
+        long r = Symmetry.transforma(o, s);
+        int m = Symmetry.casella(sq, s);
+        // si la posició canònica és simètrica, els moviments equivalents
+        // es guarden tots com el mateix
+        int minim = m;
+        for (int t = 1; t < Symmetry.N; t++) {
+            if (Symmetry.transforma(j, t) == j && Symmetry.transforma(r, t) == r) {
+                minim = Math.min(minim, Symmetry.casella(m, t));
+            }
+        }
+        recomptes.computeIfAbsent(new Posicio(j, r), k -> new HashMap<>()).merge(minim, 1, Integer::sum);
+    }
+
+    /**
+     * Escriu el llibre en el format que llegeix OpeningBook.
+     *
+     * @param sortida On s'escriu el llibre.
+     * @param minim Vegades que s'ha de jugar un moviment per entrar al llibre.
+     * @return Nombre d'entrades escrites.
+     * @throws IOException Si no es pot escriure.
+     */
+    public int escriu(OutputStream sortida, int minim) throws IOException {
+        List<long[]> entrades = new ArrayList<>();
+        for (Map.Entry<Posicio, Map<Integer, Integer>> e : recomptes.entrySet()) {
+            for (Map.Entry<Integer, Integer> m : e.getValue().entrySet()) {
+                if (m.getValue() >= minim) {
+                    entrades.add(new long[]{e.getKey().jugador, e.getKey().rival, m.getKey(), m.getValue()});
+                }
+            }
+        }
+        entrades.sort((a, b) -> {
+            if (a[0] != b[0]) return Long.compare(a[0], b[0]);
+            if (a[1] != b[1]) return Long.compare(a[1], b[1]);
+            return Long.compare(a[2], b[2]);
+        });
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sortida));
+        out.writeInt(OpeningBook.MAGIC);
+        out.writeInt(entrades.size());
+        for (long[] e : entrades) {
+            out.writeLong(e[0]);
+            out.writeLong(e[1]);
+            out.writeInt((int) e[2]);
+            out.writeInt((int) e[3]);
+        }
+        out.flush();
+        return entrades.size();
+    }
+
+    /**
+     * @return Nombre de partides afegides.
+     */
+    public int getPartides() {
+        return partides;
+    }
+
+
+    /**
+     * Genera un llibre d'obertures.
+     *
+     * @param args Fitxer de partides, fitxer del llibre i, opcionalment, el
+     *          nombre de plies i el mínim de vegades per moviment.
+     * @throws IOException Si no es poden llegir les partides o escriure el llibre.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Ús: OpeningBookBuilder partides.txt llibre.bin [plies] [minim]");
+            System.exit(1);
+        }
+        int plies = args.length > 2 ? Integer.parseInt(args[2]) : PLIES;
+        int minim = args.length > 3 ? Integer.parseInt(args[3]) : MINIM;
+        OpeningBookBuilder llibre = new OpeningBookBuilder(plies);
+        int linia = 0;
+        Path origen = Paths.get(args[0]);
+        if (GameRecordReader.esFitxerDePartides(origen)) {
+            try (GameRecordReader in = new GameRecordReader(origen)) {
+                while (in.seguent()) {
+                    try {
+                        llibre.afegeix(in);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Partida " + in.getPartidesLlegides() + ": " + e.getMessage());
+                    }
+                }
+            }
+        } else {
+            try (BufferedReader in = Files.newBufferedReader(origen, StandardCharsets.UTF_8)) {
+                String s;
+                while ((s = in.readLine()) != null) {
+                    linia++;
+                    s = s.trim();
+                    if (s.isEmpty() || s.startsWith("#")) continue;
+                    try {
+                        llibre.afegeix(s);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Línia " + linia + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        Path desti = Paths.get(args[1]);
+        int n;
+        try (OutputStream out = Files.newOutputStream(desti)) {
+            n = llibre.escriu(out, minim);
+        }
+        System.out.println(llibre.getPartides() + " partides, " + n + " entrades a " + desti);
+    }
+
+
+    /**
+     * Posició en forma canònica, per fer servir de clau.
+     */
+    private static final class Posicio {
+        final long jugador;
+        final long rival;
+
+        Posicio(long jugador, long rival) {
+            this.jugador = jugador;
+            this.rival = rival;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Posicio)) return false;
+            Posicio p = (Posicio) o;
+            return jugador == p.jugador && rival == p.rival;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(jugador * 31 + rival);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+
+/**
+ * Avaluació del tauler per taules de patrons.
+ *
+ * Calcula exactament el mateix valor que les cinc heurístiques originals
+ * (esquines, preEsquines, costatsParells, costats i zonaPerill), però en
+ * lloc de recórrer el tauler amb getPos codifica cada línia del tauler en
+ * base 3 (0 buida, 1 meva, 2 de l'enemic) i consulta una taula que ja té
+ * precalculat quantes fitxes de cada jugador aporta la línia a cada terme.
+ *
+ * Els comptadors dels deu valors (meves i de l'enemic per a cada terme)
+ * van empaquetats en un long, 6 bits cadascun, de manera que n'hi ha prou
+ * de sumar els longs de les taules i desempaquetar-los al final.
+ *
+ * Les peculiaritats de les funcions originals es mantenen: (0,6) compta
+ * dues vegades a preEsquines i (6,0) cap, i costats només mira les
+ * caselles 2 a 4 de cada vora. Les funcions originals es conserven a bench
+ * (ScanEval) i PatternEvalCheck comprova que els valors són idèntics.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public final class PatternEval {
+
+    // desplaçament de cada comptador dins del long empaquetat
+    static final int ESQ_ME = 0;
+    static final int ESQ_EN = 6;
+    static final int PRE_ME = 12;
+    static final int PRE_EN = 18;
+    static final int PAR_ME = 24;
+    static final int PAR_EN = 30;
+    static final int COS_ME = 36;
+    static final int COS_EN = 42;
+    static final int ZON_ME = 48;
+    static final int ZON_EN = 54;
+
+    /** Nombre de configuracions d'una línia de 8 caselles. */
+    static final int LINIA = 6561;
+
+    /** Valor en base 3 de cada màscara de 8 bits, amb dígits 0 o 1. */
+    static final int[] BASE3 = new int[256];
+
+    // vores: fila y = 0, fila y = 7, columna x = 0 i columna x = 7
+    private static final long[] FILA0 = new long[LINIA];
+    private static final long[] FILA7 = new long[LINIA];
+    private static final long[] COL0 = new long[LINIA];
+    private static final long[] COL7 = new long[LINIA];
+
+    // segona línia: fila y = 1, fila y = 6, columna x = 1 i columna x = 6
+    private static final long[] FILA1 = new long[LINIA];
+    private static final long[] FILA6 = new long[LINIA];
+    private static final long[] COL1 = new long[LINIA];
+    private static final long[] COL6 = new long[LINIA];
+
+    /** Caselles 1..5 de dues vores oposades, per als costats parells. */
+    private static final long[] PARELLS = new long[243 * 243];
+
+    static {
+        for (int m = 0; m < 256; m++) {
+            int v = 0;
+            for (int k = 7; k >= 0; k--) v = 3 * v + ((m >> k) & 1);
+            BASE3[m] = v;
+        }
+        int[] cap = {};
+        int[] costats = {2, 3, 4};
+        int[] zona = {1, 2, 3, 4, 5};
+        // (0,0) i (7,0) esquines; (1,0) preEsquina
+        omple(FILA0, new int[]{0, 7}, new int[]{1}, costats, cap);
+        // (0,7) i (7,7) esquines; (1,7) i (6,7) preEsquines
+        omple(FILA7, new int[]{0, 7}, new int[]{1, 6}, costats, cap);
+        // (0,1) i dues vegades (0,6) preEsquines
+        omple(COL0, cap, new int[]{1, 6, 6}, costats, cap);
+        // (7,1) i (7,6) preEsquines
+        omple(COL7, cap, new int[]{1, 6}, costats, cap);
+        // (1,1) i (6,1) preEsquines
+        omple(FILA1, cap, new int[]{1, 6}, cap, zona);
+        // (1,6) i (6,6) preEsquines
+        omple(FILA6, cap, new int[]{1, 6}, cap, zona);
+        omple(COL1, cap, cap, cap, zona);
+        omple(COL6, cap, cap, cap, zona);
+
+        for (int i = 0; i < PARELLS.length; i++) {
+            int a = i % 243;
+            int b = i / 243;
+            long v = 0;
+            for (int k = 0; k < 5; k++) {
+                int da = a % 3, db = b % 3;
+                if (da == 1 && db == 1) v += 2L << PAR_ME;
+                else if (da == 2 && db == 2) v += 2L << PAR_EN;
+                a /= 3;
+                b /= 3;
+            }
+            PARELLS[i] = v;
+        }
+    }
+
+    private PatternEval() {
+    }
+
+
+    /**
+     * Omple la taula d'una línia a partir de les posicions de la línia que
+     * compten per a cada terme. Una posició repetida compta més d'un cop.
+     */
+    private static void omple(long[] taula, int[] esquines, int[] preEsquines,
+                              int[] costats, int[] zona) {
+        for (int idx = 0; idx < LINIA; idx++) {
+            int[] d = new int[8];
+            for (int k = 0, r = idx; k < 8; k++, r /= 3) d[k] = r % 3;
+            long v = 0;
+            for (int p : esquines) v += compta(d[p], ESQ_ME, ESQ_EN);
+            for (int p : preEsquines) v += compta(d[p], PRE_ME, PRE_EN);
+            for (int p : costats) v += compta(d[p], COS_ME, COS_EN);
+            for (int p : zona) v += compta(d[p], ZON_ME, ZON_EN);
+            taula[idx] = v;
+        }
+    }
+
+    private static long compta(int digit, int me, int en) {
+        if (digit == 1) return 1L << me;
+        if (digit == 2) return 1L << en;
+        return 0;
+    }
+
+    private static int camp(long v, int desplacament) {
+        return (int) (v >>> desplacament) & 0x3F;
+    }
+
+
+    /**
+     * @param b Màscara de fitxes.
+     * @param y Fila.
+     * @return Els 8 bits de la fila y, el bit k és la casella (k, y).
+     */
+    static int fila(long b, int y) {
+        return (int) (b >>> (8 * y)) & 0xFF;
+    }
+
+    /**
+     * @param b Màscara de fitxes.
+     * @param x Columna.
+     * @return Els 8 bits de la columna x, el bit k és la casella (x, k).
+     */
+    static int columna(long b, int x) {
+        return (int) ((((b >>> x) & 0x0101010101010101L) * 0x0102040810204080L) >>> 56);
+    }
+
+    /**
+     * @param meves Bits de la línia amb fitxes meves.
+     * @param enemic Bits de la línia amb fitxes de l'enemic.
+     * @return Índex en base 3 de la línia.
+     */
+    static int index(int meves, int enemic) {
+        return BASE3[meves] + 2 * BASE3[enemic];
+    }
+
+
+    /**
+     * Valor de l'heurística des del punt de vista del jugador de les fitxes
+     * meves. Dona el mateix resultat que la combinació
+     * 10*esquines + 4*preEsquines + 4*costatsParells + 7*costats + 7*zonaPerill.
+     *
+     * @param meves Fitxes del jugador des del qual s'avalua.
+     * @param enemic Fitxes del rival.
+     * @return Valor del tauler.
+     */
+    public static double heuristic(long meves, long enemic) {
+        return combina(patrons(meves, enemic));
+    }
+
+    /**
+     * Suma les taules de totes les línies.
+     *
+     * @param meves Fitxes del jugador des del qual s'avalua.
+     * @param enemic Fitxes del rival.
+     * @return Els deu comptadors empaquetats.
+     */
+    static long patrons(long meves, long enemic) {
+        int m0 = fila(meves, 0), e0 = fila(enemic, 0);
+        int m7 = fila(meves, 7), e7 = fila(enemic, 7);
+        int c0 = columna(meves, 0), d0 = columna(enemic, 0);
+        int c7 = columna(meves, 7), d7 = columna(enemic, 7);
+
+        long v = FILA0[index(m0, e0)] + FILA7[index(m7, e7)]
+               + COL0[index(c0, d0)] + COL7[index(c7, d7)]
+               + FILA1[index(fila(meves, 1), fila(enemic, 1))]
+               + FILA6[index(fila(meves, 6), fila(enemic, 6))]
+               + COL1[index(columna(meves, 1), columna(enemic, 1))]
+               + COL6[index(columna(meves, 6), columna(enemic, 6))]
+               + PARELLS[index((m0 >>> 1) & 0x1F, (e0 >>> 1) & 0x1F)
+                         + 243 * index((m7 >>> 1) & 0x1F, (e7 >>> 1) & 0x1F)]
+               + PARELLS[index((c0 >>> 1) & 0x1F, (d0 >>> 1) & 0x1F)
+                         + 243 * index((c7 >>> 1) & 0x1F, (d7 >>> 1) & 0x1F)];
+        return v;
+    }
+
+    /**
+     * Combina els comptadors en el valor de l'heurística.
+     *
+     * @param v Comptadors empaquetats retornats per patrons.
+     * @return Valor del tauler.
+     */
+    static double combina(long v) {
+        // mateixes operacions, en el mateix ordre, que les heurístiques originals
+        double meEsquines = camp(v, ESQ_ME), enEsquines = camp(v, ESQ_EN);
+        double esquines = 0;
+        if (meEsquines + enEsquines != 0)
+            esquines = 100 * (meEsquines - enEsquines)/(meEsquines + enEsquines);
+
+        double mePre = camp(v, PRE_ME), enPre = camp(v, PRE_EN);
+        double preEsquines = 0;
+        if (mePre + enPre != 0)
+            preEsquines = 100 * (enPre - mePre)/(mePre + enPre);
+
+        double meParells = camp(v, PAR_ME), enParells = camp(v, PAR_EN);
+        double costatsParells = 0;
+        if (meParells - enParells != 0)
+            costatsParells = (meParells - enParells)/(meParells + enParells);
+
+        double meCostats = camp(v, COS_ME), enCostats = camp(v, COS_EN);
+        double costats = 0;
+        if (meCostats - enCostats != 0)
+            costats = (meCostats - enCostats)/(meCostats + enCostats);
+
+        double meZona = camp(v, ZON_ME), enZona = camp(v, ZON_EN);
+        double zonaPerill = 0;
+        if (meZona + enZona != 0)
+            zonaPerill = (enZona - meZona)/(enZona + meZona);
+
+        return 10*esquines + 4*preEsquines +
+               4*costatsParells + 7*costats + 7*zonaPerill;
+    }
+}
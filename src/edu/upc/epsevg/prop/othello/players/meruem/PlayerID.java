@@ -6,8 +6,16 @@ import edu.upc.epsevg.prop.othello.IAuto;
 import edu.upc.epsevg.prop.othello.IPlayer;
 import edu.upc.epsevg.prop.othello.Move;
 import edu.upc.epsevg.prop.othello.SearchType;
-import java.awt.Point;
-import java.util.ArrayList;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 /**
@@ -18,13 +26,45 @@ import java.util.ArrayList;
 public class PlayerID implements IPlayer, IAuto{
 
     private final String name;
-    private int deepth;
-    private CellType me;
-    private boolean TIMEOUT;
     private int max_deepth;
     private boolean timeout_cut;
-    private int n_nodes;
+    private final TranspositionTable tt;
+    private final TimeManager temps;
+    private final Search search;
+    private final EndgameSolver finals;
+    private final MoveDecider decisio;
+    private final MoveDecider.Ajudants smp;
+    private int buides_final = EndgameSolver.BUIDES_FINAL;
+    private OpeningBook llibre;
+    private final Search[] ajudants;
+    private final Future<?>[] tasques;
+    private final ExecutorService fils;
+    private final long[] nodesFil;
+    private Search.Algorisme algorisme = Search.Algorisme.MINIMAX;
+    private ProbCut probcut;
+    private EvalCache cache;
+    private Evaluator avaluacio = Evaluator.PATRONS;
+    private boolean canonica;
+    private boolean ponder;
+    private Search pondera;
+    private ExecutorService pensador;
+    private Future<Integer> tascaPonder;
+    private Bitboard posicioPonder;
+    private int ultim;
+    private SearchStats darreres;
+    private Appendable registre;
+    private SearchStats.Format formatRegistre;
+    private Path fitxerTaula;
+    private int intervalTaula;
+    private int movimentsTaula;
+    private ExecutorService desador;
+    private Future<?> tascaDesa;
     
+    /** Nombre d'entrades per defecte de la taula de transposicions (16 MB). */
+    public static final int MIDA_TT = 1 << 20;
+    
+    /** Nombre d'entrades de la taula de transposicions del final (4 MB). */
+    public static final int MIDA_TT_FINAL = 1 << 18;
 
     
     /**
@@ -35,11 +75,76 @@ public class PlayerID implements IPlayer, IAuto{
      * @param timeout_cut Bolea per indicar si volem que el timout faci efecte sobre l'algorisme.
      */
     public PlayerID (String name, int max_deepth, boolean timeout_cut) {
+        this(name, max_deepth, timeout_cut, MIDA_TT, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+    }
+    
+    /**
+     * Constructora
+     * 
+     * @param name Nom del jugador.
+     * @param max_deepth Profunditat màxima de l'algorisme.
+     * @param timeout_cut Bolea per indicar si volem que el timout faci efecte sobre l'algorisme.
+     * @param mida_tt Nombre d'entrades de la taula de transposicions.
+     * @param politica Política de reemplaçament de la taula de transposicions.
+     */
+    public PlayerID (String name, int max_deepth, boolean timeout_cut,
+                     int mida_tt, TranspositionTable.ReplacementPolicy politica) {
+        this(name, max_deepth, timeout_cut, mida_tt, politica, 1);
+    }
+    
+    /**
+     * Constructora
+     * 
+     * Amb més d'un fil la cerca és Lazy SMP: el fil principal fa la cerca
+     * normal i la resta fan la mateixa cerca en paral·lel compartint la
+     * taula de transposicions, de manera que el fil principal troba més
+     * posicions ja resoltes i arriba més profund en el mateix temps.
+     * 
+     * @param name Nom del jugador.
+     * @param max_deepth Profunditat màxima de l'algorisme.
+     * @param timeout_cut Bolea per indicar si volem que el timout faci efecte sobre l'algorisme.
+     * @param mida_tt Nombre d'entrades de la taula de transposicions.
+     * @param politica Política de reemplaçament de la taula de transposicions.
+     * @param n_fils Nombre de fils de la cerca (1 per cercar només amb el fil del joc).
+     */
+    public PlayerID (String name, int max_deepth, boolean timeout_cut,
+                     int mida_tt, TranspositionTable.ReplacementPolicy politica, int n_fils) {
         this.name = name;
-        this.TIMEOUT = false;
         if (max_deepth == 0) this.max_deepth = 100;
         else this.max_deepth = max_deepth;
         this.timeout_cut = timeout_cut;
+        this.tt = new TranspositionTable(mida_tt, politica);
+        this.temps = new TimeManager(0);
+        this.search = new Search(tt);
+        this.search.setTimeManager(temps);
+        this.finals = new EndgameSolver(MIDA_TT_FINAL);
+        this.finals.setTimeManager(temps);
+        this.decisio = new MoveDecider(tt, search, finals, temps);
+        this.smp = new MoveDecider.Ajudants() {
+            @Override
+            public void inicia(Bitboard arrel) {
+                iniciaAjudants(arrel);
+            }
+
+            @Override
+            public long atura() {
+                return aturaAjudants();
+            }
+        };
+        int n = Math.max(n_fils, 1);
+        this.ajudants = new Search[n - 1];
+        for (int i = 0; i < ajudants.length; i++) ajudants[i] = new Search(tt);
+        this.tasques = new Future<?>[n - 1];
+        this.nodesFil = new long[n];
+        if (n > 1) {
+            this.fils = Executors.newFixedThreadPool(n - 1, r -> {
+                Thread t = new Thread(r, name + "-smp");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.fils = null;
+        }
     }
 
     
@@ -49,7 +154,184 @@ public class PlayerID implements IPlayer, IAuto{
      */
     @Override
     public void timeout() {
-        if(timeout_cut) this.TIMEOUT = true;
+        if(timeout_cut) {
+            search.timeout();
+            finals.timeout();
+            if (pondera != null) pondera.timeout();
+            for (Search a : ajudants) a.timeout();
+        }
+    }
+
+    /**
+     * Fixa el temps que pot fer servir cada moviment. El jugador deixa de
+     * començar iteracions quan preveu que no les podrà acabar dins del temps
+     * i, si se li acaba a mitja iteració, retorna el moviment de l'última
+     * iteració sencera. Així no depèn del timeout del joc per aturar-se.
+     * 
+     * @param ms Mil·lisegons per moviment, 0 perquè no hi hagi límit.
+     */
+    public void setTempsPerMoviment(long ms) {
+        temps.setPressupost(ms);
+    }
+
+    /**
+     * Fixa a partir de quantes caselles buides es resol el final de la
+     * partida exactament en lloc de fer la cerca amb l'heurística.
+     * 
+     * @param buides Nombre de caselles buides, 0 per no resoldre mai el final.
+     */
+    public void setBuidesFinal(int buides) {
+        this.buides_final = buides;
+    }
+
+    /**
+     * @param llibre Llibre d'obertures que es consulta abans de cercar, o
+     *          null per cercar sempre.
+     */
+    public void setLlibre(OpeningBook llibre) {
+        this.llibre = llibre;
+    }
+
+    /**
+     * Tria l'algorisme de cerca de tots els fils. Com que els valors de la
+     * taula de transposicions depenen de l'algorisme, es buida la taula.
+     * 
+     * @param algorisme MINIMAX (l'original) o PVS.
+     */
+    public void setAlgorisme(Search.Algorisme algorisme) {
+        aturaPonder();
+        this.algorisme = algorisme;
+        search.setAlgorisme(algorisme);
+        for (Search a : ajudants) a.setAlgorisme(algorisme);
+        if (pondera != null) pondera.setAlgorisme(algorisme);
+        tt.clear();
+    }
+
+    /**
+     * Activa Multi-ProbCut a tots els fils. Només té efecte amb PVS.
+     * 
+     * @param probcut Paràmetres de ProbCut calibrats per a l'avaluació del
+     *          jugador (ProbCut.perDefecte(avaluacio)), o null per no tallar.
+     */
+    public void setProbCut(ProbCut probcut) {
+        aturaPonder();
+        this.probcut = probcut;
+        search.setProbCut(probcut);
+        for (Search a : ajudants) a.setProbCut(probcut);
+        if (pondera != null) pondera.setProbCut(probcut);
+    }
+
+    /**
+     * Fa servir una memòria cau de l'heurística a tots els fils. Es pot
+     * compartir amb altres jugadors.
+     * 
+     * @param cache Memòria cau (per exemple new EvalCache(EvalCache.MIDA)),
+     *          o null per calcular sempre l'heurística.
+     */
+    public void setEvalCache(EvalCache cache) {
+        aturaPonder();
+        this.cache = cache;
+        search.setEvalCache(cache);
+        for (Search a : ajudants) a.setEvalCache(cache);
+        if (pondera != null) pondera.setEvalCache(cache);
+    }
+
+    /**
+     * Canvia l'avaluació de les fulles de tots els fils. Per defecte és
+     * l'heurística original (Evaluator.PATRONS): TrainedEval juga millor a
+     * igual profunditat, però cada fulla costa tres o quatre vegades més.
+     * Com que els valors guardats depenen de l'avaluació, es buiden la
+     * taula de transposicions i la memòria cau. La calibració de ProbCut
+     * també en depèn: cal posar la de la nova avaluació
+     * (ProbCut.perDefecte(avaluacio)).
+     * 
+     * @param avaluacio Avaluació (per exemple TrainedEval.perDefecte() o uns
+     *          pesos carregats amb TrainedEval.carrega), o Evaluator.PATRONS
+     *          per a l'original.
+     */
+    public void setEvaluator(Evaluator avaluacio) {
+        aturaPonder();
+        this.avaluacio = avaluacio;
+        search.setEvaluator(avaluacio);
+        for (Search a : ajudants) a.setEvaluator(avaluacio);
+        if (pondera != null) pondera.setEvaluator(avaluacio);
+        tt.clear();
+        if (cache != null) cache.clear();
+    }
+
+    /**
+     * Fa que la taula de transposicions de tots els fils faci servir el
+     * hash canònic (Symmetry.hash), perquè les posicions simètriques
+     * comparteixin entrada. Com que les claus canvien, es buida la taula.
+     * Les fulles s'avaluen en la forma canònica, de manera que el valor
+     * d'una posició no depèn de l'orientació que s'ha cercat primer. La
+     * memòria cau de l'heurística té la seva pròpia opció
+     * (new EvalCache(mida, true)); si no és canònica no es fa servir.
+     * 
+     * @param canonica Cert per fer servir el hash canònic.
+     */
+    public void setCanonica(boolean canonica) {
+        aturaPonder();
+        this.canonica = canonica;
+        search.setCanonica(canonica);
+        for (Search a : ajudants) a.setCanonica(canonica);
+        if (pondera != null) pondera.setCanonica(canonica);
+        tt.clear();
+    }
+
+    /**
+     * @return Memòria cau de l'heurística, o null si no se'n fa servir.
+     */
+    public EvalCache getEvalCache() {
+        return cache;
+    }
+
+    /**
+     * Activa o desactiva el pondering: quan el jugador retorna un moviment
+     * continua cercant en un fil de fons la posició que quedaria després
+     * de la resposta més probable del rival (la que ha trobat la cerca).
+     * 
+     * Si el rival fa aquesta resposta, la cerca de fons continua fins al
+     * límit de temps del moviment i se'n fa servir el resultat. Si en fa
+     * una altra, s'atura. En tots dos casos el que s'ha cercat queda a la
+     * taula de transposicions i aprofita a la cerca següent.
+     * 
+     * @param ponder Cert per pensar durant el torn del rival.
+     */
+    public void setPonder(boolean ponder) {
+        if (!ponder) aturaPonder();
+        else if (pensador == null) {
+            pondera = new Search(tt);
+            pondera.setAlgorisme(algorisme);
+            pondera.setProbCut(probcut);
+            pondera.setEvalCache(cache);
+            pondera.setEvaluator(avaluacio);
+            pondera.setCanonica(canonica);
+            pensador = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name + "-ponder");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        this.ponder = ponder;
+    }
+
+    /**
+     * Escriu les estadístiques de cada moviment, una línia per moviment.
+     * Amb CSV primer s'escriu la capçalera. Si l'escriptura falla es deixa
+     * d'escriure però el jugador continua jugant.
+     * 
+     * @param sortida On s'escriuen (per exemple un BufferedWriter), o null
+     *          per no escriure-les.
+     * @param format JSON o CSV.
+     * @throws IOException Si no es pot escriure la capçalera.
+     */
+    public void setRegistre(Appendable sortida, SearchStats.Format format) throws IOException {
+        this.registre = sortida;
+        this.formatRegistre = format;
+        if (sortida != null && format == SearchStats.Format.CSV) {
+            sortida.append(SearchStats.capcaleraCsv()).append('\n');
+        }
     }
 
     /**
@@ -60,395 +342,335 @@ public class PlayerID implements IPlayer, IAuto{
      */
     @Override
     public Move move(GameStatus s) {
-        this.me = s.getCurrentPlayer();
-        this.deepth = 1;
-        this.n_nodes = 0;
-        ArrayList<Point> moves =  s.getMoves();
-        if(moves.isEmpty())
-        {
-            // no podem moure, el moviment (de tipus Point) es passa null.
-            return new Move(null, 0L,0,  SearchType.RANDOM);
-        } else {
-            // hi ha possibles moviments a fer:
-            TIMEOUT = false;
-            int moviment = 0;
-            double valor = Integer.MIN_VALUE;
-            while(!TIMEOUT && deepth < max_deepth)
-            {
-                for (int i = 0; i < moves.size(); i++) {
-                   GameStatus a = new GameStatus(s);
-
-                    a.movePiece(moves.get(i));
-                    n_nodes += 1;
-                    if (a.isGameOver()){
-                        return new Move( moves.get(moviment), 0L, 0, SearchType.MINIMAX);
-                    } else {
-                        double min = minValor(a, deepth, Integer.MIN_VALUE, Integer.MAX_VALUE);
-                        if (valor < min){
-                            valor = min;
-                            moviment = i;
-                        }
-                    }                
-                }
-                deepth += 1;
-            }
-            return new Move( moves.get(moviment), n_nodes, deepth, SearchType.MINIMAX);         
-        }
+        return move(new Bitboard(s));
     }
     
     /**
-     * Funció maximitzadora del Minimax.
+     * Decideix el moviment del jugador directament sobre un Bitboard, sense
+     * passar per GameStatus (per als bancs de proves i les eines).
+     *
+     * @param arrel Tauler i estat actual de joc.
+     * @return el moviment que fa el jugador.
+     */
+    public Move move(Bitboard arrel) {
+        ultim = -1;
+        Move m = recullPonder(arrel);
+        if (m == null) m = decideix(arrel);
+        registra();
+        if (intervalTaula > 0 && ++movimentsTaula % intervalTaula == 0) desaTaulaDeFons();
+        if (ponder && ultim >= 0) iniciaPonder(arrel, ultim);
+        return m;
+    }
+    
+    /**
+     * Decideix el moviment amb el llibre, el final exacte o la cerca.
      * 
-     * @param s Tauler i estat actual de joc.
-     * @param mdp Profunditat maxima a la que ha d'arribar.
-     * @param alpha Valor de alfa del minimax amb poda alfa-beta.
-     * @param beta Valor de beta del minimax amb poda alfa-beta.
-     * @return Retorna el valor maxim dels possibles movimens a fer.
+     * @param arrel Tauler i estat actual de joc.
+     * @return el moviment que fa el jugador.
+     */
+    private Move decideix(Bitboard arrel) {
+        Move m = decisio.decideix(arrel, System.nanoTime(), llibre, buides_final, max_deepth, ajudants.length > 0 ? smp : null);
+        darreres = decisio.getEstadistiques();
+        ultim = decisio.getMoviment();
+        return m;
+    }
+    
+    /**
+     * Comença la cerca dels fils d'ajuda a la posició arrel.
      */
-    private double maxValor(GameStatus s, int mdp, double alpha, double beta)
+    private void iniciaAjudants(Bitboard arrel)
     {
-        double valor = Integer.MIN_VALUE;
-         if (mdp == 0) {
-            return heuristic(s);
-        }       
-        if (s.currentPlayerCanMove()){
-            // El jugador actual pot moure doncs busquem els moviments
-            ArrayList<Point> moves = s.getMoves();
-            if (TIMEOUT) {
-                //System.out.println(mdp);
-                return heuristic(s);
-            }
-            else for (int i = 0; i < moves.size(); i++) {
-                
-                
-                GameStatus a = new GameStatus(s);
-                
-                a.movePiece(moves.get(i));
-                n_nodes += 1;
-                if (a.isGameOver()){
-                    if (a.GetWinner() == me) {
-                        return Integer.MAX_VALUE;
-                    } else {
-                        return Integer.MIN_VALUE;
-                    }
-                } else {
-                    double min = minValor(a, mdp - 1, alpha, beta);
-                    valor = Math.max(valor, min);
-                    if (beta <= valor) return valor;
-                    alpha = Math.max(valor, alpha);
-                }
-            }
+        for (int i = 0; i < ajudants.length; i++) {
+            Search a = ajudants[i];
+            Bitboard copia = new Bitboard(arrel);
+            // la meitat dels ajudants comença una profunditat per davant
+            int primera = 1 + (i + 1) % 2;
+            a.preparaCerca();
+            tasques[i] = fils.submit(() -> a.cerca(copia, max_deepth, primera));
         }
-        return valor;
     }
     
-    
     /**
-     * Funció minimitzadora del minimax.
+     * Comença a pensar en el torn del rival. La resposta que es preveu és
+     * el millor moviment que la cerca ha guardat a la taula per a la
+     * posició després del nostre moviment. Si no n'hi ha cap, o la
+     * posició prevista és un final que es resoldrà exactament, no es pensa.
      * 
-     * @param s Tauler i estat actual de joc.
-     * @param mdp Profunditat maxima a la que ha d'arribar.
-     * @param alpha Valor de alfa del minimax amb poda alfa-beta.
-     * @param beta Valor de beta del minimax amb poda alfa-beta.
-     * @return Retorna el valor minim dels possibles movimens a fer.
+     * @param arrel Posició on hem mogut.
+     * @param sq Casella on hem mogut.
      */
-    private double minValor(GameStatus s, int mdp, double alpha, double beta)
+    private void iniciaPonder(Bitboard arrel, int sq)
     {
-        double valor = Integer.MAX_VALUE;
-        if (mdp == 0) {
-            return heuristic(s);
-        }        
-        if (s.currentPlayerCanMove()){
-            // El jugador actual pot moure doncs busquem els moviments
-            ArrayList<Point> moves = s.getMoves();
-            if (TIMEOUT) {
-                //System.out.println(mdp);
-                return heuristic(s);
-            }
-            else for (int i = 0; i < moves.size(); i++) {
-                
-                GameStatus a = new GameStatus(s);
-                a.movePiece(moves.get(i));
-                n_nodes += 1;
-                if (a.isGameOver()){
-                    if (a.GetWinner() == me) {
-                        return Integer.MAX_VALUE;
-                    } else {
-                        return Integer.MIN_VALUE;
-                    }
-                } else {
-                    double max = maxValor(a, mdp  - 1, alpha, beta);
-                    valor = Math.min(valor, max);
-                    if (valor <= alpha) return valor;
-                    beta = Math.min(valor, beta);
-                }
-            }
+        Bitboard b = new Bitboard(arrel);
+        b.fesMoviment(sq);
+        if (b.isGameOver()) return;
+        if (!b.currentPlayerCanMove()) {
+            // el rival passa i tornem a moure nosaltres
+            b.passa();
+        } else {
+            int resposta = search.movimentTaula(b);
+            if (resposta == TranspositionTable.SENSE_MOVIMENT
+                    || (b.getMoviments() & (1L << resposta)) == 0) return;
+            b.fesMoviment(resposta);
+            if (!b.currentPlayerCanMove()) return;
         }
-        return valor;
+        if (b.getBuides() <= buides_final) return;
+        posicioPonder = b;
+        Bitboard copia = new Bitboard(b);
+        tt.novaCerca();
+        pondera.preparaCerca();
+        tascaPonder = pensador.submit(() -> pondera.cerca(copia, max_deepth));
     }
     
-    
     /**
-     * Funció que s'encarrega de retornar el valor final de les heurístiques
-     * balancejades ja que cadascuna ha de tenir un valor.
+     * Recull la cerca de fons quan torna a ser el nostre torn. Si el rival
+     * ha fet la resposta prevista, la deixa continuar fins al límit de
+     * temps i en retorna el resultat; si no, l'atura.
      * 
-     * @param s
-     * @return retorna un valor que representa l'estat del joc en termes númerics
+     * @param arrel Posició actual.
+     * @return El moviment trobat pensant o null si s'ha de cercar.
      */
-    private double heuristic(GameStatus s)
+    private Move recullPonder(Bitboard arrel)
     {
-        return 10*esquines(s) + 4*preEsquines(s) + 
-               4*costatsParells(s)+ 7*costats(s) + 7*zonaPerill(s);
+        if (tascaPonder == null) return null;
+        Bitboard prevista = posicioPonder;
+        boolean encert = prevista.getJugador() == arrel.getJugador()
+                && prevista.getRival() == arrel.getRival()
+                && prevista.getCurrentPlayer() == arrel.getCurrentPlayer();
+        if (!encert) {
+            aturaPonder();
+            return null;
+        }
+        temps.inicia();
+        long restant = temps.getTempsRestant();
+        int moviment;
+        boolean limit = false;
+        try {
+            if (restant == Long.MAX_VALUE) moviment = tascaPonder.get();
+            else moviment = tascaPonder.get(restant, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            limit = true;
+            pondera.timeout();
+            moviment = espera(tascaPonder);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pondera.timeout();
+            moviment = espera(tascaPonder);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        tascaPonder = null;
+        if (moviment < 0 || pondera.getDeepth() == 0) return null;
+        ultim = moviment;
+        darreres = pondera.getEstadistiques();
+        darreres.setPonder(true);
+        if (limit) darreres.setMotiu(SearchStats.MotiuAturada.LIMIT_DUR);
+        return new Move(Bitboard.toPoint(moviment), pondera.getNodes(), pondera.getDeepth(), SearchType.MINIMAX);
     }
     
-    
     /**
-     * Funció que calcula la puntuació que te un tauler segons 
-     * el numero de fitxes que hi ha a la "zona de perill" del tauler
-     * depenent del color d'aquestes.
-     * 
-     * @param s Tauler i estat actual de joc.
-     * @return Retorna el valor de la zona de perill (positiu en cas
-     *          de guanyar a favor de Meruem, negatiu en cas contrari)
-     */
-    private double zonaPerill(GameStatus s) {
-        double meves = 0;
-        double enemy = 0;
-        double ValZonaPerill = 0;
-        int size = s.getSize()-1;
-        for (int i  = 1; i < size-1; i++) {
-            if (s.getPos(1,i) == me)
-                meves++;
-            else if (s.getPos(1,i) == me.opposite(me))
-                enemy++;
-            
-            if (s.getPos(size-1,i) == me)
-                meves++;
-            else if (s.getPos(size-1,i) == me.opposite(me))
-                enemy++;
-            
-            if (s.getPos(i,1) == me)
-                meves++;
-            else if (s.getPos(i,1) == me.opposite(me))
-                enemy++;
-            
-            if (s.getPos(i,size-1) == me)
-                meves++;
-            else if (s.getPos(i,size-1) == me.opposite(me))
-                enemy++;
+     * Escriu les estadístiques de l'últim moviment al registre.
+     */
+    private void registra()
+    {
+        if (registre == null || darreres == null) return;
+        try {
+            registre.append(darreres.format(formatRegistre)).append('\n');
+            if (registre instanceof Flushable) ((Flushable) registre).flush();
+        } catch (IOException e) {
+            System.err.println(name + ": no es poden escriure les estadístiques: " + e.getMessage());
+            registre = null;
         }
-        
-        if (meves + enemy != 0)
-            ValZonaPerill = (enemy - meves)/(enemy + meves);
-        return ValZonaPerill;
     }
     
-    
     /**
-     * Funció que s'encarrega de calcular la dominància que hi ha
-     * sobre els costats
+     * Fa servir un fitxer per conservar la taula de transposicions entre
+     * execucions: la carrega ara si existeix i és compatible, la desa en
+     * sortir de la JVM i, si interval és positiu, cada interval moviments
+     * en un fil de fons (sense aturar la partida).
      * 
-     * @param s Tauler i estat actual de joc.
-     * @return Retorna un valor positiu en cas de que nosaltres dominem els costats
-     *          i un valor negatiu en cas contrari
+     * Només es carrega una taula desada amb la mateixa configuració
+     * (avaluació, algorisme, hash canònic i, amb el minimax, color), de
+     * manera que s'ha de cridar després de configurar el jugador. Si el
+     * fitxer està malmès s'avisa i es comença amb la taula buida.
+     * 
+     * @param fitxer Fitxer de la taula, o null per deixar de desar-la.
+     * @param interval Cada quants moviments es desa, 0 per desar-la només
+     *          en sortir (o amb desaTaula).
+     * @return Cert si s'ha carregat una taula.
      */
-    private double costats(GameStatus s)
-    {
-        
-        double costatsMe = 0;
-        double costatsEn = 0;
-        double ValCostats = 0;
-        int size = s.getSize()-1;
-        //bucle que recorre els costats y compara a parells
-        for (int i = 2; i < size-2; i++) {
-            //costats verticals
-                if (s.getPos(i,0) == me){
-                    costatsMe+=1;
-                }
-                else if (s.getPos(i,0) == me.opposite(me)) {
-                    costatsEn+=1;
-                }
-                if (s.getPos(i,size) == me){
-                    costatsMe+=1;
-                }
-                else if (s.getPos(i,size) == me.opposite(me)) {
-                    costatsEn+=1;
+    public boolean setFitxerTaula(Path fitxer, int interval) {
+        aturaPonder();
+        boolean primer = fitxerTaula == null;
+        this.fitxerTaula = fitxer;
+        this.intervalTaula = interval;
+        if (fitxer == null) return false;
+        if (primer) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    desaTaula();
+                } catch (IOException e) {
+                    System.err.println(name + ": no s'ha pogut desar la taula: " + e.getMessage());
                 }
-                
-            //Costats horitzontals
-                if (s.getPos(0,i) == me){
-                    costatsMe+=1;
-                }
-                else if (s.getPos(0,i) == me.opposite(me)) {
-                    costatsEn+=1;
-                }
-                if (s.getPos(size,i) == me){
-                    costatsMe+=1;
-                }
-                else if (s.getPos(size,i) == me.opposite(me)) {
-                    costatsEn+=1;
+            }, name + "-desa"));
+        }
+        try {
+            if (algorisme != Search.Algorisme.MINIMAX) return tt.carrega(fitxer, perfilTaula(null));
+            // amb el minimax la taula és del color que jugava
+            for (CellType c : new CellType[]{CellType.PLAYER1, CellType.PLAYER2}) {
+                if (tt.carrega(fitxer, perfilTaula(c))) {
+                    decisio.setColor(c);
+                    return true;
                 }
+            }
+        } catch (IOException e) {
+            System.err.println(name + ": no s'ha pogut carregar la taula: " + e.getMessage());
         }
-        if (costatsMe - costatsEn != 0)
-            ValCostats = (costatsMe - costatsEn)/(costatsMe + costatsEn);
-        return ValCostats;
+        return false;
     }
-    
-    
+
     /**
-     * Funció que s'encarrega de calcular la dominància dels costats
-     * pero en aquesta es mira que els costats siguin simetrics.
+     * Desa la taula de transposicions al fitxer de setFitxerTaula, si
+     * n'hi ha. Amb el minimax no es desa fins que el jugador sap el seu
+     * color, perquè els valors de la taula són des del seu punt de vista i
+     * sense color no es podria tornar a carregar.
      * 
-     * @param s Tauler i estat actual de joc.
-     * @return Retorna un valor positiu en cas de tenir major dominància.
-     *  
+     * @throws IOException Si no es pot escriure.
+     */
+    public void desaTaula() throws IOException {
+        Path fitxer = fitxerTaula;
+        if (fitxer == null) return;
+        CellType me = decisio.getColor();
+        if (algorisme == Search.Algorisme.MINIMAX && me == null) return;
+        synchronized (tt) {
+            tt.desa(fitxer, perfilTaula(me));
+        }
+    }
+
+    /**
+     * Desa la taula en un fil de fons, si no s'està desant ja.
+     */
+    private void desaTaulaDeFons() {
+        if (tascaDesa != null && !tascaDesa.isDone()) return;
+        if (desador == null) {
+            desador = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name + "-desa");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        tascaDesa = desador.submit(() -> {
+            try {
+                desaTaula();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Identifica la configuració de la qual depenen els valors de la
+     * taula, per no carregar-ne una d'incompatible.
      * 
+     * @param color Color del jugador; només compta amb el minimax.
+     */
+    private long perfilTaula(CellType color) {
+        long e;
+        if (avaluacio == Evaluator.PATRONS) e = 1;
+        else if (avaluacio == Evaluator.AMPLIADA) e = 2;
+        else if (avaluacio instanceof TrainedEval) e = ((TrainedEval) avaluacio).empremta();
+        else e = avaluacio.getClass().getName().hashCode();
+        long p = e * 31 + algorisme.ordinal();
+        p = p * 31 + (canonica ? 1 : 0);
+        if (algorisme == Search.Algorisme.MINIMAX) p = p * 31 + (color == null ? 0 : color.ordinal() + 1);
+        return p;
+    }
+
+    /**
+     * Atura la cerca de fons, si n'hi ha, i espera que acabi. El que
+     * hagi cercat es queda a la taula de transposicions.
      */
-    private double costatsParells(GameStatus s) 
+    public void aturaPonder()
     {
-        double costatsMe = 0;
-        double costatsEn = 0;
-        double ValCostats = 0;
-        int size = s.getSize()-1;
-        //bucle que recorre els costats y compara a parells
-        for (int i = 1; i < size-1; i++) {
-            //costats verticals
-                if ((s.getPos(i,0) == me) && (s.getPos(i,size) == me)){
-                    costatsMe+=2;
-                }
-                else if ((s.getPos(i,0) == me.opposite(me)) &&
-                        (s.getPos(i,size) == me.opposite(me))) {
-                    costatsEn+=2;
-                }
-                
-            //Costats horitzontals
-                if ((s.getPos(0,i) == me) && (s.getPos(size,i) == me)){
-                    costatsMe+=2;
-                }
-                else if ((s.getPos(0,i) == me.opposite(me)) &&
-                        (s.getPos(size,i) == me.opposite(me))) {
-                    costatsEn+=2;
+        if (tascaPonder == null) return;
+        pondera.timeout();
+        espera(tascaPonder);
+        tascaPonder = null;
+    }
+    
+    private static int espera(Future<Integer> tasca)
+    {
+        boolean interromput = false;
+        try {
+            while (true) {
+                try {
+                    return tasca.get();
+                } catch (InterruptedException e) {
+                    interromput = true;
                 }
-                
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            if (interromput) Thread.currentThread().interrupt();
         }
-        if (costatsMe - costatsEn != 0)
-            ValCostats = (costatsMe - costatsEn)/(costatsMe + costatsEn);
-        return ValCostats;
     }
     
     
     /**
-    * Funció que calcula el número de cantonades sobre les que es
-    * té control, i sobre les que té control l'enemic.
-    * 
-    * @param s Tauler i estat actual de joc.
-    * @return Retorna un número positiu en cas de tenir major control
-    *          de les esquines que l'enemic, negatiu en cas contrari.
-    */
-    private double esquines(GameStatus s) 
+     * Atura els fils auxiliars quan el fil principal ha acabat i espera
+     * que acabin.
+     * 
+     * @return Nombre total de nodes explorats per tots els fils.
+     */
+    private long aturaAjudants()
     {
-        double meEsquines = 0;
-        double enEsquines = 0;
-        if (s.getPos(0,0) == me)
-            meEsquines+=1;
-        else if (s.getPos(0,0) == me.opposite(me))
-            enEsquines+=1;
-        if (s.getPos(0,s.getSize()-1) == me)
-            meEsquines+=1;
-        else if (s.getPos(0,s.getSize()-1) == me.opposite(me))
-            enEsquines+=1;
-        if (s.getPos(s.getSize()-1,0) == me)
-            meEsquines+=1;
-        else if (s.getPos(s.getSize()-1,0) == me.opposite(me))
-            enEsquines+=1;
-        if (s.getPos(s.getSize()-1, s.getSize()-1) == me)
-            meEsquines+=1;
-        else if (s.getPos(s.getSize()-1, s.getSize()-1) == me.opposite(me))
-            enEsquines+=1;
-        
-        double valEsquines = 0;
-        if (meEsquines + enEsquines != 0)
-            valEsquines = 100 * (meEsquines - enEsquines)/(meEsquines + enEsquines);
-        
-        return valEsquines;
+        for (Search a : ajudants) a.timeout();
+        nodesFil[0] = search.getNodes();
+        long total = nodesFil[0];
+        for (int i = 0; i < ajudants.length; i++) {
+            try {
+                tasques[i].get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            nodesFil[i + 1] = ajudants[i].getNodes();
+            total += nodesFil[i + 1];
+        }
+        return total;
     }
     
     
     /**
-     * Funció que s'encarrega de calcular el valor de les fitxes
-     * que es troben a les posicions que embolten les esquines
-     * 
-     * @param s Tauler i estat actual de joc.
-     * @return Retorna un número positiu si no estem en aquestes posicions
-     *          negatiu altrament.
+     * @return Estadístiques de l'últim moviment (les del fil principal si
+     *          la cerca és paral·lela), o null si encara no n'ha fet cap.
+     *          L'objecte es reutilitza als moviments següents.
      */
-    private double preEsquines(GameStatus s)
-    {
-        int gran = s.getSize()-2;
-        int gran2 = gran+1;
-        double mePreEsquines = 0;
-        double enPreEsquines = 0;
-        if (s.getPos(0,1) == me)
-            mePreEsquines++;
-        else if (s.getPos(0,1) == me.opposite(me))
-            enPreEsquines++;
-        if (s.getPos(1, 0) == me)
-            mePreEsquines++;
-        else if (s.getPos(1,0) == me.opposite(me))
-            enPreEsquines++;
-        if (s.getPos(1, 1) == me)
-            mePreEsquines++;
-        else if (s.getPos(1,1) == me.opposite(me))
-            enPreEsquines++;
-        
-        if (s.getPos(0, gran) == me)
-            mePreEsquines++;
-        else if (s.getPos(0,gran) == me.opposite(me))
-            enPreEsquines++;
-        if (s.getPos(gran2, 1) == me)
-            mePreEsquines++;
-        else if (s.getPos(gran2,1) == me.opposite(me))
-            enPreEsquines++;
-        if (s.getPos(gran, 1) == me)
-            mePreEsquines++;
-        else if (s.getPos(gran,1) == me.opposite(me))
-            enPreEsquines++;
-        
-        if (s.getPos(0,gran) == me)
-            mePreEsquines++;
-        else if (s.getPos(0,gran) == me.opposite(me))
-            enPreEsquines++;
-        if (s.getPos(1, gran2) == me)
-            mePreEsquines++;
-        else if (s.getPos(1,gran2) == me.opposite(me))
-            enPreEsquines++;
-        if (s.getPos(1, gran) == me)
-            mePreEsquines++;
-        else if (s.getPos(1,gran) == me.opposite(me))
-            enPreEsquines++;
-        
-        if (s.getPos(gran2,gran) == me)
-            mePreEsquines++;
-        else if (s.getPos(gran2,gran) == me.opposite(me))
-            enPreEsquines++;
-        if (s.getPos(gran, gran2) == me)
-            mePreEsquines++;
-        else if (s.getPos(gran,gran2) == me.opposite(me))
-            enPreEsquines++;
-        if (s.getPos(gran, gran) == me)
-            mePreEsquines++;
-        else if (s.getPos(gran,gran) == me.opposite(me))
-            enPreEsquines++;
-        
-        double valPreEsquines = 0;
-        
-        if (mePreEsquines + enPreEsquines != 0)
-            valPreEsquines = 100 * (enPreEsquines - mePreEsquines)/(mePreEsquines + enPreEsquines);
-        
-        return valPreEsquines;
+    public SearchStats getEstadistiques() {
+        return darreres;
+    }
+    
+    /**
+     * @return Nodes explorats per cada fil a l'últim moviment, el primer és
+     *          el fil principal.
+     */
+    public long[] getNodesPerFil() {
+        return nodesFil.clone();
     }
     
     
+    /**
+     * Permet consultar els comptadors de talls beta de l'últim moviment
+     * i activar o desactivar l'ordenació de moviments.
+     * 
+     * @return L'ordenació de moviments del jugador.
+     */
+    public MoveOrdering getMoveOrdering() {
+        return search.getMoveOrdering();
+    }
+    
     
     /**
      * Funció que retorna un string que és el nom del jugador.
@@ -0,0 +1,312 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+
+/**
+ * Paràmetres de Multi-ProbCut.
+ *
+ * ProbCut estima el valor d'una cerca a profunditat d a partir d'una cerca
+ * superficial a profunditat s amb una regressió lineal
+ *
+ *   v(d) ~ a * v(s) + b,  amb error de desviació típica sigma.
+ *
+ * Si la cerca superficial diu que v(d) supera beta (o queda per sota
+ * d'alfa) amb prou confiança, el node es talla sense fer la cerca
+ * profunda. Multi-ProbCut fa servir paràmetres diferents per a cada fase
+ * de la partida i prova dues profunditats superficials, d/4 i d/2, de més
+ * barata a més cara.
+ *
+ * Els paràmetres els genera ProbCutCalibrator a partir de posicions de
+ * partides jugades pel programa i només valen per a l'avaluació amb què
+ * s'han calculat. Els de perDefecte() són els d'una calibració amb
+ * l'heurística de PatternEval, l'avaluació per defecte de PlayerID. Els
+ * dels pesos de TrainedEval.perDefecte() són a TrainedEval, i
+ * perDefecte(avaluacio) tria els que toquen.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class ProbCut {
+
+    /** Nombre de fases de la partida. */
+    public static final int FASES = 4;
+
+    /** Profunditat mínima on es prova de tallar. */
+    public static final int MIN_D = 3;
+
+    /** Profunditat màxima calibrada. Per sobre es fan servir els paràmetres de MAX_D o MAX_D - 1. */
+    public static final int MAX_D = 10;
+
+    /** Confiança per defecte (en desviacions típiques) per tallar. */
+    public static final double LLINDAR = 1.5;
+
+    /**
+     * Calibració per defecte: fase, d, s, a, b, sigma. Generada amb
+     * ProbCutCalibrator sobre 800 posicions (200 per fase,
+     * llavor 1).
+     */
+    private static final double[][] DEFECTE = {
+        {0, 3, 0, 1.0833, 9.924, 68.587},
+        {0, 3, 1, 1.0268, -1.002, 44.228},
+        {0, 4, 1, 1.0596, -9.106, 64.892},
+        {0, 4, 2, 1.0486, -6.060, 62.387},
+        {0, 5, 1, 1.0897, -3.913, 91.780},
+        {0, 5, 2, 1.0781, -0.773, 90.253},
+        {0, 6, 1, 1.1140, -12.430, 110.105},
+        {0, 6, 3, 1.0854, -11.356, 98.519},
+        {0, 7, 1, 1.1139, -11.212, 110.205},
+        {0, 7, 3, 1.0853, -10.137, 98.646},
+        {0, 8, 2, 1.1067, -10.228, 109.655},
+        {0, 8, 4, 1.0550, -3.826, 88.235},
+        {0, 9, 2, 1.1067, -8.576, 110.304},
+        {0, 9, 4, 1.0550, -2.174, 89.038},
+        {0, 10, 2, 1.1120, -11.250, 110.227},
+        {0, 10, 5, 1.0345, -10.520, 52.355},
+        {1, 3, 0, 1.0257, -3.653, 85.980},
+        {1, 3, 1, 1.0157, -4.207, 73.033},
+        {1, 4, 1, 1.0287, -2.805, 107.226},
+        {1, 4, 2, 1.0273, 1.376, 97.999},
+        {1, 5, 1, 1.0329, -1.809, 109.597},
+        {1, 5, 2, 1.0313, 2.390, 100.690},
+        {1, 6, 1, 1.0256, 3.791, 131.174},
+        {1, 6, 3, 1.0104, 8.030, 107.188},
+        {1, 7, 1, 1.0280, 10.342, 158.037},
+        {1, 7, 3, 1.0129, 14.589, 138.446},
+        {1, 8, 2, 1.0254, 6.228, 162.119},
+        {1, 8, 4, 1.0013, 4.805, 123.689},
+        {1, 9, 2, 1.0402, 23.572, 202.655},
+        {1, 9, 4, 1.0148, 22.144, 173.794},
+        {1, 10, 2, 1.0412, 20.328, 224.424},
+        {1, 10, 5, 1.0115, 17.883, 197.843},
+        {2, 3, 0, 0.9680, 9.639, 220.192},
+        {2, 3, 1, 0.9905, -14.550, 171.441},
+        {2, 4, 1, 1.0007, -20.166, 228.353},
+        {2, 4, 2, 1.0026, 1.551, 185.268},
+        {2, 5, 1, 1.0000, 4.437, 247.888},
+        {2, 5, 2, 0.9984, 26.537, 215.621},
+        {2, 6, 1, 0.9949, 3.642, 279.218},
+        {2, 6, 3, 1.0109, 17.463, 206.975},
+        {2, 7, 1, 0.9827, 10.390, 304.027},
+        {2, 7, 3, 0.9998, 23.895, 239.080},
+        {2, 8, 2, 0.9779, 36.344, 318.826},
+        {2, 8, 4, 0.9872, 33.449, 242.189},
+        {2, 9, 2, 0.9755, 41.063, 348.195},
+        {2, 9, 4, 0.9865, 37.985, 277.536},
+        {2, 10, 2, 0.9777, 31.947, 368.352},
+        {2, 10, 5, 0.9993, 3.131, 270.411},
+        {3, 3, 0, 0.9640, -3.220, 274.227},
+        {3, 3, 1, 0.9639, -39.652, 215.310},
+        {3, 4, 1, 0.9626, -15.940, 214.704},
+        {3, 4, 2, 0.9943, 3.119, 116.798},
+        {3, 5, 1, 0.9017, -20.627, 264.855},
+        {3, 5, 2, 0.9326, -2.832, 201.202},
+        {3, 6, 1, 0.8697, 0.075, 289.719},
+        {3, 6, 3, 0.9055, 35.740, 206.747},
+        {3, 7, 1, 0.8427, -10.686, 299.979},
+        {3, 7, 3, 0.8751, 23.950, 231.601},
+        {3, 8, 2, 0.8440, 21.164, 261.335},
+        {3, 8, 4, 0.8567, 18.066, 224.949},
+        {3, 9, 2, 0.8150, 9.093, 270.868},
+        {3, 9, 4, 0.8264, 6.149, 240.126},
+        {3, 10, 2, 0.7908, 20.313, 262.776},
+        {3, 10, 5, 0.8504, 22.596, 194.076},
+    };
+
+    // [fase][d][k]: k = 0 per a s = d/4, k = 1 per a s = d/2
+    private final double[][][] a = new double[FASES][MAX_D + 1][2];
+    private final double[][][] b = new double[FASES][MAX_D + 1][2];
+    private final double[][][] sigma = new double[FASES][MAX_D + 1][2];
+    private double llindar = LLINDAR;
+
+
+    /**
+     * Constructora sense cap parell calibrat (no talla mai).
+     */
+    public ProbCut() {
+    }
+
+    /**
+     * @return Els paràmetres de la calibració per defecte, feta amb
+     *          Evaluator.PATRONS.
+     */
+    public static ProbCut perDefecte() {
+        return de(DEFECTE);
+    }
+
+    /**
+     * @param avaluacio Avaluació de les fulles de la cerca.
+     * @return Els paràmetres calibrats per a aquesta avaluació
+     *          (Evaluator.PATRONS o TrainedEval.perDefecte()), o null si no
+     *          n'hi ha i cal calcular-los amb ProbCutCalibrator.
+     */
+    public static ProbCut perDefecte(Evaluator avaluacio) {
+        if (avaluacio == Evaluator.PATRONS) return de(DEFECTE);
+        if (avaluacio != null && avaluacio == TrainedEval.perDefecte()) return de(TrainedEval.PROBCUT);
+        return null;
+    }
+
+    private static ProbCut de(double[][] taula) {
+        ProbCut pc = new ProbCut();
+        for (double[] f : taula) {
+            pc.set((int) f[0], (int) f[1], (int) f[2], f[3], f[4], f[5]);
+        }
+        return pc;
+    }
+
+    /**
+     * Llegeix els paràmetres escrits per ProbCutCalibrator: una línia per
+     * parell amb "fase d s a b sigma". Les línies que comencen per # s'ignoren.
+     *
+     * @param fitxer Fitxer de paràmetres.
+     * @return Els paràmetres.
+     * @throws IOException Si no es pot llegir el fitxer.
+     */
+    public static ProbCut carrega(Path fitxer) throws IOException {
+        ProbCut pc = new ProbCut();
+        try (BufferedReader in = Files.newBufferedReader(fitxer, StandardCharsets.UTF_8)) {
+            String s;
+            while ((s = in.readLine()) != null) {
+                s = s.trim();
+                if (s.isEmpty() || s.startsWith("#")) continue;
+                String[] c = s.split("\\s+");
+                pc.set(Integer.parseInt(c[0]), Integer.parseInt(c[1]), Integer.parseInt(c[2]),
+                       Double.parseDouble(c[3]), Double.parseDouble(c[4]), Double.parseDouble(c[5]));
+            }
+        }
+        return pc;
+    }
+
+    /**
+     * Fixa els paràmetres d'un parell de profunditats.
+     *
+     * @param fase Fase de la partida (vegeu fase).
+     * @param d Profunditat de la cerca profunda.
+     * @param s Profunditat de la cerca superficial, d/4 o d/2.
+     * @param a Pendent de la regressió.
+     * @param b Terme independent de la regressió.
+     * @param sigma Desviació típica de l'error.
+     */
+    public void set(int fase, int d, int s, double a, double b, double sigma) {
+        int k = index(d, s);
+        if (k < 0) throw new IllegalArgumentException("Parell de profunditats incorrecte: " + d + " " + s);
+        this.a[fase][d][k] = a;
+        this.b[fase][d][k] = b;
+        this.sigma[fase][d][k] = sigma;
+    }
+
+    /**
+     * @param llindar Confiança (en desviacions típiques) per tallar. Com més
+     *          gran, menys talls i menys errors.
+     */
+    public void setLlindar(double llindar) {
+        this.llindar = llindar;
+    }
+
+    /**
+     * @return Confiança (en desviacions típiques) per tallar.
+     */
+    public double getLlindar() {
+        return llindar;
+    }
+
+
+    /**
+     * @param buides Caselles buides.
+     * @return Fase de la partida, de 0 (obertura) a FASES - 1.
+     */
+    public static int fase(int buides) {
+        if (buides > 45) return 0;
+        if (buides > 30) return 1;
+        if (buides > 16) return 2;
+        return 3;
+    }
+
+    /**
+     * @param d Profunditat de la cerca profunda.
+     * @param k 0 o 1.
+     * @return Profunditat de la k-èsima cerca superficial (d/4 o d/2).
+     */
+    public static int superficial(int d, int k) {
+        return k == 0 ? d / 4 : d / 2;
+    }
+
+    private static int index(int d, int s) {
+        if (d < MIN_D || d > MAX_D) return -1;
+        if (s == superficial(d, 1)) return 1;
+        if (s == superficial(d, 0)) return 0;
+        return -1;
+    }
+
+    /**
+     * Profunditat calibrada que es fa servir per a una profunditat d: la
+     * mateixa si d no passa de MAX_D, o MAX_D o MAX_D - 1 (la de la mateixa
+     * paritat) si la passa.
+     */
+    private static int calibrada(int d) {
+        if (d <= MAX_D) return d;
+        return (d - MAX_D) % 2 == 0 ? MAX_D : MAX_D - 1;
+    }
+
+    /**
+     * @param fase Fase de la partida.
+     * @param d Profunditat de la cerca profunda.
+     * @param k 0 per a la primera cerca superficial, 1 per a la segona.
+     * @return Cert si hi ha paràmetres per a aquest parell.
+     */
+    boolean actiu(int fase, int d, int k) {
+        int c = calibrada(d);
+        return d >= MIN_D && sigma[fase][c][k] > 0 && (k == 1 || superficial(c, 0) != superficial(c, 1));
+    }
+
+    /**
+     * @return Profunditat de la cerca superficial per a la profunditat d.
+     *          Per sobre de MAX_D es manté la distància del parell calibrat.
+     */
+    int profunditat(int d, int k) {
+        int c = calibrada(d);
+        return d - (c - superficial(c, k));
+    }
+
+    /**
+     * @return Valor que ha de superar la cerca superficial per tallar per
+     *          sobre de beta.
+     */
+    double limitAlt(int fase, int d, int k, double beta) {
+        int c = calibrada(d);
+        return Math.ceil((beta + llindar * sigma[fase][c][k] - b[fase][c][k]) / a[fase][c][k]);
+    }
+
+    /**
+     * @return Valor per sota del qual ha de quedar la cerca superficial per
+     *          tallar per sota d'alfa.
+     */
+    double limitBaix(int fase, int d, int k, double alpha) {
+        int c = calibrada(d);
+        return Math.floor((alpha - llindar * sigma[fase][c][k] - b[fase][c][k]) / a[fase][c][k]);
+    }
+
+    /**
+     * Escriu els paràmetres en el format que llegeix carrega.
+     *
+     * @param sortida On s'escriuen.
+     * @throws IOException Si no es pot escriure.
+     */
+    public void escriu(Appendable sortida) throws IOException {
+        sortida.append("# fase d s a b sigma\n");
+        for (int f = 0; f < FASES; f++) {
+            for (int d = MIN_D; d <= MAX_D; d++) {
+                for (int k = 0; k < 2; k++) {
+                    if (sigma[f][d][k] <= 0 || (k == 0 && superficial(d, 0) == superficial(d, 1))) continue;
+                    sortida.append(String.format(Locale.ROOT, "%d %d %d %.4f %.3f %.3f\n",
+                            f, d, superficial(d, k), a[f][d][k], b[f][d][k], sigma[f][d][k]));
+                }
+            }
+        }
+    }
+}
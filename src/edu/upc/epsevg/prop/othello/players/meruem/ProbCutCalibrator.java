@@ -0,0 +1,245 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+
+/**
+ * Eina per calibrar els paràmetres de ProbCut.
+ *
+ * Juga partides del programa contra ell mateix (amb les primeres plies i
+ * alguns moviments a l'atzar perquè no siguin totes iguals) i en guarda
+ * posicions de totes les fases. De cada posició en calcula el valor PVS a
+ * totes les profunditats de 0 a ProbCut.MAX_D i, per a cada fase i parell
+ * de profunditats (d, s), ajusta per mínims quadrats la recta
+ *
+ *   v(d) = a * v(s) + b
+ *
+ * i la desviació típica de l'error. Les posicions on la cerca veu el
+ * final de la partida no es fan servir, perquè el seu valor no és de
+ * l'heurística. Per defecte l'avaluació és la de PlayerID
+ * (Evaluator.PATRONS); amb l'opció entrenada és TrainedEval.perDefecte(),
+ * i el resultat va a TrainedEval.PROBCUT.
+ *
+ * Ús: java ProbCutCalibrator probcut.txt [posicions per fase] [llavor] [entrenada]
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class ProbCutCalibrator {
+
+    /** Posicions per fase per defecte. */
+    public static final int POSICIONS = 100;
+
+    /** Plies a l'atzar al principi de cada partida. */
+    private static final int PLIES_ATZAR = 8;
+
+    /** Probabilitat de fer un moviment a l'atzar després de l'obertura. */
+    private static final double ATZAR = 0.1;
+
+    /** Probabilitat de guardar cada posició de la partida. */
+    private static final double MOSTRA = 0.15;
+
+    /** Profunditat de la cerca que tria els moviments de les partides. */
+    private static final int PROFUNDITAT_JOC = 4;
+
+    /** Mínim de posicions per ajustar un parell. */
+    private static final int MINIM = 10;
+
+    private final SplittableRandom atzar;
+    private final TranspositionTable tt = new TranspositionTable(1 << 20, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+    private final Search search = new Search(tt);
+    // valors[fase] = llista de v[0..MAX_D] de cada posició
+    private final List<List<double[]>> valors = new ArrayList<>();
+
+
+    /**
+     * Constructora
+     *
+     * @param llavor Llavor dels moviments a l'atzar.
+     */
+    public ProbCutCalibrator(long llavor) {
+        this(llavor, Evaluator.PATRONS);
+    }
+
+    /**
+     * Constructora
+     *
+     * @param llavor Llavor dels moviments a l'atzar.
+     * @param avaluacio Avaluació per a la qual es calibra.
+     */
+    public ProbCutCalibrator(long llavor, Evaluator avaluacio) {
+        this.atzar = new SplittableRandom(llavor);
+        this.search.setAlgorisme(Search.Algorisme.PVS);
+        this.search.setEvaluator(avaluacio);
+        for (int f = 0; f < ProbCut.FASES; f++) valors.add(new ArrayList<>());
+    }
+
+
+    /**
+     * Juga partides fins a tenir prou posicions de cada fase.
+     *
+     * @param posicions Posicions per fase.
+     * @param progres On s'escriu el progrés, o null.
+     * @throws IOException Si no es pot escriure el progrés.
+     */
+    public void recull(int posicions, Appendable progres) throws IOException {
+        while (falten(posicions)) {
+            Bitboard b = new Bitboard(OpeningBookBuilder.INICI_JUGADOR, OpeningBookBuilder.INICI_RIVAL, CellType.PLAYER1);
+            int ply = 0;
+            while (!b.isGameOver()) {
+                int[] moves = b.getMoves();
+                if (moves.length == 0) {
+                    b.passa();
+                    continue;
+                }
+                int fase = ProbCut.fase(b.getBuides());
+                if (ply >= PLIES_ATZAR && valors.get(fase).size() < posicions && atzar.nextDouble() < MOSTRA) {
+                    valors.get(fase).add(avalua(b));
+                    if (progres != null) {
+                        progres.append(String.format(Locale.ROOT, "%d %d %d %d\n",
+                                valors.get(0).size(), valors.get(1).size(), valors.get(2).size(), valors.get(3).size()));
+                    }
+                }
+                int sq;
+                if (ply < PLIES_ATZAR || atzar.nextDouble() < ATZAR) {
+                    sq = moves[atzar.nextInt(moves.length)];
+                } else {
+                    search.preparaCerca();
+                    sq = search.cerca(b, PROFUNDITAT_JOC);
+                }
+                b.movePiece(sq);
+                ply++;
+            }
+        }
+    }
+
+    private boolean falten(int posicions) {
+        for (List<double[]> v : valors) {
+            if (v.size() < posicions) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Valor de la posició a cada profunditat de 0 a ProbCut.MAX_D.
+     */
+    private double[] avalua(Bitboard b) {
+        double[] v = new double[ProbCut.MAX_D + 1];
+        tt.clear();
+        // de menys a més profunditat, perquè cada cerca aprofiti la taula de l'anterior
+        for (int d = 0; d <= ProbCut.MAX_D; d++) {
+            search.preparaCerca();
+            v[d] = search.valor(b, d);
+        }
+        return v;
+    }
+
+    /**
+     * Ajusta la regressió de cada fase i parell de profunditats.
+     *
+     * @return Els paràmetres calibrats.
+     */
+    public ProbCut ajusta() {
+        ProbCut pc = new ProbCut();
+        for (int f = 0; f < ProbCut.FASES; f++) {
+            for (int d = ProbCut.MIN_D; d <= ProbCut.MAX_D; d++) {
+                for (int k = 0; k < 2; k++) {
+                    int s = ProbCut.superficial(d, k);
+                    double[] r = regressio(valors.get(f), s, d);
+                    if (r != null) pc.set(f, d, s, r[0], r[1], r[2]);
+                }
+            }
+        }
+        return pc;
+    }
+
+    /**
+     * Mínims quadrats de v[d] respecte de v[s].
+     *
+     * @return {a, b, sigma}, o null si no hi ha prou posicions.
+     */
+    private static double[] regressio(List<double[]> mostres, int s, int d) {
+        double n = 0, sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (double[] v : mostres) {
+            if (!valid(v)) continue;
+            n++;
+            sx += v[s];
+            sy += v[d];
+            sxx += v[s] * v[s];
+            sxy += v[s] * v[d];
+        }
+        double det = n * sxx - sx * sx;
+        if (n < MINIM || det <= 0) return null;
+        double a = (n * sxy - sx * sy) / det;
+        double b = (sy - a * sx) / n;
+        if (a <= 0) return null;
+        double e2 = 0;
+        for (double[] v : mostres) {
+            if (!valid(v)) continue;
+            double e = v[d] - (a * v[s] + b);
+            e2 += e * e;
+        }
+        return new double[]{a, b, Math.sqrt(e2 / (n - 2))};
+    }
+
+    /**
+     * @return Fals si a alguna profunditat la cerca ha vist el final de la partida.
+     */
+    private static boolean valid(double[] v) {
+        for (double x : v) {
+            if (Math.abs(x) >= Search.VICTORIA) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param fase Fase de la partida.
+     * @return Posicions recollides de la fase.
+     */
+    public int getPosicions(int fase) {
+        return valors.get(fase).size();
+    }
+
+
+    /**
+     * Calibra ProbCut i escriu els paràmetres.
+     *
+     * @param args Fitxer de sortida i, opcionalment, les posicions per fase
+     *          i la llavor.
+     * @throws IOException Si no es pot escriure el fitxer.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Ús: ProbCutCalibrator probcut.txt [posicions] [llavor] [entrenada]");
+            System.exit(1);
+        }
+        int posicions = args.length > 1 ? Integer.parseInt(args[1]) : POSICIONS;
+        long llavor = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        Evaluator avaluacio = Evaluator.PATRONS;
+        if (args.length > 3 && args[3].equals("entrenada")) {
+            avaluacio = TrainedEval.perDefecte();
+            if (avaluacio == null) {
+                System.err.println("No es troben els pesos " + TrainedEval.PESOS);
+                System.exit(1);
+            }
+        }
+        ProbCutCalibrator calibrador = new ProbCutCalibrator(llavor, avaluacio);
+        calibrador.recull(posicions, System.err);
+        ProbCut pc = calibrador.ajusta();
+        Path desti = Paths.get(args[0]);
+        try (Writer out = Files.newBufferedWriter(desti, StandardCharsets.UTF_8)) {
+            pc.escriu(out);
+        }
+        pc.escriu(System.out);
+    }
+}
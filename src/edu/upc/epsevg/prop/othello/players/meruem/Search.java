@@ -0,0 +1,1067 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import java.util.Arrays;
+
+
+/**
+ * Nucli de la cerca minimax amb poda alfa-beta i aprofundiment iteratiu.
+ *
+ * Tota la cerca es fa sobre un únic Bitboard: cada moviment s'aplica in situ
+ * i les fitxes girades i el hash anterior es guarden en una pila preparada
+ * a la constructora, de manera que en tornar del fill es pot restaurar la
+ * posició sense crear cap objecte nou per node.
+ *
+ * Hi ha dos algorismes. MINIMAX és el minimax original amb dues funcions
+ * (maxValor i minValor) i finestra completa. PVS és un negamax amb cerca
+ * de la variant principal: el primer moviment de cada node es cerca amb
+ * la finestra (alfa, beta) i la resta amb una finestra nul·la, només per
+ * comprovar que no milloren alfa; si algun la millora es torna a cercar
+ * amb la finestra sencera. A més, a partir de la segona iteració l'arrel
+ * es cerca amb una finestra d'aspiració al voltant del valor de la
+ * iteració anterior, que s'eixampla si el valor en surt. Amb PVS
+ * l'heurística s'arrodoneix a enters perquè la finestra nul·la tingui
+ * amplada 1, i una partida acabada val la diferència de fitxes per
+ * VICTORIA. Opcionalment, els nodes de finestra nul·la de PVS es poden
+ * tallar amb Multi-ProbCut.
+ *
+ * Quan la cerca s'atura a mitja iteració (per timeout o perquè el
+ * TimeManager ha arribat al límit dur) el resultat d'aquella iteració es
+ * descarta i es retorna el de l'última iteració acabada.
+ *
+ * A més de cerca, que només busca el millor moviment, analitza fa una
+ * anàlisi multi-PV amb la mateixa cerca PVS: retorna els K millors
+ * moviments de l'arrel amb el valor exacte i la variant principal.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class Search {
+
+    /**
+     * Algorisme de cerca.
+     */
+    public enum Algorisme {
+        /** Minimax amb poda alfa-beta i finestra completa. */
+        MINIMAX,
+        /** Negamax amb cerca de la variant principal i finestres d'aspiració. */
+        PVS
+    }
+
+    /** Valor d'una fitxa de diferència en una partida acabada (amb PVS). */
+    public static final double VICTORIA = 10000;
+
+    /** Amplada inicial de la finestra d'aspiració a cada costat. */
+    private static final double ASPIRACIO = 50;
+
+    /** A partir d'aquesta amplada la finestra d'aspiració passa a ser completa. */
+    private static final double ASPIRACIO_MAX = 800;
+
+    private static final double INFINIT = Integer.MAX_VALUE;
+
+    private final TranspositionTable tt;
+    private final MoveOrdering ordenacio;
+    private final long[] pilaGirs = new long[MoveOrdering.MAX_PLY];
+    private final long[] pilaHash = new long[MoveOrdering.MAX_PLY];
+    private final int[] movesArrel = new int[64];
+    private int nArrel;
+    private CellType me;
+    private int deepth;
+    private int completada;
+    private volatile boolean TIMEOUT;
+    private long n_nodes;
+    private TimeManager temps;
+    private boolean limitDur;
+    private long ttConsultes;
+    private long ttEncerts;
+    private long ttTalls;
+    private long cacheConsultes;
+    private long cacheEncerts;
+    private final SearchStats estadistiques = new SearchStats();
+    private Algorisme algorisme = Algorisme.MINIMAX;
+    private boolean partidaAcabada;
+    private double valorArrel;
+    private int millorArrel;
+    private ProbCut probcut;
+    private EvalCache cache;
+    private Evaluator avaluacio = Evaluator.PATRONS;
+    private boolean canonica;
+    private long limitNodes = Long.MAX_VALUE;
+
+    /** Cada quants nodes es mira el rellotge (ha de ser 2^k - 1). */
+    private static final long COMPROVA_TEMPS = 1023;
+
+
+    /**
+     * Constructora
+     *
+     * @param tt Taula de transposicions on es guarden els resultats.
+     */
+    public Search(TranspositionTable tt) {
+        this.tt = tt;
+        this.ordenacio = new MoveOrdering();
+    }
+
+
+    /**
+     * Atura la cerca en curs. Els nodes que queden per cercar retornen
+     * directament el valor de l'heurística. Es pot cridar des d'un altre fil.
+     */
+    public void timeout() {
+        this.TIMEOUT = true;
+    }
+
+    /**
+     * @return Cert si s'ha cridat timeout (o s'ha arribat a un límit) des
+     *          de l'últim preparaCerca.
+     */
+    boolean isAturada() {
+        return TIMEOUT;
+    }
+
+    /**
+     * Deixa la cerca a punt per començar. S'ha de cridar abans de cerca, i
+     * abans de passar la cerca a un altre fil, perquè un timeout que arribi
+     * mentre el fil encara no ha començat no es perdi.
+     */
+    public void preparaCerca() {
+        this.TIMEOUT = false;
+    }
+
+    /**
+     * @param temps Control del temps de la cerca, o null perquè només
+     *          s'aturi per profunditat o per timeout.
+     */
+    public void setTimeManager(TimeManager temps) {
+        this.temps = temps;
+    }
+
+    /**
+     * @param algorisme Algorisme de cerca. Els valors de la taula de
+     *          transposicions de MINIMAX i PVS no són compatibles: si es
+     *          canvia, s'ha de buidar la taula.
+     */
+    public void setAlgorisme(Algorisme algorisme) {
+        this.algorisme = algorisme;
+    }
+
+    /**
+     * @param probcut Paràmetres de Multi-ProbCut, o null per no fer-lo
+     *          servir. Només té efecte amb PVS.
+     */
+    public void setProbCut(ProbCut probcut) {
+        this.probcut = probcut;
+    }
+
+    /**
+     * @param cache Memòria cau de l'heurística de les fulles, o null per
+     *          calcular-la sempre. Es pot compartir entre cerques.
+     */
+    public void setEvalCache(EvalCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param avaluacio Avaluació de les fulles. Els valors de la taula de
+     *          transposicions, de la memòria cau i la calibració de
+     *          ProbCut depenen de l'avaluació: si es canvia, s'han de
+     *          buidar o tornar a calcular.
+     */
+    public void setEvaluator(Evaluator avaluacio) {
+        this.avaluacio = avaluacio;
+    }
+
+    /**
+     * @param canonica Cert perquè la taula de transposicions faci servir el
+     *          hash canònic (Symmetry.hash): una posició girada o reflectida
+     *          troba l'entrada de l'altra. Perquè totes les orientacions
+     *          tinguin el mateix valor, les fulles s'avaluen en la forma
+     *          canònica (sense la memòria cau si no és canònica). Les claus
+     *          no són compatibles amb les de Zobrist: si es canvia, s'ha de
+     *          buidar la taula.
+     */
+    public void setCanonica(boolean canonica) {
+        this.canonica = canonica;
+    }
+
+    /**
+     * @return Algorisme de cerca.
+     */
+    public Algorisme getAlgorisme() {
+        return algorisme;
+    }
+
+    /**
+     * Cerca el millor moviment amb aprofundiment iteratiu fins que s'acaba
+     * el temps o s'arriba a la profunditat màxima.
+     *
+     * @param arrel Tauler i estat actual de joc. Es modifica durant la cerca
+     *          però es retorna en el mateix estat.
+     * @param max_deepth Profunditat màxima de l'algorisme.
+     * @return La casella del millor moviment, o -1 si no es pot moure.
+     */
+    public int cerca(Bitboard arrel, int max_deepth) {
+        return cerca(arrel, max_deepth, 1);
+    }
+
+    /**
+     * Com cerca(arrel, max_deepth), però començant per una profunditat
+     * diferent de 1. Els fils auxiliars de la cerca paral·lela comencen a
+     * profunditats diferents perquè no facin tots la mateixa feina.
+     *
+     * @param arrel Tauler i estat actual de joc.
+     * @param max_deepth Profunditat màxima de l'algorisme.
+     * @param primera Profunditat de la primera iteració.
+     * @return La casella del millor moviment, o -1 si no es pot moure.
+     */
+    public int cerca(Bitboard arrel, int max_deepth, int primera) {
+        long inici = System.nanoTime();
+        this.me = arrel.getCurrentPlayer();
+        this.deepth = primera;
+        this.completada = 0;
+        this.n_nodes = 0;
+        this.limitDur = false;
+        this.ttConsultes = 0;
+        this.ttEncerts = 0;
+        this.ttTalls = 0;
+        this.cacheConsultes = cache != null ? cache.getConsultes() : 0;
+        this.cacheEncerts = cache != null ? cache.getEncerts() : 0;
+        ordenacio.novaCerca();
+        estadistiques.inicia(arrel.getBuides());
+        // moviments de l'arrel en el buffer de la cerca, sense crear-ne cap
+        int[] moves = movesArrel;
+        long m = arrel.getMoviments();
+        nArrel = Long.bitCount(m);
+        for (int i = 0; m != 0; i++, m &= m - 1) moves[i] = Long.numberOfTrailingZeros(m);
+        if (nArrel == 0) {
+            estadistiques.acaba(SearchStats.MotiuAturada.SENSE_MOVIMENTS, -1, 0, System.nanoTime() - inici);
+            return -1;
+        }
+        
+        // millor moviment de l'última iteració acabada, -1 si encara no n'hi ha cap
+        int resultat = -1;
+        int moviment = 0;
+        SearchStats.MotiuAturada motiu = SearchStats.MotiuAturada.PROFUNDITAT;
+        // cada moviment omple una casella: més enllà de les buides no hi ha res a cercar
+        int limit = Math.min(max_deepth, arrel.getBuides());
+        while(!TIMEOUT && deepth < limit)
+        {
+            if (temps != null && !temps.potComencar(n_nodes)) {
+                motiu = SearchStats.MotiuAturada.LIMIT_SUAU;
+                break;
+            }
+            long iniciIteracio = System.nanoTime();
+            long nodesInicials = n_nodes;
+            // el millor moviment de la iteració anterior es cerca primer
+            ordenaArrel(arrel, moves, moves[moviment]);
+            if (algorisme == Algorisme.PVS) {
+                moviment = iteracioPVS(arrel, moves, resultat >= 0);
+            } else {
+                moviment = iteracioMinimax(arrel, moves);
+                if (partidaAcabada) {
+                    acaba(SearchStats.MotiuAturada.FINAL_PARTIDA, moves[moviment], inici);
+                    return moves[moviment];
+                }
+            }
+            if (TIMEOUT) break;
+            resultat = moves[moviment];
+            completada = deepth + 1;
+            if (temps != null) temps.iteracioAcabada(n_nodes);
+            estadistiques.iteracio(completada, n_nodes - nodesInicials, System.nanoTime() - iniciIteracio);
+            deepth += 1;
+        }
+        if (TIMEOUT) {
+            motiu = limitDur ? SearchStats.MotiuAturada.LIMIT_DUR : SearchStats.MotiuAturada.TIMEOUT;
+        }
+        // si no s'ha acabat cap iteració ens quedem amb el millor que s'hagi trobat
+        if (resultat < 0) resultat = moves[moviment];
+        acaba(motiu, resultat, inici);
+        return resultat;
+    }
+    
+    /**
+     * Una iteració de l'arrel amb el minimax original.
+     * 
+     * @param arrel Tauler de l'arrel.
+     * @param moves Moviments de l'arrel ordenats (els nArrel primers).
+     * @return Índex del millor moviment. Si un moviment acaba la partida
+     *          es posa partidaAcabada a cert i es retorna el millor fins llavors.
+     */
+    private int iteracioMinimax(Bitboard arrel, int[] moves)
+    {
+        partidaAcabada = false;
+        int moviment = 0;
+        double valor = Integer.MIN_VALUE;
+        for (int i = 0; i < nArrel && !TIMEOUT; i++) {
+            long hash = arrel.getHash();
+            long girades = arrel.fesMoviment(moves[i]);
+            nouNode();
+            boolean acabada = arrel.isGameOver();
+            double min = 0;
+            if (!acabada) min = minValor(arrel, deepth, 1, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            arrel.desfesMoviment(moves[i], girades, hash);
+            if (acabada){
+                partidaAcabada = true;
+                return moviment;
+            } else if (valor < min){
+                valor = min;
+                moviment = i;
+            }
+        }
+        return moviment;
+    }
+    
+    /**
+     * Una iteració de l'arrel amb PVS. Si ja hi ha el valor d'una iteració
+     * anterior es comença amb una finestra d'aspiració al seu voltant, i
+     * cada cop que el resultat en surt per un costat s'eixampla aquell
+     * costat i es torna a cercar.
+     * 
+     * @param arrel Tauler de l'arrel.
+     * @param moves Moviments de l'arrel ordenats (els nArrel primers).
+     * @param aspiracio Cert si valorArrel és d'una iteració acabada.
+     * @return Índex del millor moviment.
+     */
+    private int iteracioPVS(Bitboard arrel, int[] moves, boolean aspiracio)
+    {
+        double delta = ASPIRACIO;
+        double alpha = -INFINIT;
+        double beta = INFINIT;
+        if (aspiracio) {
+            alpha = valorArrel - delta;
+            beta = valorArrel + delta;
+        }
+        while (true) {
+            double v = arrelPVS(arrel, moves, alpha, beta);
+            if (TIMEOUT) return millorArrel;
+            delta *= 2;
+            if (v <= alpha) {
+                alpha = delta > ASPIRACIO_MAX ? -INFINIT : v - delta;
+            } else if (v >= beta) {
+                beta = delta > ASPIRACIO_MAX ? INFINIT : v + delta;
+            } else {
+                valorArrel = v;
+                return millorArrel;
+            }
+        }
+    }
+    
+    /**
+     * Cerca PVS de l'arrel amb la finestra (alpha, beta).
+     * 
+     * @return Valor del millor moviment, que queda a millorArrel.
+     */
+    private double arrelPVS(Bitboard arrel, int[] moves, double alpha, double beta)
+    {
+        double valor = -INFINIT;
+        millorArrel = 0;
+        for (int i = 0; i < nArrel && !TIMEOUT; i++) {
+            long hash = arrel.getHash();
+            long girades = arrel.fesMoviment(moves[i]);
+            nouNode();
+            double v;
+            if (i == 0) {
+                v = -pvs(arrel, deepth, 1, -beta, -alpha);
+            } else {
+                v = -pvs(arrel, deepth, 1, -alpha - 1, -alpha);
+                if (v > alpha && v < beta) v = -pvs(arrel, deepth, 1, -beta, -alpha);
+            }
+            arrel.desfesMoviment(moves[i], girades, hash);
+            if (v > valor) {
+                valor = v;
+                millorArrel = i;
+                if (v > alpha) {
+                    alpha = v;
+                    if (alpha >= beta) break;
+                }
+            }
+        }
+        return valor;
+    }
+    
+    /**
+     * Anàlisi multi-PV: cerca amb aprofundiment iteratiu els k millors
+     * moviments de l'arrel i en dona el valor exacte i la variant
+     * principal de l'última iteració acabada. Fa servir la mateixa cerca
+     * PVS que cerca, amb la taula de transposicions, l'ordenació i la
+     * memòria cau, de manera que l'algorisme ha de ser PVS. ProbCut no es
+     * fa servir durant l'anàlisi, perquè els seus talls són estimacions.
+     *
+     * A cada iteració els k primers moviments es cerquen amb la finestra
+     * completa. La resta es cerquen amb una finestra nul·la al voltant
+     * del k-èsim millor valor trobat: si no el superen no hi poden entrar
+     * i no cal saber-ne el valor exacte; si el superen es tornen a cercar
+     * amb la finestra completa. Els moviments de la iteració següent
+     * s'ordenen pel valor d'aquesta. Els valors són exactes a la
+     * profunditat de la iteració sempre que la taula de transposicions no
+     * tingui entrades de cerques anteriors amb ProbCut.
+     *
+     * La cerca s'atura com cerca (per profunditat, pel TimeManager o per
+     * timeout) i també quan passa de maxNodes: si no sembla que la
+     * iteració següent hi càpiga no es comença, i si a mitja iteració
+     * s'arriba al límit s'atura i la iteració es descarta.
+     *
+     * @param arrel Tauler i estat actual de joc. Es modifica durant la
+     *          cerca però es retorna en el mateix estat.
+     * @param k Nombre de moviments que es volen (si n'hi ha menys, tots).
+     * @param maxProfunditat Profunditat màxima.
+     * @param maxNodes Nodes màxims de l'anàlisi, 0 sense límit.
+     * @return L'anàlisi.
+     * @throws IllegalStateException Si l'algorisme no és PVS.
+     */
+    public Analysis analitza(Bitboard arrel, int k, int maxProfunditat, long maxNodes) {
+        if (algorisme != Algorisme.PVS) throw new IllegalStateException("L'anàlisi multi-PV necessita PVS");
+        if (k < 1) throw new IllegalArgumentException("Nombre de moviments incorrecte: " + k);
+        long inici = System.nanoTime();
+        this.me = arrel.getCurrentPlayer();
+        this.deepth = 0;
+        this.completada = 0;
+        this.n_nodes = 0;
+        this.limitDur = false;
+        this.ttConsultes = 0;
+        this.ttEncerts = 0;
+        this.ttTalls = 0;
+        this.cacheConsultes = cache != null ? cache.getConsultes() : 0;
+        this.cacheEncerts = cache != null ? cache.getEncerts() : 0;
+        ordenacio.novaCerca();
+        estadistiques.inicia(arrel.getBuides());
+        int[] moves = movesArrel;
+        long m = arrel.getMoviments();
+        nArrel = Long.bitCount(m);
+        if (nArrel == 0) {
+            estadistiques.acaba(SearchStats.MotiuAturada.SENSE_MOVIMENTS, -1, 0, System.nanoTime() - inici);
+            return new Analysis(0, 0, System.nanoTime() - inici, new Analysis.Linia[0]);
+        }
+        ordenaArrel(arrel, moves, movimentTaula(arrel));
+        k = Math.min(k, nArrel);
+
+        // línies de l'última iteració acabada
+        Analysis.Linia[] linies = new Analysis.Linia[0];
+        double[] valors = new double[nArrel];
+        int[][] variants = new int[nArrel][];
+        long nodesUltima = 0, nodesPenultima = 0;
+        int limit = Math.min(maxProfunditat, arrel.getBuides());
+        SearchStats.MotiuAturada motiu = SearchStats.MotiuAturada.PROFUNDITAT;
+        this.limitNodes = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+        ProbCut pc = this.probcut;
+        this.probcut = null;
+        try {
+            while (!TIMEOUT && deepth < limit) {
+                // els nodes de la iteració següent es preveuen com el temps al TimeManager
+                double previsio = nodesUltima * TimeManager.ebf(nodesUltima, nodesPenultima);
+                if ((temps != null && !temps.potComencar(n_nodes)) || n_nodes + previsio > limitNodes) {
+                    motiu = SearchStats.MotiuAturada.LIMIT_SUAU;
+                    break;
+                }
+                long iniciIteracio = System.nanoTime();
+                long nodesInicials = n_nodes;
+                iteracioMultiPV(arrel, moves, valors, variants, k);
+                if (TIMEOUT) break;
+                linies = ordenaLinies(moves, valors, variants, k);
+                completada = deepth + 1;
+                nodesPenultima = nodesUltima;
+                nodesUltima = n_nodes - nodesInicials;
+                if (temps != null) temps.iteracioAcabada(n_nodes);
+                estadistiques.iteracio(completada, nodesUltima, System.nanoTime() - iniciIteracio);
+                deepth += 1;
+            }
+        } finally {
+            this.limitNodes = Long.MAX_VALUE;
+            this.probcut = pc;
+        }
+        if (TIMEOUT) {
+            motiu = limitDur ? SearchStats.MotiuAturada.LIMIT_DUR : SearchStats.MotiuAturada.TIMEOUT;
+        }
+        acaba(motiu, linies.length > 0 ? linies[0].getMoviment() : moves[0], inici);
+        return new Analysis(completada, n_nodes, System.nanoTime() - inici, linies);
+    }
+
+    /**
+     * Una iteració de l'anàlisi multi-PV.
+     *
+     * @param arrel Tauler de l'arrel.
+     * @param moves Moviments de l'arrel (els nArrel primers).
+     * @param valors Surt amb el valor de cada moviment: exacte si té
+     *          variant, i si no una cota superior.
+     * @param variants Surt amb la variant principal dels moviments amb
+     *          valor exacte i null per a la resta.
+     * @param k Nombre de moviments que es volen.
+     */
+    private void iteracioMultiPV(Bitboard arrel, int[] moves, double[] valors, int[][] variants, int k)
+    {
+        // els k millors valors exactes fins ara, de més gran a més petit
+        double[] millors = new double[k];
+        int exactes = 0;
+        for (int i = 0; i < nArrel && !TIMEOUT; i++) {
+            long hash = arrel.getHash();
+            long girades = arrel.fesMoviment(moves[i]);
+            nouNode();
+            double v;
+            boolean exacte = true;
+            if (exactes < k) {
+                v = -pvs(arrel, deepth, 1, -INFINIT, INFINIT);
+            } else {
+                double llindar = millors[k - 1];
+                v = -pvs(arrel, deepth, 1, -llindar - 1, -llindar);
+                if (v > llindar) v = -pvs(arrel, deepth, 1, -INFINIT, INFINIT);
+                else exacte = false;
+            }
+            valors[i] = v;
+            variants[i] = exacte && !TIMEOUT ? variant(arrel, moves[i]) : null;
+            arrel.desfesMoviment(moves[i], girades, hash);
+            if (exacte) {
+                int j = Math.min(exactes, k - 1);
+                if (exactes >= k && v <= millors[j]) continue;
+                for (; j > 0 && millors[j - 1] < v; j--) millors[j] = millors[j - 1];
+                millors[j] = v;
+                exactes++;
+            }
+        }
+    }
+
+    /**
+     * Ordena els moviments de l'arrel pel valor de la iteració: primer els
+     * que tenen valor exacte, de millor a pitjor, i després la resta en
+     * l'ordre que tenien.
+     *
+     * @return Les k primeres línies.
+     */
+    private Analysis.Linia[] ordenaLinies(int[] moves, double[] valors, int[][] variants, int k)
+    {
+        Integer[] index = new Integer[nArrel];
+        for (int i = 0; i < nArrel; i++) index[i] = i;
+        Arrays.sort(index, (a, b) -> {
+            boolean ea = variants[a] != null, eb = variants[b] != null;
+            if (ea != eb) return ea ? -1 : 1;
+            return ea ? Double.compare(valors[b], valors[a]) : 0;
+        });
+        int[] ordenats = new int[nArrel];
+        double[] v = new double[nArrel];
+        int[][] pv = new int[nArrel][];
+        for (int i = 0; i < nArrel; i++) {
+            ordenats[i] = moves[index[i]];
+            v[i] = valors[index[i]];
+            pv[i] = variants[index[i]];
+        }
+        System.arraycopy(ordenats, 0, moves, 0, nArrel);
+        Analysis.Linia[] linies = new Analysis.Linia[k];
+        for (int i = 0; i < k; i++) linies[i] = new Analysis.Linia(moves[i], v[i], pv[i]);
+        return linies;
+    }
+
+    /**
+     * Variant principal d'un moviment de l'arrel, seguint els millors
+     * moviments de la taula de transposicions des de la posició que en
+     * resulta fins a la profunditat de la iteració. Les passades no
+     * gasten profunditat ni s'afegeixen a la variant.
+     *
+     * @param fill Tauler després del moviment, no es modifica.
+     * @param moviment Moviment de l'arrel.
+     * @return Les caselles de la variant, començant per moviment.
+     */
+    private int[] variant(Bitboard fill, int moviment)
+    {
+        Bitboard b = new Bitboard(fill);
+        int[] v = new int[deepth + 1];
+        int n = 0;
+        v[n++] = moviment;
+        while (n < v.length && !b.isGameOver()) {
+            if (!b.currentPlayerCanMove()) {
+                b.passa();
+                continue;
+            }
+            int sq = movimentTaula(b);
+            if (sq == TranspositionTable.SENSE_MOVIMENT || (b.getMoviments() & (1L << sq)) == 0) break;
+            b.movePiece(sq);
+            v[n++] = sq;
+        }
+        return Arrays.copyOf(v, n);
+    }
+    
+    private void acaba(SearchStats.MotiuAturada motiu, int moviment, long inici)
+    {
+        estadistiques.comptadors(ordenacio, ttConsultes, ttEncerts, ttTalls);
+        if (cache != null) {
+            estadistiques.comptadorsCache(cache.getConsultes() - cacheConsultes,
+                    cache.getEncerts() - cacheEncerts);
+        }
+        estadistiques.acaba(motiu, moviment, n_nodes, System.nanoTime() - inici);
+    }
+    
+    /**
+     * Ordena els moviments de l'arrel amb el mateix criteri que la resta de
+     * nodes, posant primer el millor moviment de la iteració anterior.
+     * 
+     * @param arrel Tauler de l'arrel.
+     * @param moves Moviments de l'arrel (els nArrel primers), s'ordenen in situ.
+     * @param pv Millor moviment de la iteració anterior.
+     */
+    private void ordenaArrel(Bitboard arrel, int[] moves, int pv)
+    {
+        int[] ordre = ordenacio.ordena(arrel.getMoviments(), pv, 0, arrel.getCurrentPlayer());
+        System.arraycopy(ordre, 0, moves, 0, nArrel);
+    }
+    
+    
+    /**
+     * Funció maximitzadora del Minimax.
+     * 
+     * @param s Tauler i estat actual de joc, es modifica in situ.
+     * @param mdp Profunditat maxima a la que ha d'arribar.
+     * @param ply Distància a l'arrel.
+     * @param alpha Valor de alfa del minimax amb poda alfa-beta.
+     * @param beta Valor de beta del minimax amb poda alfa-beta.
+     * @return Retorna el valor maxim dels possibles movimens a fer.
+     */
+    private double maxValor(Bitboard s, int mdp, int ply, double alpha, double beta)
+    {
+        double valor = Integer.MIN_VALUE;
+         if (mdp == 0) {
+            return heuristic(s);
+        }       
+        long moves = s.getMoviments();
+        if (moves != 0){
+            // El jugador actual pot moure doncs busquem els moviments
+            if (TIMEOUT) {
+                //System.out.println(mdp);
+                return heuristic(s);
+            }
+            // Mirem si la posició ja s'ha cercat abans
+            int sim = simetria(s);
+            long clau = clau(s, sim);
+            long entrada = tt.probe(clau);
+            ttConsultes++;
+            int preferit = TranspositionTable.SENSE_MOVIMENT;
+            if (entrada != TranspositionTable.BUIDA) {
+                ttEncerts++;
+                preferit = desfes(TranspositionTable.moviment(entrada), sim);
+                if (TranspositionTable.profunditat(entrada) >= mdp) {
+                    double v = TranspositionTable.valor(entrada);
+                    int cota = TranspositionTable.cota(entrada);
+                    if (cota == TranspositionTable.EXACTA
+                            || (cota == TranspositionTable.INFERIOR && v >= beta)
+                            || (cota == TranspositionTable.SUPERIOR && v <= alpha)) {
+                        ttTalls++;
+                        return v;
+                    }
+                }
+            }
+            double alphaInicial = alpha;
+            int millor = TranspositionTable.SENSE_MOVIMENT;
+            int n = Long.bitCount(moves);
+            int[] ordre = ordenacio.ordena(moves, preferit, ply, s.getCurrentPlayer());
+            for (int i = 0; i < n; i++) {
+                int sq = ordre[i];
+                
+                pilaHash[ply] = s.getHash();
+                pilaGirs[ply] = s.fesMoviment(sq);
+                nouNode();
+                if (s.isGameOver()){
+                    CellType guanyador = s.getWinner();
+                    s.desfesMoviment(sq, pilaGirs[ply], pilaHash[ply]);
+                    if (guanyador == me) {
+                        return Integer.MAX_VALUE;
+                    } else {
+                        return Integer.MIN_VALUE;
+                    }
+                } else {
+                    double min = minValor(s, mdp - 1, ply + 1, alpha, beta);
+                    s.desfesMoviment(sq, pilaGirs[ply], pilaHash[ply]);
+                    if (min > valor) {
+                        valor = min;
+                        millor = sq;
+                    }
+                    if (beta <= valor) {
+                        ordenacio.tall(sq, ply, s.getCurrentPlayer(), mdp, i);
+                        guarda(clau, sim, mdp, alphaInicial, beta, valor, millor);
+                        return valor;
+                    }
+                    alpha = Math.max(valor, alpha);
+                }
+            }
+            guarda(clau, sim, mdp, alphaInicial, beta, valor, millor);
+        }
+        return valor;
+    }
+    
+    
+    /**
+     * Funció minimitzadora del minimax.
+     * 
+     * @param s Tauler i estat actual de joc, es modifica in situ.
+     * @param mdp Profunditat maxima a la que ha d'arribar.
+     * @param ply Distància a l'arrel.
+     * @param alpha Valor de alfa del minimax amb poda alfa-beta.
+     * @param beta Valor de beta del minimax amb poda alfa-beta.
+     * @return Retorna el valor minim dels possibles movimens a fer.
+     */
+    private double minValor(Bitboard s, int mdp, int ply, double alpha, double beta)
+    {
+        double valor = Integer.MAX_VALUE;
+        if (mdp == 0) {
+            return heuristic(s);
+        }        
+        long moves = s.getMoviments();
+        if (moves != 0){
+            // El jugador actual pot moure doncs busquem els moviments
+            if (TIMEOUT) {
+                //System.out.println(mdp);
+                return heuristic(s);
+            }
+            // Mirem si la posició ja s'ha cercat abans
+            int sim = simetria(s);
+            long clau = clau(s, sim);
+            long entrada = tt.probe(clau);
+            ttConsultes++;
+            int preferit = TranspositionTable.SENSE_MOVIMENT;
+            if (entrada != TranspositionTable.BUIDA) {
+                ttEncerts++;
+                preferit = desfes(TranspositionTable.moviment(entrada), sim);
+                if (TranspositionTable.profunditat(entrada) >= mdp) {
+                    double v = TranspositionTable.valor(entrada);
+                    int cota = TranspositionTable.cota(entrada);
+                    if (cota == TranspositionTable.EXACTA
+                            || (cota == TranspositionTable.INFERIOR && v >= beta)
+                            || (cota == TranspositionTable.SUPERIOR && v <= alpha)) {
+                        ttTalls++;
+                        return v;
+                    }
+                }
+            }
+            double betaInicial = beta;
+            int millor = TranspositionTable.SENSE_MOVIMENT;
+            int n = Long.bitCount(moves);
+            int[] ordre = ordenacio.ordena(moves, preferit, ply, s.getCurrentPlayer());
+            for (int i = 0; i < n; i++) {
+                int sq = ordre[i];
+                
+                pilaHash[ply] = s.getHash();
+                pilaGirs[ply] = s.fesMoviment(sq);
+                nouNode();
+                if (s.isGameOver()){
+                    CellType guanyador = s.getWinner();
+                    s.desfesMoviment(sq, pilaGirs[ply], pilaHash[ply]);
+                    if (guanyador == me) {
+                        return Integer.MAX_VALUE;
+                    } else {
+                        return Integer.MIN_VALUE;
+                    }
+                } else {
+                    double max = maxValor(s, mdp - 1, ply + 1, alpha, beta);
+                    s.desfesMoviment(sq, pilaGirs[ply], pilaHash[ply]);
+                    if (max < valor) {
+                        valor = max;
+                        millor = sq;
+                    }
+                    if (valor <= alpha) {
+                        ordenacio.tall(sq, ply, s.getCurrentPlayer(), mdp, i);
+                        guarda(clau, sim, mdp, alpha, betaInicial, valor, millor);
+                        return valor;
+                    }
+                    beta = Math.min(valor, beta);
+                }
+            }
+            guarda(clau, sim, mdp, alpha, betaInicial, valor, millor);
+        }
+        return valor;
+    }
+    
+    
+    /**
+     * Negamax amb cerca de la variant principal. Els valors són sempre des
+     * del punt de vista del jugador que mou.
+     * 
+     * @param s Tauler i estat actual de joc, es modifica in situ.
+     * @param mdp Profunditat restant.
+     * @param ply Distància a l'arrel. Les cerques superficials de ProbCut
+     *          es fan al mateix ply que el node que es vol tallar.
+     * @param alpha Valor de alfa.
+     * @param beta Valor de beta.
+     * @return Valor de la posició per al jugador que mou.
+     */
+    private double pvs(Bitboard s, int mdp, int ply, double alpha, double beta)
+    {
+        if (mdp == 0) {
+            return avalua(s);
+        }
+        long moves = s.getMoviments();
+        if (moves == 0) {
+            if (Bitboard.moviments(s.getRival(), s.getJugador()) == 0) {
+                // partida acabada: guanyar sempre val més que qualsevol heurística
+                return VICTORIA * (Long.bitCount(s.getJugador()) - Long.bitCount(s.getRival()));
+            }
+            // el jugador passa: la passada no gasta profunditat
+            s.passa();
+            double v = -pvs(s, mdp, ply, -beta, -alpha);
+            s.passa();
+            return v;
+        }
+        if (TIMEOUT) {
+            return avalua(s);
+        }
+        int sim = simetria(s);
+        long clau = clau(s, sim);
+        long entrada = tt.probe(clau);
+        ttConsultes++;
+        int preferit = TranspositionTable.SENSE_MOVIMENT;
+        if (entrada != TranspositionTable.BUIDA) {
+            ttEncerts++;
+            preferit = desfes(TranspositionTable.moviment(entrada), sim);
+            if (TranspositionTable.profunditat(entrada) >= mdp) {
+                double v = TranspositionTable.valor(entrada);
+                int cota = TranspositionTable.cota(entrada);
+                if (cota == TranspositionTable.EXACTA
+                        || (cota == TranspositionTable.INFERIOR && v >= beta)
+                        || (cota == TranspositionTable.SUPERIOR && v <= alpha)) {
+                    ttTalls++;
+                    return v;
+                }
+            }
+        }
+        if (probcut != null && beta - alpha == 1 && mdp >= ProbCut.MIN_D) {
+            double v = probCut(s, mdp, ply, alpha, beta);
+            if (!Double.isNaN(v)) return v;
+        }
+        double alphaInicial = alpha;
+        double valor = -INFINIT;
+        int millor = TranspositionTable.SENSE_MOVIMENT;
+        int n = Long.bitCount(moves);
+        int[] ordre = ordenacio.ordena(moves, preferit, ply, s.getCurrentPlayer());
+        for (int i = 0; i < n; i++) {
+            int sq = ordre[i];
+            pilaHash[ply] = s.getHash();
+            pilaGirs[ply] = s.fesMoviment(sq);
+            nouNode();
+            double v;
+            if (i == 0) {
+                v = -pvs(s, mdp - 1, ply + 1, -beta, -alpha);
+            } else {
+                // finestra nul·la: només volem saber si millora alfa
+                v = -pvs(s, mdp - 1, ply + 1, -alpha - 1, -alpha);
+                if (v > alpha && v < beta) v = -pvs(s, mdp - 1, ply + 1, -beta, -alpha);
+            }
+            s.desfesMoviment(sq, pilaGirs[ply], pilaHash[ply]);
+            if (v > valor) {
+                valor = v;
+                millor = sq;
+                if (v > alpha) {
+                    alpha = v;
+                    if (alpha >= beta) {
+                        ordenacio.tall(sq, ply, s.getCurrentPlayer(), mdp, i);
+                        break;
+                    }
+                }
+            }
+        }
+        guarda(clau, sim, mdp, alphaInicial, beta, valor, millor);
+        return valor;
+    }
+    
+    
+    /**
+     * Multi-ProbCut: prova de predir amb cerques superficials si la cerca
+     * a profunditat mdp sortirà de la finestra nul·la (alpha, beta).
+     * 
+     * @return beta o alpha si es pot tallar, NaN si s'ha de cercar.
+     */
+    private double probCut(Bitboard s, int mdp, int ply, double alpha, double beta)
+    {
+        int fase = ProbCut.fase(s.getBuides());
+        for (int k = 0; k < 2; k++) {
+            if (!probcut.actiu(fase, mdp, k)) continue;
+            int ds = probcut.profunditat(mdp, k);
+            double alt = probcut.limitAlt(fase, mdp, k, beta);
+            double v = ds == 0 ? avalua(s) : pvs(s, ds, ply, alt - 1, alt);
+            if (TIMEOUT) return Double.NaN;
+            if (v >= alt) return beta;
+            double baix = probcut.limitBaix(fase, mdp, k, alpha);
+            if (ds > 0) v = pvs(s, ds, ply, baix, baix + 1);
+            if (TIMEOUT) return Double.NaN;
+            if (v <= baix) return alpha;
+        }
+        return Double.NaN;
+    }
+    
+    /**
+     * Valor PVS de la posició a profunditat fixa, amb finestra completa i
+     * sense aprofundiment iteratiu. El fa servir ProbCutCalibrator.
+     * 
+     * @param arrel Tauler, es retorna en el mateix estat.
+     * @param profunditat Profunditat de la cerca.
+     * @return Valor per al jugador que mou.
+     */
+    double valor(Bitboard arrel, int profunditat)
+    {
+        this.me = arrel.getCurrentPlayer();
+        if (profunditat == 0) return avalua(arrel);
+        return pvs(arrel, profunditat, 0, -INFINIT, INFINIT);
+    }
+    
+    /**
+     * Compta un node nou i, de tant en tant, mira si s'ha passat el límit
+     * dur de temps.
+     */
+    private void nouNode()
+    {
+        n_nodes += 1;
+        if ((n_nodes & COMPROVA_TEMPS) == 0
+                && (n_nodes >= limitNodes || (temps != null && temps.superat()))) {
+            limitDur = true;
+            TIMEOUT = true;
+        }
+    }
+    
+    
+    /**
+     * Guarda a la taula de transposicions el resultat de cercar una posició,
+     * deduint el tipus de cota a partir de la finestra alfa-beta inicial.
+     * Els resultats obtinguts després del timeout no es guarden.
+     * 
+     * @param clau Clau de la posició a la taula.
+     * @param sim Simetria de la clau (vegeu clau).
+     * @param mdp Profunditat restant de la cerca.
+     * @param alpha Alfa amb què s'ha cridat la cerca.
+     * @param beta Beta amb què s'ha cridat la cerca.
+     * @param valor Valor trobat.
+     * @param millor Millor moviment trobat.
+     */
+    private void guarda(long clau, int sim, int mdp, double alpha, double beta, double valor, int millor)
+    {
+        if (TIMEOUT) return;
+        int cota;
+        if (valor <= alpha) cota = TranspositionTable.SUPERIOR;
+        else if (valor >= beta) cota = TranspositionTable.INFERIOR;
+        else cota = TranspositionTable.EXACTA;
+        if (millor != TranspositionTable.SENSE_MOVIMENT) millor = Symmetry.casella(millor, sim);
+        tt.store(clau, mdp, cota, valor, millor);
+    }
+
+    /**
+     * @return Simetria que porta la posició a la forma canònica si la
+     *          taula és canònica, o 0 (la identitat) si no.
+     */
+    private int simetria(Bitboard s)
+    {
+        return canonica ? Symmetry.canonica(s.getJugador(), s.getRival()) : 0;
+    }
+
+    /**
+     * Clau de la posició a la taula de transposicions: el hash de Zobrist
+     * o, si la taula és canònica, el de la forma canònica. En aquest cas
+     * els moviments es guarden en l'orientació canònica (la de la
+     * simetria sim) i en llegir-los es desfà la simetria.
+     */
+    private long clau(Bitboard s, int sim)
+    {
+        return canonica ? Symmetry.hash(s.getJugador(), s.getRival(), s.getCurrentPlayer(), sim) : s.getHash();
+    }
+
+    /**
+     * @return La casella sq de la taula en l'orientació de la posició.
+     */
+    private static int desfes(int sq, int sim)
+    {
+        if (sq == TranspositionTable.SENSE_MOVIMENT) return sq;
+        return Symmetry.casella(sq, Symmetry.inversa(sim));
+    }
+
+    /**
+     * Moviment guardat a la taula de transposicions per a una posició.
+     * 
+     * @param b Tauler.
+     * @return La casella del moviment en l'orientació del tauler, o
+     *          TranspositionTable.SENSE_MOVIMENT si no n'hi ha.
+     */
+    int movimentTaula(Bitboard b)
+    {
+        int sim = simetria(b);
+        long entrada = tt.probe(clau(b, sim));
+        if (entrada == TranspositionTable.BUIDA) return TranspositionTable.SENSE_MOVIMENT;
+        return desfes(TranspositionTable.moviment(entrada), sim);
+    }
+    
+    
+    /**
+     * Funció que s'encarrega de retornar el valor final de les heurístiques
+     * balancejades ja que cadascuna ha de tenir un valor.
+     * 
+     * Per defecte les heurístiques (esquines, preEsquines, costatsParells,
+     * costats i zonaPerill) es calculen amb les taules de patrons de
+     * PatternEval. L'avaluació i la memòria cau donen el valor per al
+     * jugador que mou, i se li canvia el signe si no és el nostre torn.
+     * 
+     * @param s Tauler i estat actual de joc.
+     * @return retorna un valor que representa l'estat del joc en termes númerics
+     */
+    private double heuristic(Bitboard s)
+    {
+        double v = valorFulla(s);
+        return s.getCurrentPlayer() == me ? v : -v;
+    }
+    
+    /**
+     * Heurística per a PVS: des del punt de vista del jugador que mou i
+     * arrodonida a enter.
+     * 
+     * @param s Tauler i estat actual de joc.
+     * @return Valor de la posició per al jugador que mou.
+     */
+    private double avalua(Bitboard s)
+    {
+        return Math.rint(valorFulla(s));
+    }
+
+    /**
+     * Valor de l'avaluació per al jugador que mou. Amb la taula canònica
+     * s'avalua la forma canònica de la posició, com fa la memòria cau
+     * canònica: l'avaluació no té per què ser simètrica (PatternEval no ho
+     * és), i si cada orientació tingués el seu valor, el que es troba a la
+     * taula dependria de quina orientació s'ha cercat primer.
+     *
+     * @param s Tauler i estat actual de joc.
+     * @return Valor de la posició per al jugador que mou.
+     */
+    private double valorFulla(Bitboard s)
+    {
+        if (cache != null && (!canonica || cache.isCanonica())) return cache.avalua(s, avaluacio);
+        long jugador = s.getJugador();
+        long rival = s.getRival();
+        if (canonica) {
+            int sim = Symmetry.canonica(jugador, rival);
+            jugador = Symmetry.transforma(jugador, sim);
+            rival = Symmetry.transforma(rival, sim);
+        }
+        return avaluacio.heuristic(jugador, rival);
+    }
+    
+    
+    /**
+     * @return Nombre de nodes explorats a l'última cerca.
+     */
+    public long getNodes() {
+        return n_nodes;
+    }
+    
+    /**
+     * @return Profunditat (en plies des de l'arrel) de l'última iteració
+     *          acabada sencera, 0 si no se n'ha acabat cap.
+     */
+    public int getDeepth() {
+        return completada;
+    }
+    
+    /**
+     * @return Estadístiques de l'última cerca. L'objecte es reutilitza a
+     *          cada cerca.
+     */
+    public SearchStats getEstadistiques() {
+        return estadistiques;
+    }
+    
+    /**
+     * @return L'ordenació de moviments de la cerca.
+     */
+    public MoveOrdering getMoveOrdering() {
+        return ordenacio;
+    }
+}
@@ -0,0 +1,400 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.util.Locale;
+
+
+/**
+ * Estadístiques d'un moviment: què ha fet la cerca i per què s'ha aturat.
+ *
+ * La cerca omple un sol objecte que es reutilitza a cada moviment i només
+ * s'hi escriu en acabar cada iteració, de manera que portar les
+ * estadístiques no costa res per node. Es poden escriure com una línia de
+ * JSON o de CSV per analitzar moltes partides.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class SearchStats {
+
+    /**
+     * Per què s'ha acabat de decidir el moviment.
+     */
+    public enum MotiuAturada {
+        /** S'ha arribat a la profunditat màxima. */
+        PROFUNDITAT,
+        /** S'ha passat el límit suau o la iteració següent no hi cabia. */
+        LIMIT_SUAU,
+        /** S'ha arribat al límit dur a mitja iteració. */
+        LIMIT_DUR,
+        /** El joc ha cridat timeout a mitja iteració. */
+        TIMEOUT,
+        /** Un moviment de l'arrel acaba la partida. */
+        FINAL_PARTIDA,
+        /** El moviment surt del llibre d'obertures. */
+        LLIBRE,
+        /** El moviment surt de la resolució exacta del final. */
+        FINAL_EXACTE,
+        /** El jugador no pot moure. */
+        SENSE_MOVIMENTS
+    }
+
+    /** Format de sortida de les estadístiques. */
+    public enum Format {
+        /** Un objecte JSON per línia. */
+        JSON,
+        /** Una fila de CSV per línia, amb les columnes de capcaleraCsv. */
+        CSV
+    }
+
+    private final long[] nodesProfunditat = new long[MoveOrdering.MAX_PLY];
+    private final long[] tempsIteracio = new long[MoveOrdering.MAX_PLY];
+    private int iteracions;
+    private int profunditat;
+    private int buides;
+    private int moviment;
+    private boolean ponder;
+    private long nodes;
+    private long temps;
+    private long nodesInteriors;
+    private long talls;
+    private long tallsPrimer;
+    private long ttConsultes;
+    private long ttEncerts;
+    private long ttTalls;
+    private long cacheConsultes;
+    private long cacheEncerts;
+    private MotiuAturada motiu;
+
+
+    /**
+     * Posa totes les estadístiques a zero per a un moviment nou.
+     *
+     * @param buides Caselles buides de la posició.
+     */
+    void inicia(int buides) {
+        this.buides = buides;
+        this.iteracions = 0;
+        this.profunditat = 0;
+        this.moviment = -1;
+        this.ponder = false;
+        this.nodes = 0;
+        this.temps = 0;
+        this.nodesInteriors = 0;
+        this.talls = 0;
+        this.tallsPrimer = 0;
+        this.ttConsultes = 0;
+        this.ttEncerts = 0;
+        this.ttTalls = 0;
+        this.cacheConsultes = 0;
+        this.cacheEncerts = 0;
+        this.motiu = MotiuAturada.PROFUNDITAT;
+    }
+
+    /**
+     * Registra una iteració acabada.
+     *
+     * @param profunditat Plies de la iteració.
+     * @param nodes Nodes de la iteració.
+     * @param temps Durada de la iteració en nanosegons.
+     */
+    void iteracio(int profunditat, long nodes, long temps) {
+        if (iteracions < nodesProfunditat.length) {
+            nodesProfunditat[iteracions] = nodes;
+            tempsIteracio[iteracions] = temps;
+        }
+        iteracions++;
+        this.profunditat = profunditat;
+    }
+
+    /**
+     * Registra el final del moviment.
+     */
+    void acaba(MotiuAturada motiu, int moviment, long nodes, long temps) {
+        this.motiu = motiu;
+        this.moviment = moviment;
+        this.nodes = nodes;
+        this.temps = temps;
+    }
+
+    /**
+     * Registra els comptadors de poda i de la taula de transposicions.
+     */
+    void comptadors(MoveOrdering ordenacio, long ttConsultes, long ttEncerts, long ttTalls) {
+        this.nodesInteriors = ordenacio.getNodes();
+        this.talls = ordenacio.getTalls();
+        this.tallsPrimer = ordenacio.getTallsPrimer();
+        this.ttConsultes = ttConsultes;
+        this.ttEncerts = ttEncerts;
+        this.ttTalls = ttTalls;
+    }
+
+    /**
+     * Registra les consultes i els encerts de la memòria cau de
+     * l'heurística durant el moviment. Si la memòria cau és compartida
+     * (Engine, Lazy SMP) inclouen també les dels altres fils que cercaven
+     * alhora.
+     */
+    void comptadorsCache(long consultes, long encerts) {
+        this.cacheConsultes = consultes;
+        this.cacheEncerts = encerts;
+    }
+
+    void setPonder(boolean ponder) {
+        this.ponder = ponder;
+    }
+
+    void setMotiu(MotiuAturada motiu) {
+        this.motiu = motiu;
+    }
+
+
+    /**
+     * @return Per què s'ha acabat el moviment.
+     */
+    public MotiuAturada getMotiu() {
+        return motiu;
+    }
+
+    /**
+     * @return Profunditat (plies) de l'última iteració acabada.
+     */
+    public int getProfunditat() {
+        return profunditat;
+    }
+
+    /**
+     * @return Caselles buides de la posició.
+     */
+    public int getBuides() {
+        return buides;
+    }
+
+    /**
+     * @return Casella del moviment triat o -1.
+     */
+    public int getMoviment() {
+        return moviment;
+    }
+
+    /**
+     * @return Cert si el moviment s'ha trobat pensant en el torn del rival.
+     */
+    public boolean isPonder() {
+        return ponder;
+    }
+
+    /**
+     * @return Nombre d'iteracions acabades.
+     */
+    public int getIteracions() {
+        return iteracions;
+    }
+
+    /**
+     * @param i Iteració, de 0 a getIteracions() - 1.
+     * @return Nodes explorats a la iteració i.
+     */
+    public long getNodesIteracio(int i) {
+        return nodesProfunditat[i];
+    }
+
+    /**
+     * @param i Iteració, de 0 a getIteracions() - 1.
+     * @return Durada de la iteració i en nanosegons.
+     */
+    public long getTempsIteracio(int i) {
+        return tempsIteracio[i];
+    }
+
+    /**
+     * @return Nodes explorats en total, incloent la iteració avortada.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return Temps total en nanosegons.
+     */
+    public long getTemps() {
+        return temps;
+    }
+
+    /**
+     * @return Nodes per segon.
+     */
+    public double getNodesPerSegon() {
+        return temps == 0 ? 0 : nodes * 1e9 / temps;
+    }
+
+    /**
+     * @return Factor de ramificació efectiu entre les dues últimes
+     *          iteracions acabades, 0 si n'hi ha menys de dues.
+     */
+    public double getEbf() {
+        int n = Math.min(iteracions, nodesProfunditat.length);
+        if (n < 2 || nodesProfunditat[n - 2] == 0) return 0;
+        return (double) nodesProfunditat[n - 1] / nodesProfunditat[n - 2];
+    }
+
+    /**
+     * @return Talls beta per node interior.
+     */
+    public double getTallsPerNode() {
+        return nodesInteriors == 0 ? 0 : (double) talls / nodesInteriors;
+    }
+
+    /**
+     * @return Percentatge de talls beta fets pel primer moviment provat.
+     */
+    public double getPercentatgePrimer() {
+        return talls == 0 ? 0 : 100.0 * tallsPrimer / talls;
+    }
+
+    /**
+     * @return Consultes a la taula de transposicions.
+     */
+    public long getTtConsultes() {
+        return ttConsultes;
+    }
+
+    /**
+     * @return Percentatge de consultes que han trobat la posició a la taula.
+     */
+    public double getPercentatgeTt() {
+        return ttConsultes == 0 ? 0 : 100.0 * ttEncerts / ttConsultes;
+    }
+
+    /**
+     * @return Percentatge de consultes que han estalviat cercar el node.
+     */
+    public double getPercentatgeTallsTt() {
+        return ttConsultes == 0 ? 0 : 100.0 * ttTalls / ttConsultes;
+    }
+
+    /**
+     * @return Consultes a la memòria cau de l'heurística, 0 si la cerca no
+     *          en té.
+     */
+    public long getCacheConsultes() {
+        return cacheConsultes;
+    }
+
+    /**
+     * @return Consultes que han trobat el valor a la memòria cau de
+     *          l'heurística.
+     */
+    public long getCacheEncerts() {
+        return cacheEncerts;
+    }
+
+    /**
+     * @return Percentatge de consultes que han trobat el valor a la
+     *          memòria cau de l'heurística.
+     */
+    public double getPercentatgeCache() {
+        return cacheConsultes == 0 ? 0 : 100.0 * cacheEncerts / cacheConsultes;
+    }
+
+
+    /**
+     * @return Noms de les columnes de toCsv, separats per comes.
+     */
+    public static String capcaleraCsv() {
+        return "buides,moviment,motiu,ponder,profunditat,nodes,temps_ms,nps,ebf,"
+             + "talls_node,talls_primer_pct,tt_consultes,tt_encerts_pct,tt_talls_pct,"
+             + "cache_consultes,cache_encerts,"
+             + "nodes_iteracio,temps_iteracio_ms";
+    }
+
+    /**
+     * @return Les estadístiques com una fila de CSV (sense salt de línia).
+     *          Els valors per iteració van separats per punt i coma.
+     */
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(buides).append(',')
+          .append(casella(moviment)).append(',')
+          .append(motiu).append(',')
+          .append(ponder).append(',')
+          .append(profunditat).append(',')
+          .append(nodes).append(',')
+          .append(format(temps / 1e6)).append(',')
+          .append(Math.round(getNodesPerSegon())).append(',')
+          .append(format(getEbf())).append(',')
+          .append(format(getTallsPerNode())).append(',')
+          .append(format(getPercentatgePrimer())).append(',')
+          .append(ttConsultes).append(',')
+          .append(format(getPercentatgeTt())).append(',')
+          .append(format(getPercentatgeTallsTt())).append(',')
+          .append(cacheConsultes).append(',')
+          .append(cacheEncerts).append(',');
+        llista(sb, false, ";");
+        sb.append(',');
+        llista(sb, true, ";");
+        return sb.toString();
+    }
+
+    /**
+     * @return Les estadístiques com un objecte JSON en una sola línia.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(448);
+        sb.append("{\"buides\":").append(buides)
+          .append(",\"moviment\":\"").append(casella(moviment)).append('"')
+          .append(",\"motiu\":\"").append(motiu).append('"')
+          .append(",\"ponder\":").append(ponder)
+          .append(",\"profunditat\":").append(profunditat)
+          .append(",\"nodes\":").append(nodes)
+          .append(",\"temps_ms\":").append(format(temps / 1e6))
+          .append(",\"nps\":").append(Math.round(getNodesPerSegon()))
+          .append(",\"ebf\":").append(format(getEbf()))
+          .append(",\"talls_node\":").append(format(getTallsPerNode()))
+          .append(",\"talls_primer_pct\":").append(format(getPercentatgePrimer()))
+          .append(",\"tt_consultes\":").append(ttConsultes)
+          .append(",\"tt_encerts_pct\":").append(format(getPercentatgeTt()))
+          .append(",\"tt_talls_pct\":").append(format(getPercentatgeTallsTt()))
+          .append(",\"cache_consultes\":").append(cacheConsultes)
+          .append(",\"cache_encerts\":").append(cacheEncerts)
+          .append(",\"nodes_iteracio\":[");
+        llista(sb, false, ",");
+        sb.append("],\"temps_iteracio_ms\":[");
+        llista(sb, true, ",");
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /**
+     * @param format JSON o CSV.
+     * @return Les estadístiques en el format indicat.
+     */
+    public String format(Format format) {
+        return format == Format.JSON ? toJson() : toCsv();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    private void llista(StringBuilder sb, boolean temps, String separador) {
+        int n = Math.min(iteracions, nodesProfunditat.length);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(separador);
+            if (temps) sb.append(format(tempsIteracio[i] / 1e6));
+            else sb.append(nodesProfunditat[i]);
+        }
+    }
+
+    private static String format(double v) {
+        return String.format(Locale.ROOT, "%.3f", v);
+    }
+
+    /**
+     * @return La casella en notació de l'Othello (per exemple "d3"), o "-".
+     */
+    private static String casella(int sq) {
+        if (sq < 0) return "-";
+        return "" + (char) ('a' + sq % Bitboard.SIZE) + (char) ('1' + sq / Bitboard.SIZE);
+    }
+}
@@ -0,0 +1,179 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+
+
+/**
+ * Les 8 simetries del tauler (4 girs i les seves reflexions) aplicades
+ * directament als bitboards.
+ *
+ * La simetria s es fa aplicant, en aquest ordre, la reflexió per la
+ * diagonal (x, y) -> (y, x) si s té el bit 2, la reflexió horitzontal
+ * x -> 7 - x si té el bit 0 i la vertical y -> 7 - y si té el bit 1.
+ * La simetria 0 és la identitat.
+ *
+ * La forma canònica d'una posició és la de les 8 transformades que té el
+ * parell (jugador, rival) més petit, de manera que posicions equivalents
+ * tenen la mateixa forma canònica. El hash canònic (hash) és el d'aquesta
+ * forma, i el fan servir les taules que volen trobar una posició encara
+ * que s'hi hagi arribat girada o reflectida.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public final class Symmetry {
+
+    /** Nombre de simetries del tauler. */
+    public static final int N = 8;
+
+    /** Casella transformada per cada simetria: CASELLES[s][sq]. */
+    private static final int[][] CASELLES = new int[N][64];
+
+    /** Simetria inversa de cada simetria. */
+    private static final int[] INVERSES = new int[N];
+
+    static {
+        for (int s = 0; s < N; s++) {
+            for (int sq = 0; sq < 64; sq++) {
+                CASELLES[s][sq] = Long.numberOfTrailingZeros(transforma(1L << sq, s));
+            }
+        }
+        for (int s = 0; s < N; s++) {
+            for (int t = 0; t < N; t++) {
+                boolean inversa = true;
+                for (int sq = 0; sq < 64 && inversa; sq++) {
+                    inversa = CASELLES[t][CASELLES[s][sq]] == sq;
+                }
+                if (inversa) INVERSES[s] = t;
+            }
+        }
+    }
+
+    private Symmetry() {
+    }
+
+
+    /**
+     * @param b Màscara de caselles.
+     * @param s Simetria, de 0 a 7.
+     * @return La màscara transformada.
+     */
+    public static long transforma(long b, int s) {
+        if ((s & 4) != 0) b = diagonal(b);
+        if ((s & 1) != 0) b = horitzontal(b);
+        if ((s & 2) != 0) b = Long.reverseBytes(b);
+        return b;
+    }
+
+    /**
+     * @param sq Casella del bitboard.
+     * @param s Simetria, de 0 a 7.
+     * @return La casella transformada.
+     */
+    public static int casella(int sq, int s) {
+        return CASELLES[s][sq];
+    }
+
+    /**
+     * @param s Simetria, de 0 a 7.
+     * @return La simetria que desfà s.
+     */
+    public static int inversa(int s) {
+        return INVERSES[s];
+    }
+
+    /**
+     * Busca la simetria que porta la posició a la seva forma canònica.
+     *
+     * Les 8 transformades del jugador es fan amb només tres reflexions
+     * (les altres són girs de bytes d'aquestes) i el mínim es busca sense
+     * salts. Les transformades del rival només es calculen per desempatar,
+     * quan dues transformades del jugador són iguals.
+     *
+     * @param jugador Fitxes del jugador que ha de moure.
+     * @param rival Fitxes del rival.
+     * @return La simetria s tal que transforma(jugador, s) i
+     *          transforma(rival, s) són la forma canònica.
+     */
+    public static int canonica(long jugador, long rival) {
+        long h = horitzontal(jugador);
+        long d = diagonal(jugador);
+        long dh = horitzontal(d);
+        long t0 = jugador, t1 = h, t2 = Long.reverseBytes(jugador), t3 = Long.reverseBytes(h);
+        long t4 = d, t5 = dh, t6 = Long.reverseBytes(d), t7 = Long.reverseBytes(dh);
+        long m = Math.min(Math.min(Math.min(t0, t1), Math.min(t2, t3)),
+                          Math.min(Math.min(t4, t5), Math.min(t6, t7)));
+        // bit s: la transformada s del jugador és la mínima
+        int iguals = (t0 == m ? 1 : 0) | (t1 == m ? 2 : 0) | (t2 == m ? 4 : 0) | (t3 == m ? 8 : 0)
+                   | (t4 == m ? 16 : 0) | (t5 == m ? 32 : 0) | (t6 == m ? 64 : 0) | (t7 == m ? 128 : 0);
+        int millor = Integer.numberOfTrailingZeros(iguals);
+        if ((iguals & (iguals - 1)) == 0) return millor;
+        long mr = transforma(rival, millor);
+        for (int s = millor + 1; s < N; s++) {
+            if ((iguals & (1 << s)) == 0) continue;
+            long r = transforma(rival, s);
+            if (r < mr) {
+                millor = s;
+                mr = r;
+            }
+        }
+        return millor;
+    }
+
+    /**
+     * Hash de la forma canònica de la posició: és el mateix per a les 8
+     * posicions equivalents per simetria. Com el de Zobrist, depèn també
+     * del color que mou. No és compatible amb el de Zobrist.
+     *
+     * @param jugador Fitxes del jugador que ha de moure.
+     * @param rival Fitxes del rival.
+     * @param torn Color del jugador que ha de moure.
+     * @return Hash canònic.
+     */
+    public static long hash(long jugador, long rival, CellType torn) {
+        return hash(jugador, rival, torn, canonica(jugador, rival));
+    }
+
+    /**
+     * Hash canònic quan ja se sap la simetria canònica.
+     *
+     * @param jugador Fitxes del jugador que ha de moure.
+     * @param rival Fitxes del rival.
+     * @param torn Color del jugador que ha de moure.
+     * @param s canonica(jugador, rival).
+     * @return Hash canònic.
+     */
+    public static long hash(long jugador, long rival, CellType torn, int s) {
+        long j = transforma(jugador, s);
+        long r = transforma(rival, s);
+        long h = j * 0x9E3779B97F4A7C15L + Long.rotateLeft(r * 0xC2B2AE3D27D4EB4FL, 29);
+        h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+        h ^= h >>> 32;
+        return torn == CellType.PLAYER1 ? h : h ^ Zobrist.TORN;
+    }
+
+
+    /**
+     * Reflexió x -> 7 - x: inverteix els bits de cada byte.
+     */
+    static long horitzontal(long b) {
+        b = ((b >>> 1) & 0x5555555555555555L) | ((b & 0x5555555555555555L) << 1);
+        b = ((b >>> 2) & 0x3333333333333333L) | ((b & 0x3333333333333333L) << 2);
+        b = ((b >>> 4) & 0x0F0F0F0F0F0F0F0FL) | ((b & 0x0F0F0F0F0F0F0F0FL) << 4);
+        return b;
+    }
+
+    /**
+     * Reflexió (x, y) -> (y, x) per la diagonal de la casella 0 a la 63.
+     */
+    static long diagonal(long b) {
+        long t;
+        t = 0x0F0F0F0F00000000L & (b ^ (b << 28));
+        b ^= t ^ (t >>> 28);
+        t = 0x3333000033330000L & (b ^ (b << 14));
+        b ^= t ^ (t >>> 14);
+        t = 0x5500550055005500L & (b ^ (b << 7));
+        b ^= t ^ (t >>> 7);
+        return b;
+    }
+}
@@ -0,0 +1,191 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+
+/**
+ * Control del temps de cada moviment amb dos límits.
+ *
+ * A partir del temps disponible per moviment es fixen un límit suau i un
+ * límit dur. Passat el límit suau no es comença cap iteració nova, i abans
+ * de començar-ne una es prediu quant trigarà multiplicant el temps de
+ * l'última iteració pel factor de ramificació efectiu (quants nodes més
+ * cal cercar per cada ply més de profunditat). Si la predicció passa del
+ * límit dur, tampoc es comença. El límit dur és el que atura la cerca en
+ * curs: la iteració que queda a mitges es descarta.
+ *
+ * El final exacte només pot fer servir la primera part del temps fins al
+ * límit dur (superatFinal): si no el resol, la resta queda per a la cerca.
+ *
+ * Amb un temps de 0 no hi ha cap límit i la cerca només s'atura per
+ * profunditat o pel timeout del joc.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class TimeManager {
+
+    /** Fracció del temps a partir de la qual no es comença cap iteració. */
+    private static final double SUAU = 0.6;
+
+    /** Marge mínim (ms) que es deixa abans del final per retornar el moviment. */
+    private static final long MARGE_MIN = 20;
+
+    /** Fracció del temps que es deixa de marge si és més gran que MARGE_MIN. */
+    private static final double MARGE = 0.05;
+
+    /** Factor de ramificació que es fa servir fins que se'n pot mesurar un. */
+    private static final double EBF_INICIAL = 4.0;
+
+    /** Fracció del temps fins al límit dur que pot fer servir el final exacte. */
+    private static final double FINAL = 0.5;
+
+    private static final double EBF_MIN = 1.5;
+    private static final double EBF_MAX = 16.0;
+
+    private long pressupost;
+    private long inici;
+    private long suau;
+    private long dur;
+    private long limitFinal;
+
+    // temps (ns) i nodes de les últimes iteracions acabades
+    private long iniciIteracio;
+    private long tempsUltima;
+    private long nodesIteracio;
+    private long nodesUltima;
+    private long nodesPenultima;
+
+
+    /**
+     * Constructora
+     *
+     * @param pressupost Temps disponible per moviment en mil·lisegons, 0 sense límit.
+     */
+    public TimeManager(long pressupost) {
+        setPressupost(pressupost);
+    }
+
+
+    /**
+     * @param pressupost Temps disponible per moviment en mil·lisegons, 0 sense límit.
+     */
+    public void setPressupost(long pressupost) {
+        this.pressupost = Math.max(pressupost, 0);
+    }
+
+    /**
+     * @return Temps disponible per moviment en mil·lisegons, 0 sense límit.
+     */
+    public long getPressupost() {
+        return pressupost;
+    }
+
+    /**
+     * Comença a comptar el temps d'un moviment nou i fixa els dos límits.
+     */
+    public void inicia() {
+        inicia(System.nanoTime());
+    }
+
+    /**
+     * Com inicia(), però comptant el temps des d'un instant anterior, per
+     * exemple quan s'ha demanat el moviment si la cerca ha hagut d'esperar
+     * a la cua d'un Engine. El final exacte es queda la seva part del temps
+     * que encara no ha passat.
+     *
+     * @param inici Instant (System.nanoTime) des del qual es compta el temps.
+     */
+    public void inicia(long inici) {
+        this.inici = inici;
+        long marge = Math.max(MARGE_MIN, (long) (pressupost * MARGE));
+        suau = inici + (long) (pressupost * SUAU) * 1_000_000L;
+        dur = inici + Math.max(pressupost - marge, 0) * 1_000_000L;
+        long ara = System.nanoTime();
+        limitFinal = ara + Math.max((long) ((dur - ara) * FINAL), 0);
+        tempsUltima = 0;
+        nodesUltima = 0;
+        nodesPenultima = 0;
+    }
+
+    /**
+     * Decideix si val la pena començar una iteració més. Si es comença,
+     * es pren nota de l'hora per poder mesurar-ne la durada.
+     *
+     * @param nodes Nodes explorats fins ara en aquest moviment.
+     * @return Cert si hi ha temps per acabar la iteració següent.
+     */
+    public boolean potComencar(long nodes) {
+        long ara = System.nanoTime();
+        if (pressupost > 0) {
+            if (ara - suau >= 0) return false;
+            double previsio = tempsUltima * ebf();
+            if (ara + previsio - dur >= 0) return false;
+        }
+        iniciIteracio = ara;
+        nodesIteracio = nodes;
+        return true;
+    }
+
+    /**
+     * Registra que una iteració s'ha acabat sencera.
+     *
+     * @param nodes Nodes explorats fins ara en aquest moviment.
+     */
+    public void iteracioAcabada(long nodes) {
+        tempsUltima = System.nanoTime() - iniciIteracio;
+        nodesPenultima = nodesUltima;
+        nodesUltima = nodes - nodesIteracio;
+    }
+
+    /**
+     * @return Cert si s'ha passat el límit dur i s'ha d'aturar la cerca.
+     */
+    public boolean superat() {
+        return pressupost > 0 && System.nanoTime() - dur >= 0;
+    }
+
+    /**
+     * @return Cert si s'ha passat la part del temps que pot fer servir el
+     *          final exacte, i s'ha d'aturar per deixar temps a la cerca.
+     */
+    public boolean superatFinal() {
+        return pressupost > 0 && System.nanoTime() - limitFinal >= 0;
+    }
+
+    /**
+     * @return Mil·lisegons que queden fins al límit dur, o Long.MAX_VALUE
+     *          si no hi ha límit.
+     */
+    public long getTempsRestant() {
+        if (pressupost == 0) return Long.MAX_VALUE;
+        return Math.max(dur - System.nanoTime(), 0) / 1_000_000L;
+    }
+
+    /**
+     * Factor de ramificació efectiu entre les dues últimes iteracions.
+     * A l'Othello el nombre de nodes alterna segons si la profunditat és
+     * parell o senar, però amb dues iteracions seguides n'hi ha prou per
+     * fer una estimació raonable.
+     *
+     * @return Quantes vegades més nodes es preveu que tindrà la iteració següent.
+     */
+    public double ebf() {
+        return ebf(nodesUltima, nodesPenultima);
+    }
+
+    /**
+     * Com ebf(), a partir dels nodes de les dues últimes iteracions.
+     * El fa servir l'anàlisi de Search per al límit de nodes.
+     */
+    static double ebf(long nodesUltima, long nodesPenultima) {
+        if (nodesPenultima == 0) return EBF_INICIAL;
+        double f = (double) nodesUltima / nodesPenultima;
+        return Math.min(Math.max(f, EBF_MIN), EBF_MAX);
+    }
+
+    /**
+     * @return Mil·lisegons que han passat des de l'inici del moviment.
+     */
+    public long getTempsPassat() {
+        return (System.nanoTime() - inici) / 1_000_000L;
+    }
+}
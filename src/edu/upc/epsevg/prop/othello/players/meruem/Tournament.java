@@ -0,0 +1,467 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import edu.upc.epsevg.prop.othello.Move;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+
+/**
+ * Torneig sense interfície gràfica entre dues configuracions de PlayerID.
+ *
+ * Les partides es juguen en paral·lel amb un grup fix de fils (un per nucli
+ * per defecte). Cada fil crea la seva parella de jugadors i els reutilitza
+ * per a totes les partides que juga. Els jugadors mouen directament sobre
+ * un Bitboard, sense passar pel joc de la pràctica.
+ *
+ * Les obertures són unes quantes plies a l'atzar, i només s'accepten les
+ * que una cerca curta considera equilibrades. Cada obertura es juga dues
+ * vegades, una amb cada jugador a cada color.
+ *
+ * Al final s'informa de la diferència d'Elo de A respecte de B amb
+ * l'interval de confiança del 95%, i del rendiment (partides per segon i
+ * nodes per segon de cada jugador).
+ *
+ * Ús: java Tournament partides ms configA configB [fils] [plies] [llavor] [partides.mgr]
+ *
+ * on cada configuració és una llista de clau=valor separats per comes:
+ * prof (profunditat màxima), alg (MINIMAX o PVS), probcut (0 o 1, amb la
+ * calibració de l'avaluació del jugador), final
+ * (caselles buides per resoldre el final), tt (entrades de la taula),
+ * llibre (fitxer del llibre d'obertures), timeout (cert o fals), cache
+ * (entrades de la memòria cau de l'heurística de cada jugador, 0 sense),
+ * pesos (fitxer de pesos de TrainedEval, "entrenada" per als pesos de
+ * TrainedEval.perDefecte(), "patrons" per a PatternEval o "ampliada" per a
+ * FeatureEval; sense aquesta clau, l'avaluació per defecte de PlayerID),
+ * canonica (0 o 1, hash canònic per simetria a la taula i a la memòria
+ * cau; les fulles s'avaluen en la forma canònica perquè totes les
+ * orientacions d'una posició tinguin el mateix valor), taula (fitxer on es conserva la taula de transposicions
+ * entre execucions: es carrega en crear cada jugador i es desa quan acaba).
+ * Per exemple "prof=8,alg=PVS,probcut=1".
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class Tournament {
+
+    /** Plies a l'atzar de cada obertura per defecte. */
+    public static final int PLIES = 8;
+
+    /** Valor màxim (en valor absolut) d'una obertura equilibrada. */
+    public static final double EQUILIBRI = 50;
+
+    /** Profunditat de la cerca que comprova si una obertura és equilibrada. */
+    private static final int PROFUNDITAT_EQUILIBRI = 4;
+
+    private final Supplier<PlayerID> a;
+    private final Supplier<PlayerID> b;
+    private long ms;
+    private int fils = Runtime.getRuntime().availableProcessors();
+    private int plies = PLIES;
+    private long llavor = 1;
+    private GameRecordWriter registre;
+
+    // resultats des del punt de vista de A
+    private int guanyades;
+    private int empatades;
+    private int perdudes;
+    private final long[] nodes = new long[2];
+    private final long[] temps = new long[2];
+    private long durada;
+
+
+    /**
+     * Constructora
+     *
+     * @param a Crea un jugador amb la configuració A.
+     * @param b Crea un jugador amb la configuració B.
+     */
+    public Tournament(Supplier<PlayerID> a, Supplier<PlayerID> b) {
+        this.a = a;
+        this.b = b;
+    }
+
+
+    /**
+     * @param ms Mil·lisegons per moviment de cada jugador, 0 sense límit.
+     */
+    public void setTempsPerMoviment(long ms) {
+        this.ms = ms;
+    }
+
+    /**
+     * @param fils Partides que es juguen alhora.
+     */
+    public void setFils(int fils) {
+        this.fils = Math.max(fils, 1);
+    }
+
+    /**
+     * @param plies Plies a l'atzar de cada obertura.
+     */
+    public void setPlies(int plies) {
+        this.plies = plies;
+    }
+
+    /**
+     * @param llavor Llavor de les obertures.
+     */
+    public void setLlavor(long llavor) {
+        this.llavor = llavor;
+    }
+
+
+    /**
+     * Guarda totes les partides, amb l'obertura, a un fitxer de partides.
+     * L'etiqueta de cada partida és 0 si A porta les negres i 1 si les
+     * porta B. Una partida perduda per un moviment il·legal té resultat
+     * 64 per al guanyador.
+     *
+     * @param registre On s'escriuen, o null per no guardar-les.
+     */
+    public void setRegistre(GameRecordWriter registre) {
+        this.registre = registre;
+    }
+
+
+    /**
+     * Juga el torneig. Es pot tornar a cridar per afegir-hi més partides.
+     *
+     * @param partides Nombre de partides; si és senar se'n juga una més
+     *          perquè cada obertura es jugui amb els dos colors.
+     * @throws InterruptedException Si s'interromp l'espera.
+     */
+    public void juga(int partides) throws InterruptedException {
+        List<GameRecord> obertures = obertures((partides + 1) / 2);
+        int total = obertures.size() * 2;
+        AtomicInteger seguent = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(fils, r -> {
+            Thread t = new Thread(r, "torneig");
+            t.setDaemon(true);
+            return t;
+        });
+        long inici = System.nanoTime();
+        try {
+            List<Future<?>> tasques = new ArrayList<>();
+            for (int i = 0; i < fils; i++) {
+                tasques.add(executor.submit(() -> {
+                    PlayerID ja = crea(a);
+                    PlayerID jb = crea(b);
+                    for (int g = seguent.getAndIncrement(); g < total; g = seguent.getAndIncrement()) {
+                        // les partides parells A juga amb les negres (PLAYER1)
+                        boolean aNegres = g % 2 == 0;
+                        GameRecord r = new GameRecord(obertures.get(g / 2));
+                        r.setEtiqueta(aNegres ? 0 : 1);
+                        CellType guanyador = partida(r, aNegres ? ja : jb, aNegres ? jb : ja, aNegres);
+                        if (registre != null) registre.escriu(r);
+                        CellType colorA = aNegres ? CellType.PLAYER1 : CellType.PLAYER2;
+                        resultat(guanyador == CellType.EMPTY ? 0 : guanyador == colorA ? 1 : -1);
+                    }
+                    ja.aturaPonder();
+                    jb.aturaPonder();
+                    ja.desaTaula();
+                    jb.desaTaula();
+                    return null;
+                }));
+            }
+            for (Future<?> t : tasques) {
+                try {
+                    t.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        synchronized (this) {
+            durada += System.nanoTime() - inici;
+        }
+    }
+
+    private PlayerID crea(Supplier<PlayerID> config) {
+        PlayerID p = config.get();
+        if (ms > 0) p.setTempsPerMoviment(ms);
+        return p;
+    }
+
+    /**
+     * Juga una partida.
+     *
+     * @param r Obertura; s'hi afegeixen els moviments i el resultat.
+     * @param negres Jugador de PLAYER1.
+     * @param blanques Jugador de PLAYER2.
+     * @param aNegres Cert si les negres són el jugador A (per a les estadístiques).
+     * @return El color guanyador o EMPTY si és empat. Un moviment il·legal perd la partida.
+     */
+    private CellType partida(GameRecord r, PlayerID negres, PlayerID blanques, boolean aNegres) {
+        Bitboard b = r.tauler();
+        long[] n = new long[2];
+        long[] t = new long[2];
+        while (!b.isGameOver()) {
+            if (!b.currentPlayerCanMove()) {
+                b.passa();
+                continue;
+            }
+            CellType torn = b.getCurrentPlayer();
+            boolean negra = torn == CellType.PLAYER1;
+            // índex 0 per a A i 1 per a B
+            int i = negra == aNegres ? 0 : 1;
+            long inici = System.nanoTime();
+            Move m = (negra ? negres : blanques).move(new Bitboard(b));
+            t[i] += System.nanoTime() - inici;
+            n[i] += m.getNumerOfNodesExplored();
+            int sq = m.getTo() == null ? -1 : Bitboard.toSquare(m.getTo());
+            if (sq < 0 || (b.getMoviments() & (1L << sq)) == 0) {
+                suma(n, t);
+                r.setResultat(negra ? -64 : 64);
+                return torn.opposite(torn);
+            }
+            b.movePiece(sq);
+            r.afegeix(sq);
+        }
+        suma(n, t);
+        r.setResultat(b);
+        return b.getWinner();
+    }
+
+    private synchronized void suma(long[] n, long[] t) {
+        for (int i = 0; i < 2; i++) {
+            nodes[i] += n[i];
+            temps[i] += t[i];
+        }
+    }
+
+    private synchronized void resultat(int r) {
+        if (r > 0) guanyades++;
+        else if (r < 0) perdudes++;
+        else empatades++;
+    }
+
+    /**
+     * Genera obertures a l'atzar que una cerca curta considera equilibrades.
+     *
+     * @param n Nombre d'obertures.
+     * @return Els moviments de cada obertura.
+     */
+    List<GameRecord> obertures(int n) {
+        SplittableRandom atzar = new SplittableRandom(llavor);
+        Search search = new Search(new TranspositionTable(1 << 16, TranspositionTable.ReplacementPolicy.ALWAYS));
+        search.setAlgorisme(Search.Algorisme.PVS);
+        List<GameRecord> obertures = new ArrayList<>(n);
+        while (obertures.size() < n) {
+            Bitboard b = new Bitboard(OpeningBookBuilder.INICI_JUGADOR, OpeningBookBuilder.INICI_RIVAL, CellType.PLAYER1);
+            GameRecord r = new GameRecord();
+            for (int i = 0; i < plies && !b.isGameOver(); i++) {
+                int[] moves = b.getMoves();
+                if (moves.length == 0) {
+                    b.passa();
+                } else {
+                    int sq = moves[atzar.nextInt(moves.length)];
+                    b.movePiece(sq);
+                    r.afegeix(sq);
+                }
+            }
+            if (b.isGameOver()) continue;
+            search.preparaCerca();
+            if (Math.abs(search.valor(b, PROFUNDITAT_EQUILIBRI)) <= EQUILIBRI) obertures.add(r);
+        }
+        return obertures;
+    }
+
+
+    /**
+     * @return Partides jugades.
+     */
+    public synchronized int getPartides() {
+        return guanyades + empatades + perdudes;
+    }
+
+    /**
+     * @return Puntuació de A, de 0 a 1 (les partides empatades valen mig punt).
+     */
+    public synchronized double getPuntuacio() {
+        int n = getPartides();
+        return n == 0 ? 0.5 : (guanyades + 0.5 * empatades) / n;
+    }
+
+    /**
+     * @return Diferència d'Elo de A respecte de B.
+     */
+    public double getElo() {
+        return elo(getPuntuacio());
+    }
+
+    /**
+     * Marge d'error del 95% de la diferència d'Elo. Es calcula amb la
+     * variància de la puntuació de cada partida i es passa a Elo pels dos
+     * extrems de l'interval de la puntuació.
+     *
+     * @return Mitja amplada de l'interval en punts d'Elo (infinit si
+     *          l'interval arriba a 0 o a 1).
+     */
+    public synchronized double getMargeElo() {
+        int n = getPartides();
+        if (n == 0) return Double.POSITIVE_INFINITY;
+        double s = getPuntuacio();
+        double var = (guanyades * (1 - s) * (1 - s) + empatades * (0.5 - s) * (0.5 - s)
+                + perdudes * s * s) / n;
+        double marge = 1.96 * Math.sqrt(var / n);
+        return (elo(s + marge) - elo(s - marge)) / 2;
+    }
+
+    private static double elo(double s) {
+        if (s <= 0) return Double.NEGATIVE_INFINITY;
+        if (s >= 1) return Double.POSITIVE_INFINITY;
+        return 400 * Math.log10(s / (1 - s));
+    }
+
+    /**
+     * @return Partides per segon.
+     */
+    public synchronized double getPartidesPerSegon() {
+        return durada == 0 ? 0 : getPartides() * 1e9 / durada;
+    }
+
+    /**
+     * @param jugador 0 per a A, 1 per a B.
+     * @return Nodes per segon del jugador, comptant només el seu temps.
+     */
+    public synchronized double getNodesPerSegon(int jugador) {
+        return temps[jugador] == 0 ? 0 : nodes[jugador] * 1e9 / temps[jugador];
+    }
+
+    /**
+     * Escriu el resum del torneig.
+     *
+     * @param sortida On s'escriu.
+     */
+    public synchronized void informe(PrintStream sortida) {
+        sortida.printf(Locale.ROOT, "Partides: %d (A +%d =%d -%d), puntuació de A %.1f%%%n",
+                getPartides(), guanyades, empatades, perdudes, 100 * getPuntuacio());
+        sortida.printf(Locale.ROOT, "Elo A - B: %+.1f +/- %.1f (95%%)%n", getElo(), getMargeElo());
+        sortida.printf(Locale.ROOT, "Partides/s: %.2f amb %d fils%n", getPartidesPerSegon(), fils);
+        sortida.printf(Locale.ROOT, "Nodes/s: A %.0f, B %.0f%n", getNodesPerSegon(0), getNodesPerSegon(1));
+    }
+
+
+    /**
+     * Crea un generador de jugadors a partir d'una configuració de text.
+     *
+     * @param nom Nom dels jugadors.
+     * @param config Llista de clau=valor separats per comes (vegeu la
+     *          documentació de la classe).
+     * @return Un generador que crea un jugador nou cada vegada.
+     * @throws IllegalArgumentException Si alguna clau no existeix.
+     */
+    public static Supplier<PlayerID> configuracio(String nom, String config) {
+        int prof = 0;
+        Search.Algorisme alg = Search.Algorisme.MINIMAX;
+        boolean probcut = false;
+        int fin = EndgameSolver.BUIDES_FINAL;
+        int tt = PlayerID.MIDA_TT;
+        String llibre = null;
+        int cache = 0;
+        String pesos = null;
+        boolean timeout = true;
+        boolean canonica = false;
+        String taula = null;
+        for (String kv : config.split(",")) {
+            if (kv.isBlank()) continue;
+            String[] c = kv.split("=", 2);
+            String v = c.length > 1 ? c[1].trim() : "";
+            switch (c[0].trim()) {
+                case "prof": prof = Integer.parseInt(v); break;
+                case "alg": alg = Search.Algorisme.valueOf(v.toUpperCase(Locale.ROOT)); break;
+                case "probcut": probcut = v.equals("1") || Boolean.parseBoolean(v); break;
+                case "final": fin = Integer.parseInt(v); break;
+                case "tt": tt = Integer.parseInt(v); break;
+                case "llibre": llibre = v; break;
+                case "cache": cache = Integer.parseInt(v); break;
+                case "pesos": pesos = v; break;
+                case "timeout": timeout = Boolean.parseBoolean(v); break;
+                case "canonica": canonica = v.equals("1") || Boolean.parseBoolean(v); break;
+                case "taula": taula = v; break;
+                default: throw new IllegalArgumentException("Opció desconeguda: " + c[0]);
+            }
+        }
+        final int p = prof, f = fin, mida = tt;
+        final Search.Algorisme algorisme = alg;
+        final int c = cache;
+        final boolean pc = probcut, t = timeout, can = canonica;
+        final Path fitxerTaula = taula == null ? null : Paths.get(taula);
+        final OpeningBook ll;
+        try {
+            ll = llibre == null ? null : OpeningBook.obre(Paths.get(llibre));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("No es pot obrir el llibre " + llibre, e);
+        }
+        final Evaluator avaluacio;
+        try {
+            if (pesos == null) avaluacio = null;
+            else if (pesos.equals("patrons")) avaluacio = Evaluator.PATRONS;
+            else if (pesos.equals("ampliada")) avaluacio = Evaluator.AMPLIADA;
+            else if (pesos.equals("entrenada")) avaluacio = TrainedEval.perDefecte();
+            else avaluacio = TrainedEval.carrega(Paths.get(pesos));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("No es poden carregar els pesos " + pesos, e);
+        }
+        if (pesos != null && avaluacio == null) {
+            throw new IllegalArgumentException("No es troben els pesos " + TrainedEval.PESOS);
+        }
+        final ProbCut calibracio = pc ? ProbCut.perDefecte(avaluacio != null ? avaluacio : Evaluator.PATRONS) : null;
+        if (pc && calibracio == null) {
+            throw new IllegalArgumentException("No hi ha calibració de ProbCut per als pesos " + pesos);
+        }
+        return () -> {
+            PlayerID j = new PlayerID(nom, p, t, mida, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+            j.setAlgorisme(algorisme);
+            if (avaluacio != null) j.setEvaluator(avaluacio);
+            if (pc) j.setProbCut(calibracio);
+            j.setBuidesFinal(f);
+            j.setLlibre(ll);
+            if (can) j.setCanonica(true);
+            if (c > 0) j.setEvalCache(new EvalCache(c, can));
+            if (fitxerTaula != null) j.setFitxerTaula(fitxerTaula, 0);
+            return j;
+        };
+    }
+
+    /**
+     * Juga un torneig entre dues configuracions.
+     *
+     * @param args Partides, mil·lisegons per moviment, configuració A,
+     *          configuració B i, opcionalment, fils, plies de les
+     *          obertures, llavor i fitxer on s'afegeixen les partides.
+     * @throws InterruptedException Si s'interromp el torneig.
+     * @throws IOException Si no es poden guardar les partides.
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length < 4) {
+            System.err.println("Ús: Tournament partides ms configA configB [fils] [plies] [llavor] [partides.mgr]");
+            System.exit(1);
+        }
+        Tournament torneig = new Tournament(configuracio("A", args[2]), configuracio("B", args[3]));
+        torneig.setTempsPerMoviment(Long.parseLong(args[1]));
+        if (args.length > 4) torneig.setFils(Integer.parseInt(args[4]));
+        if (args.length > 5) torneig.setPlies(Integer.parseInt(args[5]));
+        if (args.length > 6) torneig.setLlavor(Long.parseLong(args[6]));
+        try (GameRecordWriter registre = args.length > 7 ? new GameRecordWriter(Paths.get(args[7])) : null) {
+            torneig.setRegistre(registre);
+            torneig.juga(Integer.parseInt(args[0]));
+        }
+        torneig.informe(System.out);
+    }
+}
@@ -0,0 +1,408 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Avaluació per patrons amb pesos entrenats, a l'estil de Logistello.
+ *
+ * Cada patró és un conjunt de caselles. Cada configuració de les caselles
+ * (buida, meva o del rival, en base 3) té un pes, i el valor de la posició
+ * és la suma dels pesos de les configuracions de tots els patrons. Un
+ * patró es mira a totes les posicions equivalents per simetria (totes
+ * comparteixen els pesos):
+ *
+ *   VORA     fila 1 més b2 i g2 (vora + 2X), 4 vegades
+ *   C3X3     quadrat 3x3 de la cantonada, 4 vegades
+ *   C2X5     rectangle 2x5 de la cantonada, 8 vegades
+ *   LINIA2   fila 2, 4 vegades
+ *   LINIA3   fila 3, 4 vegades
+ *   LINIA4   fila 4, 4 vegades
+ *   DIAG8    diagonal llarga, 2 vegades
+ *   DIAG7..4 diagonals de 7 a 4 caselles, 4 vegades cadascuna
+ *
+ * Hi ha un joc de pesos per a cada fase de la partida (segons les
+ * caselles buides) i un terme independent per fase. Els pesos es guarden
+ * com a short en unitats de 1/ESCALA fitxes, i el valor es dona en
+ * centèsimes de fitxa de diferència al final de la partida.
+ *
+ * Els pesos els entrena EvalTrainer i es guarden en un fitxer binari
+ * comprimit amb gzip: MAGIC, versió, fases, mida per fase i els pesos.
+ * Els de perDefecte() són el recurs PESOS, entrenat amb 20000 partides
+ * del programa contra ell mateix.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class TrainedEval implements Evaluator {
+
+    /** Identificador del format del fitxer ("MEV1"). */
+    public static final int MAGIC = 0x4D455631;
+
+    /** Versió del format i de la llista de patrons. */
+    public static final int VERSIO = 1;
+
+    /** Nombre de fases de la partida. */
+    public static final int FASES = 6;
+
+    /** Unitats de pes per fitxa. */
+    public static final int ESCALA = 128;
+
+    /** Patrons: nombre de caselles de cadascun. */
+    private static final int[] CASELLES = {10, 9, 10, 8, 8, 8, 8, 7, 6, 5, 4};
+
+    static final int VORA = 0, C3X3 = 1, C2X5 = 2, LINIA2 = 3, LINIA3 = 4, LINIA4 = 5,
+                     DIAG8 = 6, DIAG7 = 7, DIAG6 = 8, DIAG5 = 9, DIAG4 = 10;
+
+    /** Inici dels pesos de cada patró dins d'una fase. */
+    static final int[] INICI = new int[CASELLES.length];
+
+    /** Pesos per fase: tots els patrons i el terme independent al final. */
+    public static final int MIDA;
+
+    /** Instàncies de patrons que es miren a cada posició. */
+    public static final int INSTANCIES = 46;
+
+    /** Recurs amb els pesos per defecte, al costat d'aquesta classe. */
+    public static final String PESOS = "pesos.bin";
+
+    /**
+     * Calibració de ProbCut per als pesos de perDefecte(), en el format de
+     * ProbCut: fase, d, s, a, b, sigma. Generada amb ProbCutCalibrator
+     * (opció entrenada) sobre 800 posicions (200 per fase, llavor 1). La
+     * fa servir ProbCut.perDefecte(avaluacio).
+     */
+    static final double[][] PROBCUT = {
+        {0, 3, 0, 0.7705, 273.198, 290.520},
+        {0, 3, 1, 0.8258, 9.374, 245.704},
+        {0, 4, 1, 0.7602, -453.700, 308.887},
+        {0, 4, 2, 0.9169, -141.906, 171.584},
+        {0, 5, 1, 0.7764, 117.511, 282.149},
+        {0, 5, 2, 0.8885, 433.829, 222.930},
+        {0, 6, 1, 0.7706, -485.702, 361.923},
+        {0, 6, 3, 0.9309, -493.757, 283.230},
+        {0, 7, 1, 0.7761, 125.741, 392.568},
+        {0, 7, 3, 0.9542, 112.548, 298.685},
+        {0, 8, 2, 0.9523, -147.183, 337.973},
+        {0, 8, 4, 1.0279, -1.747, 302.362},
+        {0, 9, 2, 0.9702, 457.650, 375.680},
+        {0, 9, 4, 1.0494, 606.216, 339.965},
+        {0, 10, 2, 0.9825, -127.213, 386.186},
+        {0, 10, 5, 1.1014, -605.210, 303.765},
+        {1, 3, 0, 0.9035, 475.938, 624.209},
+        {1, 3, 1, 0.9550, -26.448, 493.963},
+        {1, 4, 1, 0.9654, -600.794, 591.223},
+        {1, 4, 2, 1.0439, -21.134, 372.857},
+        {1, 5, 1, 1.0509, -36.632, 641.396},
+        {1, 5, 2, 1.1085, 594.305, 507.358},
+        {1, 6, 1, 1.0546, -646.263, 669.843},
+        {1, 6, 3, 1.0862, -607.145, 466.355},
+        {1, 7, 1, 1.1177, -23.113, 714.263},
+        {1, 7, 3, 1.1439, 22.273, 527.358},
+        {1, 8, 2, 1.1924, 2.013, 611.852},
+        {1, 8, 4, 1.1405, 26.114, 447.507},
+        {1, 9, 2, 1.2377, 674.213, 654.977},
+        {1, 9, 4, 1.1799, 699.142, 508.135},
+        {1, 10, 2, 1.2850, 25.817, 694.279},
+        {1, 10, 5, 1.1463, -655.461, 446.917},
+        {2, 3, 0, 1.0248, 365.258, 774.264},
+        {2, 3, 1, 1.0691, -182.612, 537.666},
+        {2, 4, 1, 1.1292, -721.098, 761.917},
+        {2, 4, 2, 1.0786, -12.757, 512.421},
+        {2, 5, 1, 1.1419, -193.762, 738.763},
+        {2, 5, 2, 1.0690, 522.617, 666.305},
+        {2, 6, 1, 1.2139, -752.643, 916.158},
+        {2, 6, 3, 1.1506, -552.786, 542.197},
+        {2, 7, 1, 1.1886, -260.768, 1002.191},
+        {2, 7, 3, 1.1341, -68.805, 629.588},
+        {2, 8, 2, 1.1694, 93.627, 897.996},
+        {2, 8, 4, 1.0880, 107.484, 670.500},
+        {2, 9, 2, 1.1680, 502.443, 962.827},
+        {2, 9, 4, 1.0880, 516.293, 745.073},
+        {2, 10, 2, 1.2096, 157.359, 1015.341},
+        {2, 10, 5, 1.1342, -435.410, 653.123},
+        {3, 3, 0, 1.0773, -31.302, 865.001},
+        {3, 3, 1, 1.0423, -126.455, 609.564},
+        {3, 4, 1, 1.0553, -277.497, 791.464},
+        {3, 4, 2, 1.0384, -83.986, 506.779},
+        {3, 5, 1, 1.0500, -102.948, 809.197},
+        {3, 5, 2, 1.0294, 91.097, 617.831},
+        {3, 6, 1, 1.0647, -274.990, 871.839},
+        {3, 6, 3, 1.0231, -146.541, 576.922},
+        {3, 7, 1, 1.0908, -150.161, 868.839},
+        {3, 7, 3, 1.0472, -18.128, 575.296},
+        {3, 8, 2, 1.0880, -72.641, 668.897},
+        {3, 8, 4, 1.0454, 16.116, 478.288},
+        {3, 9, 2, 1.1006, -32.534, 679.954},
+        {3, 9, 4, 1.0567, 57.531, 511.606},
+        {3, 10, 2, 1.1055, -109.917, 779.917},
+        {3, 10, 5, 1.0724, -206.988, 458.595}
+    };
+
+    private static final int[] POT3 = new int[11];
+
+    static {
+        POT3[0] = 1;
+        for (int i = 1; i < POT3.length; i++) POT3[i] = 3 * POT3[i - 1];
+        int n = 0;
+        for (int p = 0; p < CASELLES.length; p++) {
+            INICI[p] = n;
+            n += POT3[CASELLES[p]];
+        }
+        MIDA = n + 1;
+    }
+
+    private final short[] pesos;
+
+
+    /**
+     * Constructora amb tots els pesos a zero.
+     */
+    public TrainedEval() {
+        this.pesos = new short[FASES * MIDA];
+    }
+
+    private TrainedEval(short[] pesos) {
+        this.pesos = pesos;
+    }
+
+
+    /**
+     * Els pesos del recurs PESOS, que es llegeixen la primera vegada i es
+     * comparteixen entre tots els jugadors (no es modifiquen).
+     *
+     * @return L'avaluació amb els pesos per defecte, o null si el recurs
+     *          no hi és o no es pot llegir.
+     */
+    public static TrainedEval perDefecte() {
+        return Defecte.PESOS;
+    }
+
+    private static final class Defecte {
+        static final TrainedEval PESOS = llegeix();
+
+        private static TrainedEval llegeix() {
+            try (InputStream in = TrainedEval.class.getResourceAsStream(TrainedEval.PESOS)) {
+                return in == null ? null : carrega(in);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Llegeix un fitxer de pesos escrit per escriu.
+     *
+     * @param fitxer Fitxer de pesos.
+     * @return L'avaluació.
+     * @throws IOException Si no es pot llegir o no és un fitxer de pesos
+     *          d'aquesta versió.
+     */
+    public static TrainedEval carrega(Path fitxer) throws IOException {
+        try (InputStream in = Files.newInputStream(fitxer)) {
+            return carrega(in);
+        }
+    }
+
+    /**
+     * @param entrada Contingut d'un fitxer de pesos.
+     * @return L'avaluació.
+     * @throws IOException Si no es pot llegir o no és un fitxer de pesos
+     *          d'aquesta versió.
+     */
+    public static TrainedEval carrega(InputStream entrada) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(entrada)));
+        if (in.readInt() != MAGIC) throw new IOException("No és un fitxer de pesos");
+        int versio = in.readInt();
+        int fases = in.readInt();
+        int mida = in.readInt();
+        if (versio != VERSIO || fases != FASES || mida != MIDA) {
+            throw new IOException("Fitxer de pesos incompatible (versió " + versio + ")");
+        }
+        short[] pesos = new short[FASES * MIDA];
+        for (int i = 0; i < pesos.length; i++) pesos[i] = in.readShort();
+        return new TrainedEval(pesos);
+    }
+
+    /**
+     * Escriu els pesos en el format que llegeix carrega.
+     *
+     * @param sortida On s'escriuen.
+     * @throws IOException Si no es pot escriure.
+     */
+    public void escriu(OutputStream sortida) throws IOException {
+        GZIPOutputStream gz = new GZIPOutputStream(sortida);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gz));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSIO);
+        out.writeInt(FASES);
+        out.writeInt(MIDA);
+        for (short p : pesos) out.writeShort(p);
+        out.flush();
+        gz.finish();
+    }
+
+    /**
+     * Fixa els pesos a partir dels pesos en fitxes, arrodonint-los.
+     *
+     * @param pesos Pesos en fitxes, FASES * MIDA.
+     */
+    void setPesos(float[] pesos) {
+        for (int i = 0; i < this.pesos.length; i++) {
+            long q = Math.round(pesos[i] * ESCALA);
+            this.pesos[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+        }
+    }
+
+
+    /**
+     * @return Un resum dels pesos (CRC32), per distingir uns pesos d'uns
+     *          altres.
+     */
+    long empremta() {
+        CRC32 crc = new CRC32();
+        for (short p : pesos) {
+            crc.update(p >>> 8);
+            crc.update(p);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @param buides Caselles buides.
+     * @return Fase de la partida, de 0 a FASES - 1.
+     */
+    public static int fase(int buides) {
+        return Math.min((60 - Math.min(buides, 60)) / 10, FASES - 1);
+    }
+
+    @Override
+    public double heuristic(long meves, long enemic) {
+        short[] w = pesos;
+        int base = fase(64 - Long.bitCount(meves | enemic)) * MIDA;
+        long mh = Symmetry.horitzontal(meves), eh = Symmetry.horitzontal(enemic);
+        long md = Symmetry.diagonal(meves), ed = Symmetry.diagonal(enemic);
+        long mdh = Symmetry.horitzontal(md), edh = Symmetry.horitzontal(ed);
+        // els 4 girs (simetries 0, 3, 5 i 6) i les 4 reflexions (1, 2, 4 i 7)
+        int s = gir(w, base, meves, enemic)
+              + gir(w, base, Long.reverseBytes(mh), Long.reverseBytes(eh))
+              + gir(w, base, mdh, edh)
+              + gir(w, base, Long.reverseBytes(md), Long.reverseBytes(ed))
+              + w[base + INICI[DIAG8] + diagonal(meves, enemic, 0)]
+              + w[base + INICI[DIAG8] + diagonal(mdh, edh, 0)]
+              + w[base + INICI[C2X5] + c2x5(mh, eh)]
+              + w[base + INICI[C2X5] + c2x5(Long.reverseBytes(meves), Long.reverseBytes(enemic))]
+              + w[base + INICI[C2X5] + c2x5(md, ed)]
+              + w[base + INICI[C2X5] + c2x5(Long.reverseBytes(mdh), Long.reverseBytes(edh))]
+              + w[base + MIDA - 1];
+        return s * (100.0 / ESCALA);
+    }
+
+    /**
+     * Suma els patrons que es miren a cada gir del tauler.
+     */
+    private static int gir(short[] w, int base, long m, long e) {
+        return w[base + INICI[VORA] + vora(m, e)]
+             + w[base + INICI[C3X3] + c3x3(m, e)]
+             + w[base + INICI[C2X5] + c2x5(m, e)]
+             + w[base + INICI[LINIA2] + fila(m, e, 1)]
+             + w[base + INICI[LINIA3] + fila(m, e, 2)]
+             + w[base + INICI[LINIA4] + fila(m, e, 3)]
+             + w[base + INICI[DIAG7] + diagonal(m, e, 1)]
+             + w[base + INICI[DIAG6] + diagonal(m, e, 2)]
+             + w[base + INICI[DIAG5] + diagonal(m, e, 3)]
+             + w[base + INICI[DIAG4] + diagonal(m, e, 4)];
+    }
+
+    /**
+     * Índexs (dins de la fase) de totes les instàncies de patrons de la
+     * posició, en el mateix ordre en què les suma heuristic. L'últim és el
+     * terme independent. Per a l'entrenament.
+     *
+     * @param meves Fitxes del jugador que mou.
+     * @param enemic Fitxes del rival.
+     * @param idx On s'escriuen, INSTANCIES + 1 índexs.
+     */
+    static void indexs(long meves, long enemic, int[] idx) {
+        long mh = Symmetry.horitzontal(meves), eh = Symmetry.horitzontal(enemic);
+        long md = Symmetry.diagonal(meves), ed = Symmetry.diagonal(enemic);
+        long mdh = Symmetry.horitzontal(md), edh = Symmetry.horitzontal(ed);
+        int k = gir(idx, 0, meves, enemic);
+        k = gir(idx, k, Long.reverseBytes(mh), Long.reverseBytes(eh));
+        k = gir(idx, k, mdh, edh);
+        k = gir(idx, k, Long.reverseBytes(md), Long.reverseBytes(ed));
+        idx[k++] = INICI[DIAG8] + diagonal(meves, enemic, 0);
+        idx[k++] = INICI[DIAG8] + diagonal(mdh, edh, 0);
+        idx[k++] = INICI[C2X5] + c2x5(mh, eh);
+        idx[k++] = INICI[C2X5] + c2x5(Long.reverseBytes(meves), Long.reverseBytes(enemic));
+        idx[k++] = INICI[C2X5] + c2x5(md, ed);
+        idx[k++] = INICI[C2X5] + c2x5(Long.reverseBytes(mdh), Long.reverseBytes(edh));
+        idx[k] = MIDA - 1;
+    }
+
+    private static int gir(int[] idx, int k, long m, long e) {
+        idx[k++] = INICI[VORA] + vora(m, e);
+        idx[k++] = INICI[C3X3] + c3x3(m, e);
+        idx[k++] = INICI[C2X5] + c2x5(m, e);
+        idx[k++] = INICI[LINIA2] + fila(m, e, 1);
+        idx[k++] = INICI[LINIA3] + fila(m, e, 2);
+        idx[k++] = INICI[LINIA4] + fila(m, e, 3);
+        idx[k++] = INICI[DIAG7] + diagonal(m, e, 1);
+        idx[k++] = INICI[DIAG6] + diagonal(m, e, 2);
+        idx[k++] = INICI[DIAG5] + diagonal(m, e, 3);
+        idx[k++] = INICI[DIAG4] + diagonal(m, e, 4);
+        return k;
+    }
+
+
+    /** Fila y sencera. */
+    private static int fila(long m, long e, int y) {
+        return PatternEval.index(PatternEval.fila(m, y), PatternEval.fila(e, y));
+    }
+
+    /** Fila 1 més b2 i g2. */
+    private static int vora(long m, long e) {
+        return fila(m, e, 0)
+             + POT3[8] * (int) (((m >>> 9) & 1) + 2 * ((e >>> 9) & 1))
+             + POT3[9] * (int) (((m >>> 14) & 1) + 2 * ((e >>> 14) & 1));
+    }
+
+    /** Quadrat 3x3 de la casella 0. */
+    private static int c3x3(long m, long e) {
+        return PatternEval.index(PatternEval.fila(m, 0) & 7, PatternEval.fila(e, 0) & 7)
+             + POT3[3] * PatternEval.index(PatternEval.fila(m, 1) & 7, PatternEval.fila(e, 1) & 7)
+             + POT3[6] * PatternEval.index(PatternEval.fila(m, 2) & 7, PatternEval.fila(e, 2) & 7);
+    }
+
+    /** Rectangle de 5 columnes i 2 files de la casella 0. */
+    private static int c2x5(long m, long e) {
+        return PatternEval.index(PatternEval.fila(m, 0) & 0x1F, PatternEval.fila(e, 0) & 0x1F)
+             + POT3[5] * PatternEval.index(PatternEval.fila(m, 1) & 0x1F, PatternEval.fila(e, 1) & 0x1F);
+    }
+
+    /** Diagonal de les caselles (y + j, y), de 8 - j caselles. */
+    private static int diagonal(long m, long e, int j) {
+        // caselles (k, k) amb k < 8 - j
+        long mascara = 0x8040201008040201L & (-1L >>> (8 * j));
+        return PatternEval.index(diagonal(m >>> j, mascara), diagonal(e >>> j, mascara));
+    }
+
+    /**
+     * Bits de la diagonal principal (caselles 9k) dins de la màscara, el
+     * bit k és la casella (k, k).
+     */
+    private static int diagonal(long b, long mascara) {
+        return (int) (((b & mascara) * 0x0101010101010101L) >>> 56);
+    }
+}
@@ -0,0 +1,334 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+
+/**
+ * Taula de transposicions de mida fixa feta amb dos arrays de long.
+ *
+ * Cada entrada guarda la clau de Zobrist de la posició i, empaquetats en un
+ * sol long, el valor (com a float), la profunditat, el tipus de cota, el
+ * millor moviment i la generació (cerca) en què es va escriure.
+ *
+ * La taula es pot compartir entre diversos fils sense bloquejos: la clau
+ * es guarda fent la xor amb les dades, de manera que si dos fils escriuen
+ * alhora la mateixa entrada i la clau i les dades queden barrejades, la
+ * comprovació de probe falla i l'entrada es tracta com a buida.
+ *
+ * La taula es pot desar en un fitxer (desa) i tornar a carregar en una
+ * altra execució (carrega). Es llegeix i s'escriu amb FileChannel i
+ * buffers normals, sense mapar el fitxer a memòria: un fitxer mapat no es
+ * desmapa fins que el recull el GC, i mentrestant a Windows no es pot
+ * reemplaçar ni esborrar. El fitxer té una capçalera de CAPCALERA bytes en little-endian:
+ *
+ *   | MAGIC (4) | VERSIO (4) | entrades (4) | generació (4) | perfil (8) | CRC32 (8) |
+ *
+ * i després les claus i les dades de totes les entrades. El perfil és un
+ * valor de qui desa la taula que identifica el que fa que els valors
+ * siguin comparables (l'avaluació, l'algorisme, el tipus de clau...): una
+ * taula només es carrega amb el mateix perfil.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+public class TranspositionTable {
+
+    /**
+     * Política de reemplaçament quan dues posicions cauen a la mateixa entrada.
+     */
+    public enum ReplacementPolicy {
+        /** Sempre es sobreescriu l'entrada. */
+        ALWAYS,
+        /** Només es sobreescriu si la nova és més profunda o l'antiga és d'una cerca anterior. */
+        DEPTH_PREFERRED
+    }
+
+    /** El valor guardat és exacte. */
+    public static final int EXACTA = 0;
+    /** El valor guardat és una cota inferior (hi ha hagut tall beta). */
+    public static final int INFERIOR = 1;
+    /** El valor guardat és una cota superior (cap fill ha superat alfa). */
+    public static final int SUPERIOR = 2;
+
+    /** Resultat de probe quan la posició no és a la taula. */
+    public static final long BUIDA = 0L;
+
+    /** Valor de moviment quan l'entrada no en té cap. */
+    public static final int SENSE_MOVIMENT = 0xFF;
+
+    /** Identificador del format del fitxer de la taula ("MTT1"). */
+    public static final int MAGIC = 0x4D545431;
+
+    /** Versió del format del fitxer de la taula. */
+    public static final int VERSIO = 1;
+
+    /** Mida de la capçalera del fitxer de la taula en bytes. */
+    public static final int CAPCALERA = 32;
+
+    /** Bytes que s'escriuen de cop en desar la taula. */
+    private static final int BLOC = 1 << 16;
+
+    // format de les dades: | valor (32) | generacio (8) | moviment (8) | profunditat (8) | cota (7) | valida (1) |
+    private static final long VALIDA = 1L;
+
+    private final long[] claus;
+    private final long[] dades;
+    private final int mascara;
+    private final ReplacementPolicy politica;
+    private int generacio;
+
+
+    /**
+     * Constructora
+     *
+     * @param mida Nombre d'entrades de la taula, s'arrodoneix a la potència de dos inferior.
+     * @param politica Política de reemplaçament.
+     */
+    public TranspositionTable(int mida, ReplacementPolicy politica) {
+        int n = Integer.highestOneBit(Math.max(mida, 1));
+        this.claus = new long[n];
+        this.dades = new long[n];
+        this.mascara = n - 1;
+        this.politica = politica;
+    }
+
+
+    /**
+     * Busca una posició a la taula.
+     *
+     * @param hash Hash de Zobrist de la posició.
+     * @return Les dades de l'entrada o BUIDA si no hi és.
+     */
+    public long probe(long hash) {
+        int i = (int) hash & mascara;
+        long d = dades[i];
+        if ((claus[i] ^ d) == hash && (d & VALIDA) != 0) return d;
+        return BUIDA;
+    }
+
+    /**
+     * Guarda el resultat de cercar una posició.
+     *
+     * @param hash Hash de Zobrist de la posició.
+     * @param profunditat Profunditat restant amb què s'ha cercat.
+     * @param cota EXACTA, INFERIOR o SUPERIOR.
+     * @param valor Valor trobat.
+     * @param moviment Millor moviment trobat o SENSE_MOVIMENT.
+     */
+    public void store(long hash, int profunditat, int cota, double valor, int moviment) {
+        int i = (int) hash & mascara;
+        long antiga = dades[i];
+        boolean mateixa = (claus[i] ^ antiga) == hash && (antiga & VALIDA) != 0;
+        if (politica == ReplacementPolicy.DEPTH_PREFERRED && (antiga & VALIDA) != 0
+                && !mateixa && generacio(antiga) == (generacio & 0xFF)
+                && profunditat(antiga) > profunditat) {
+            return;
+        }
+        if (moviment == SENSE_MOVIMENT && mateixa) {
+            // no perdem el millor moviment d'una cerca anterior de la mateixa posició
+            moviment = moviment(antiga);
+        }
+        long d = ((long) Float.floatToRawIntBits((float) valor) << 32)
+                | ((long) (generacio & 0xFF) << 24)
+                | ((long) (moviment & 0xFF) << 16)
+                | ((long) Math.min(profunditat, 0xFF) << 8)
+                | ((long) cota << 1)
+                | VALIDA;
+        claus[i] = hash ^ d;
+        dades[i] = d;
+    }
+
+    /**
+     * Comença una nova cerca. Les entrades de cerques anteriors passen a
+     * ser les primeres candidates a ser reemplaçades.
+     */
+    public void novaCerca() {
+        generacio++;
+    }
+
+    /**
+     * Buida tota la taula.
+     */
+    public void clear() {
+        Arrays.fill(claus, 0L);
+        Arrays.fill(dades, 0L);
+    }
+
+    /**
+     * Desa la taula en un fitxer. S'escriu en un fitxer temporal al mateix
+     * directori que després substitueix l'anterior, de manera que si
+     * l'escriptura s'interromp el fitxer anterior queda sencer. Es pot
+     * cridar mentre altres fils fan servir la taula: les entrades que
+     * s'escriuen alhora poden quedar barrejades, i en carregar-les la
+     * comprovació de probe les descarta.
+     *
+     * @param fitxer Fitxer de la taula.
+     * @param perfil Perfil de la taula (vegeu la descripció de la classe).
+     * @throws IOException Si no es pot escriure.
+     */
+    public void desa(Path fitxer, long perfil) throws IOException {
+        if (CAPCALERA + 16L * dades.length > Integer.MAX_VALUE) {
+            throw new IOException("Taula massa gran per desar-la: " + dades.length);
+        }
+        Path dir = fitxer.toAbsolutePath().getParent();
+        Path temporal = Files.createTempFile(dir, fitxer.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel c = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+                ByteBuffer bloc = ByteBuffer.allocate(BLOC).order(ByteOrder.LITTLE_ENDIAN);
+                CRC32 crc = new CRC32();
+                long pos = escriu(c, CAPCALERA, claus, bloc, crc);
+                escriu(c, pos, dades, bloc, crc);
+                ByteBuffer cap = ByteBuffer.allocate(CAPCALERA).order(ByteOrder.LITTLE_ENDIAN);
+                cap.putInt(MAGIC).putInt(VERSIO).putInt(dades.length).putInt(generacio)
+                   .putLong(perfil).putLong(crc.getValue()).flip();
+                escriu(c, cap, 0);
+                c.force(true);
+            }
+            Files.move(temporal, fitxer, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * Escriu un array de longs a partir de pos, de BLOC en BLOC bytes, i
+     * l'afegeix al CRC.
+     *
+     * @return Posició del fitxer on s'acaba.
+     */
+    private static long escriu(FileChannel c, long pos, long[] v, ByteBuffer bloc, CRC32 crc) throws IOException {
+        LongBuffer l = bloc.clear().asLongBuffer();
+        for (int i = 0; i < v.length; ) {
+            int n = Math.min(l.capacity(), v.length - i);
+            l.clear();
+            l.put(v, i, n);
+            bloc.clear().limit(8 * n);
+            crc.update(bloc.duplicate());
+            escriu(c, bloc, pos);
+            pos += 8L * n;
+            i += n;
+        }
+        return pos;
+    }
+
+    private static void escriu(FileChannel c, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) pos += c.write(b, pos);
+    }
+
+    private static void llegeix(FileChannel c, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            int n = c.read(b, pos);
+            if (n < 0) throw new EOFException("Fitxer de taula incomplet");
+            pos += n;
+        }
+        b.flip();
+    }
+
+    /**
+     * Carrega una taula desada amb desa, substituint el contingut actual.
+     * Si la taula desada té una altra mida les entrades es tornen a
+     * repartir (si dues cauen al mateix lloc es queda la més profunda).
+     * Les entrades carregades són d'una cerca anterior, de manera que
+     * amb DEPTH_PREFERRED es poden reemplaçar.
+     *
+     * @param fitxer Fitxer de la taula.
+     * @param perfil Perfil amb què s'ha de fer servir la taula.
+     * @return Cert si s'ha carregat; fals (i la taula no es toca) si el
+     *          fitxer no existeix o és d'una altra versió o un altre perfil.
+     * @throws IOException Si no es pot llegir o el fitxer està malmès
+     *          (la taula no es toca).
+     */
+    public boolean carrega(Path fitxer, long perfil) throws IOException {
+        if (!Files.exists(fitxer)) return false;
+        try (FileChannel c = FileChannel.open(fitxer, StandardOpenOption.READ)) {
+            long mida = c.size();
+            if (mida < CAPCALERA || mida > Integer.MAX_VALUE) throw new IOException("No és un fitxer de taula");
+            ByteBuffer cap = ByteBuffer.allocate(CAPCALERA).order(ByteOrder.LITTLE_ENDIAN);
+            llegeix(c, cap, 0);
+            if (cap.getInt(0) != MAGIC) throw new IOException("No és un fitxer de taula");
+            if (cap.getInt(4) != VERSIO || cap.getLong(16) != perfil) return false;
+            int n = cap.getInt(8);
+            if (n <= 0 || Integer.bitCount(n) != 1 || mida != CAPCALERA + 16L * n) {
+                throw new IOException("Fitxer de taula malmès");
+            }
+            ByteBuffer cos = ByteBuffer.allocate((int) mida - CAPCALERA).order(ByteOrder.LITTLE_ENDIAN);
+            llegeix(c, cos, CAPCALERA);
+            CRC32 crc = new CRC32();
+            crc.update(cos.duplicate());
+            if (crc.getValue() != cap.getLong(24)) throw new IOException("Fitxer de taula malmès");
+            LongBuffer entrades = cos.asLongBuffer();
+            if (n == dades.length) {
+                entrades.get(claus);
+                entrades.get(dades);
+            } else {
+                clear();
+                for (int i = 0; i < n; i++) {
+                    long k = entrades.get(i);
+                    long d = entrades.get(n + i);
+                    if ((d & VALIDA) == 0) continue;
+                    int j = (int) (k ^ d) & mascara;
+                    if ((dades[j] & VALIDA) != 0 && profunditat(dades[j]) >= profunditat(d)) continue;
+                    claus[j] = k;
+                    dades[j] = d;
+                }
+            }
+            generacio = cap.getInt(12) + 1;
+        }
+        return true;
+    }
+
+    /**
+     * @return Nombre d'entrades de la taula.
+     */
+    public int mida() {
+        return dades.length;
+    }
+
+
+    /**
+     * @param d Dades retornades per probe.
+     * @return Valor guardat.
+     */
+    public static double valor(long d) {
+        return Float.intBitsToFloat((int) (d >>> 32));
+    }
+
+    /**
+     * @param d Dades retornades per probe.
+     * @return Profunditat restant amb què es va cercar la posició.
+     */
+    public static int profunditat(long d) {
+        return (int) (d >>> 8) & 0xFF;
+    }
+
+    /**
+     * @param d Dades retornades per probe.
+     * @return EXACTA, INFERIOR o SUPERIOR.
+     */
+    public static int cota(long d) {
+        return (int) (d >>> 1) & 0x7F;
+    }
+
+    /**
+     * @param d Dades retornades per probe.
+     * @return Millor moviment (casella del bitboard) o SENSE_MOVIMENT.
+     */
+    public static int moviment(long d) {
+        return (int) (d >>> 16) & 0xFF;
+    }
+
+    private static int generacio(long d) {
+        return (int) (d >>> 24) & 0xFF;
+    }
+}
@@ -0,0 +1,68 @@
+package edu.upc.epsevg.prop.othello.players.meruem;
+
+import edu.upc.epsevg.prop.othello.CellType;
+import java.util.SplittableRandom;
+
+
+/**
+ * Claus aleatòries de Zobrist per identificar posicions a la taula de
+ * transposicions. El hash d'un tauler és la xor de la clau de cada fitxa
+ * (segons el seu color i la seva casella) i, si mou PLAYER2, la clau del torn.
+ *
+ * @author Aitor Alonso Coloma
+ * @author Alexandre Picas Martínez
+ */
+final class Zobrist {
+
+    /** Clau de cada casella per a cada color: [0] PLAYER1, [1] PLAYER2. */
+    static final long[][] CLAUS = new long[2][64];
+
+    /** Xor de les claus dels dos colors, per girar una fitxa amb una sola operació. */
+    static final long[] GIR = new long[64];
+
+    /** Clau que s'afegeix quan mou PLAYER2. */
+    static final long TORN;
+
+    static {
+        // llavor fixa perquè els hash siguin reproduïbles entre execucions
+        SplittableRandom r = new SplittableRandom(0x6d657275656dL);
+        for (int sq = 0; sq < 64; sq++) {
+            CLAUS[0][sq] = r.nextLong();
+            CLAUS[1][sq] = r.nextLong();
+            GIR[sq] = CLAUS[0][sq] ^ CLAUS[1][sq];
+        }
+        TORN = r.nextLong();
+    }
+
+    private Zobrist() {
+    }
+
+
+    /**
+     * @param color Color d'un jugador.
+     * @return Índex del color a CLAUS.
+     */
+    static int index(CellType color) {
+        return color == CellType.PLAYER1 ? 0 : 1;
+    }
+
+    /**
+     * Calcula el hash d'un tauler des de zero.
+     *
+     * @param jugador Fitxes del jugador que ha de moure.
+     * @param rival Fitxes del rival.
+     * @param torn Color del jugador que ha de moure.
+     * @return Hash de Zobrist de la posició.
+     */
+    static long hash(long jugador, long rival, CellType torn) {
+        int j = index(torn);
+        long h = j == 0 ? 0 : TORN;
+        for (long b = jugador; b != 0; b &= b - 1) {
+            h ^= CLAUS[j][Long.numberOfTrailingZeros(b)];
+        }
+        for (long b = rival; b != 0; b &= b - 1) {
+            h ^= CLAUS[1 - j][Long.numberOfTrailingZeros(b)];
+        }
+        return h;
+    }
+}